@@ -0,0 +1,26 @@
+package ch.brewingstand.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar: the regular JMH command line, with the GC profiler always enabled so that every run
+ * reports the allocation rate (gc.alloc.rate and gc.alloc.rate.norm, in bytes per operation) next to the timings.
+ */
+public final class Benchmarks {
+
+    // Utility class pattern: no instances.
+    private Benchmarks() {}
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,83 @@
+package ch.brewingstand.bench;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.CoffeeClasses.CoffeeIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read path of GET /coffees and GET /coffees/{id}: index lookups of one page of filtered coffees, and lookups by name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CoffeeFilterBenchmark {
+
+    // Default page size of the clients.
+    private static final int PAGE = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private final ConcurrentHashMap<String, Coffee> coffees = new ConcurrentHashMap<>();
+    private final CoffeeIndex index = new CoffeeIndex();
+
+    @Setup
+    public void setup() {
+        long version = 0;
+        for (Coffee coffee : Datasets.coffees(size)) {
+            coffees.put(coffee.name(), coffee);
+            index.add(coffee, ++version);
+        }
+    }
+
+    @Benchmark
+    public List<Coffee> unfilteredPage() {
+        return page(null, null, null, null);
+    }
+
+    @Benchmark
+    public List<Coffee> filterByOrigin() {
+        return page("Peru", null, null, null);
+    }
+
+    @Benchmark
+    public List<Coffee> filterIntersection() {
+        // Two selective postings (1/10 and 1/8 of the catalog) intersected.
+        return page("Kenya", null, "nutty", null);
+    }
+
+    @Benchmark
+    public long filterVersion() {
+        return index.version("Kenya", null, "nutty", null);
+    }
+
+    @Benchmark
+    public Coffee lookupByName() {
+        return coffees.get(Datasets.coffeeName(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    private List<Coffee> page(String origin, Integer intensity, String aroma, String type) {
+        return index.lookup(origin, intensity, aroma, type, null)
+                .map(coffees::get)
+                .limit(PAGE)
+                .toList();
+    }
+}
@@ -0,0 +1,58 @@
+package ch.brewingstand.bench;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic datasets shared by the benchmarks and the load harness, so that runs can be compared.
+ */
+public final class Datasets {
+
+    public static final String[] ORIGINS = {"Brazil", "Colombia", "Ethiopia", "Guatemala", "India", "Indonesia",
+            "Kenya", "Mexico", "Peru", "Vietnam"};
+    public static final String[] AROMAS = {"chocolate", "caramel", "floral", "fruity", "nutty", "spicy", "earthy",
+            "citrus"};
+    public static final String[] TYPES = {"ARABICA", "ROBUSTA", "BLEND"};
+
+    // Utility class pattern: no instances.
+    private Datasets() {}
+
+    /**
+     * @param i position of the coffee
+     * @return the name of the i-th coffee, in the same order as the names
+     */
+    public static String coffeeName(int i) {
+        return String.format("coffee-%07d", i);
+    }
+
+    /**
+     * @param i position of the coffee
+     * @return the i-th coffee
+     */
+    public static Coffee coffee(int i) {
+        return new Coffee(coffeeName(i), ORIGINS[i % ORIGINS.length], i % 10 + 1, AROMAS[i % AROMAS.length],
+                TYPES[i % TYPES.length]);
+    }
+
+    /**
+     * @param count number of coffees
+     * @return the first count coffees
+     */
+    public static List<Coffee> coffees(int count) {
+        List<Coffee> coffees = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) coffees.add(coffee(i));
+        return coffees;
+    }
+
+    /**
+     * @param i       position of the review, its id is i + 1
+     * @param coffees number of coffees the reviews are spread on
+     * @return the i-th review
+     */
+    public static Review review(int i, int coffees) {
+        return new Review(String.valueOf(i + 1), coffeeName(i % coffees), i % 5 + 1, "review " + i);
+    }
+}
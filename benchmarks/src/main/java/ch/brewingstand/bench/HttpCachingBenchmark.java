@@ -0,0 +1,55 @@
+package ch.brewingstand.bench;
+
+import ch.brewingstand.endpoints.HttpCaching;
+import ch.brewingstand.endpoints.HttpDates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ETag generation, done by every GET before the 304 check, and the HTTP dates of Last-Modified and
+ * If-Modified-Since.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpCachingBenchmark {
+
+    private static final String DATE = "Sat, 17 Oct 2026 04:37:41 GMT";
+
+    private long version;
+
+    @Benchmark
+    public String entityEtag() {
+        return HttpCaching.buildEtag("review:" + (version & 0xFFFF), ++version);
+    }
+
+    @Benchmark
+    public String listEtag() {
+        // Same scope as a filtered and paginated GET /coffees.
+        return HttpCaching.buildEtag("coffees?Peru&5&null&null&limit=100&cursor=&NONE", ++version);
+    }
+
+    @Benchmark
+    public long parseDate() {
+        // A client sends back the Last-Modified it got.
+        return HttpDates.parse(DATE);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        // Last-Modified of one of a few entities.
+        return HttpDates.format(1_792_211_861L + (++version & 0x3F));
+    }
+}
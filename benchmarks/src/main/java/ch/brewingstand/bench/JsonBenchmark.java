@@ -0,0 +1,84 @@
+package ch.brewingstand.bench;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.JsonCodecs;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewCreateRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the responses and parsing of the request bodies, with the mapper of the application
+ * (hand-written codecs) or Javalin's default one (generic record codecs).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int pageSize;
+
+    @Param({"true", "false"})
+    public boolean codecs;
+
+    private static final byte[] COFFEE_BODY =
+            "{\"name\":\"Colombia 42\",\"origin\":\"Colombia\",\"intensity\":7,\"aroma\":\"fruity\",\"type\":\"Arabica\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REVIEW_BODY =
+            "{\"coffeeName\":\"Colombia 42\",\"rating\":4,\"comment\":\"Round, with a long and sweet finish\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private ObjectMapper mapper;
+    private List<Coffee> coffees;
+    private List<Review> reviews;
+
+    @Setup
+    public void setup() {
+        mapper = codecs ? JsonCodecs.MAPPER : JavalinJackson.defaultMapper();
+        coffees = Datasets.coffees(pageSize);
+        reviews = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) reviews.add(Datasets.review(i, 100));
+    }
+
+    @Benchmark
+    public byte[] coffeePage() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(coffees);
+    }
+
+    @Benchmark
+    public byte[] reviewPage() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(reviews);
+    }
+
+    @Benchmark
+    public Coffee coffeeBody() throws IOException {
+        return mapper.readValue(COFFEE_BODY, Coffee.class);
+    }
+
+    @Benchmark
+    public ReviewCreateRequest reviewBody() throws IOException {
+        return mapper.readValue(REVIEW_BODY, ReviewCreateRequest.class);
+    }
+}
@@ -0,0 +1,269 @@
+package ch.brewingstand.bench;
+
+import ch.brewingstand.Main;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import io.javalin.json.JavalinJackson;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load test: starts the application in this JVM on an ephemeral port (see {@link Main#start}), loads a
+ * catalog through the bulk endpoints, then drives concurrent clients over HTTP for a fixed duration and reports the
+ * throughput, the latency percentiles and the allocation rate of each operation.
+ *
+ * The workload mixes filtered list pages, lookups by id and review creations. As the clients run in the same JVM as
+ * the server, the allocation rate covers both, and is only meant to compare runs with each other.
+ *
+ * Usage: LoadHarness [--clients 64] [--warmup 10] [--duration 30] [--coffees 10000] [--reviews 100000]
+ *                    [--writes 10]
+ */
+public final class LoadHarness {
+
+    private enum Operation { LIST_COFFEES, GET_COFFEE, LIST_REVIEWS, GET_REVIEW, POST_REVIEW }
+
+    private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+    private static final int BULK_BATCH = 10_000;
+
+    private final Map<String, Integer> options;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final Map<Operation, Recorder> latencies = new LinkedHashMap<>();
+    private final Map<Operation, LongAdder> errors = new LinkedHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private String base;
+
+    private LoadHarness(Map<String, Integer> options) {
+        this.options = options;
+        for (Operation op : Operation.values()) {
+            // Latencies from 1 µs to 60 s, in nanoseconds, with 3 significant digits.
+            latencies.put(op, new Recorder(TimeUnit.SECONDS.toNanos(60), 3));
+            errors.put(op, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> options = new LinkedHashMap<>();
+        options.put("clients", 64);
+        options.put("warmup", 10);
+        options.put("duration", 30);
+        options.put("coffees", 10_000);
+        options.put("reviews", 100_000);
+        options.put("writes", 10);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i].replaceFirst("^--", "");
+            if (!options.containsKey(name)) throw new IllegalArgumentException("Unknown option " + args[i]);
+            options.put(name, Integer.parseInt(args[i + 1]));
+        }
+
+        Javalin app = Main.start(0);
+        try {
+            new LoadHarness(options).run(app.port());
+        } finally {
+            app.stop();
+        }
+    }
+
+    private void run(int port) throws Exception {
+        base = "http://localhost:" + port;
+        System.out.println("Server started on port " + port + ", options " + options);
+
+        long start = System.nanoTime();
+        load();
+        System.out.printf("Loaded %d coffees and %d reviews in %d ms%n", options.get("coffees"),
+                options.get("reviews"), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        drive(options.get("warmup"));
+        for (Recorder recorder : latencies.values()) recorder.reset();
+        for (LongAdder adder : errors.values()) adder.reset();
+
+        long allocatedBefore = allocatedBytes();
+        long[] gcBefore = gcStats();
+        long elapsed = drive(options.get("duration"));
+        long allocated = allocatedBytes() - allocatedBefore;
+        long[] gcAfter = gcStats();
+
+        report(elapsed, allocated, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    /**
+     * Loads the catalog through the bulk endpoints.
+     */
+    private void load() throws IOException, InterruptedException {
+        int coffees = options.get("coffees");
+        int reviews = options.get("reviews");
+        List<Object> batch = new ArrayList<>(BULK_BATCH);
+        for (int i = 0; i < coffees; i++) {
+            batch.add(Datasets.coffee(i));
+            if (batch.size() == BULK_BATCH || i == coffees - 1) flush("/coffees/bulk", batch);
+        }
+        for (int i = 0; i < reviews; i++) {
+            Review review = Datasets.review(i, coffees);
+            batch.add(Map.of("coffeeName", review.coffeeName(), "rating", review.rating(),
+                    "comment", review.comment()));
+            if (batch.size() == BULK_BATCH || i == reviews - 1) flush("/reviews/bulk", batch);
+        }
+        created.set(reviews);
+    }
+
+    private void flush(String path, List<Object> batch) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(post(path, batch), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Loading failed: " + response.statusCode() + " " + response.body());
+        }
+        batch.clear();
+    }
+
+    /**
+     * Runs the clients for the given duration.
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    private long drive(int seconds) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < options.get("clients"); i++) {
+                clients.submit(() -> {
+                    while (running.get()) request();
+                    return null;
+                });
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            running.set(false);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void request() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int coffees = options.get("coffees");
+        Operation op = pick(random);
+        HttpRequest request = switch (op) {
+            case LIST_COFFEES -> get("/coffees?origin=" + Datasets.ORIGINS[random.nextInt(Datasets.ORIGINS.length)]
+                    + "&limit=50");
+            case GET_COFFEE -> get("/coffees/" + Datasets.coffeeName(random.nextInt(coffees)));
+            case LIST_REVIEWS -> get("/reviews?coffeeName=" + Datasets.coffeeName(random.nextInt(coffees))
+                    + "&limit=50");
+            case GET_REVIEW -> get("/reviews/" + (1 + random.nextLong(Math.max(1, created.get()))));
+            case POST_REVIEW -> post("/reviews", Map.of(
+                    "coffeeName", Datasets.coffeeName(random.nextInt(coffees)),
+                    "rating", 1 + random.nextInt(5),
+                    "comment", "load " + created.incrementAndGet()));
+        };
+
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            // A lookup of a deleted or not yet created id is a valid answer.
+            if (response.statusCode() >= 400 && response.statusCode() != 404) errors.get(op).increment();
+        } catch (IOException e) {
+            errors.get(op).increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        latencies.get(op).recordValue(System.nanoTime() - start);
+    }
+
+    private Operation pick(ThreadLocalRandom random) {
+        if (random.nextInt(100) < options.get("writes")) return Operation.POST_REVIEW;
+        return switch (random.nextInt(4)) {
+            case 0 -> Operation.LIST_COFFEES;
+            case 1 -> Operation.GET_COFFEE;
+            case 2 -> Operation.LIST_REVIEWS;
+            default -> Operation.GET_REVIEW;
+        };
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path)).GET().build();
+    }
+
+    private HttpRequest post(String path, Object body) {
+        try {
+            return HttpRequest.newBuilder(URI.create(base + path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void report(long elapsedNanos, long allocatedBytes, long gcCount, long gcMillis) {
+        double seconds = elapsedNanos / 1e9;
+        Histogram total = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+        System.out.printf("%n%-14s %12s %10s %10s %10s %10s %10s %8s%n",
+                "operation", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (Operation op : Operation.values()) {
+            Histogram histogram = latencies.get(op).getIntervalHistogram();
+            total.add(histogram);
+            print(op.name(), histogram, seconds, errors.get(op).sum());
+        }
+        long allErrors = errors.values().stream().mapToLong(LongAdder::sum).sum();
+        print("TOTAL", total, seconds, allErrors);
+
+        System.out.printf("%nAllocation rate: %.1f MB/s (%.1f KB per request, client and server)%n",
+                allocatedBytes / seconds / (1 << 20),
+                total.getTotalCount() == 0 ? 0.0 : allocatedBytes / 1024.0 / total.getTotalCount());
+        System.out.printf("GC: %d collections, %d ms (%.2f%% of the run)%n", gcCount, gcMillis,
+                gcMillis / 10.0 / seconds);
+    }
+
+    private static void print(String name, Histogram histogram, double seconds, long errors) {
+        System.out.printf("%-14s %12.0f %10.3f %10.3f %10.3f %10.3f %10.3f %8d%n", name,
+                histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(90) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMaxValue() / 1e6,
+                errors);
+    }
+
+    /**
+     * @return the bytes allocated so far by every live thread of the JVM
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes();
+    }
+
+    /**
+     * @return the number of collections and the time spent in them, in milliseconds, since the start of the JVM
+     */
+    private static long[] gcStats() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, time};
+    }
+}
@@ -0,0 +1,66 @@
+package ch.brewingstand.bench;
+
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duplicate detection of POST /reviews: creating a review behind the hashed (coffeeName, rating, comment) check,
+ * either rejected as a duplicate or accepted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ReviewCreateBenchmark {
+
+    // Number of coffees the reviews are spread on.
+    private static final int COFFEES = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private ReviewIndex index;
+    private AtomicLong ids;
+
+    // Rebuilt for every iteration, so that the accepted reviews do not pile up across iterations.
+    @Setup(Level.Iteration)
+    public void setup() {
+        index = new ReviewIndex();
+        for (int i = 0; i < size; i++) {
+            Review review = Datasets.review(i, COFFEES);
+            index.createIfAbsent(review.coffeeName(), review.rating(), review.comment(), () -> review);
+        }
+        ids = new AtomicLong(size);
+    }
+
+    @Benchmark
+    public Review createConflict() {
+        Review existing = Datasets.review(ThreadLocalRandom.current().nextInt(size), COFFEES);
+        return index.createIfAbsent(existing.coffeeName(), existing.rating(), existing.comment(), () -> existing);
+    }
+
+    @Benchmark
+    public Review createNew() {
+        String id = String.valueOf(ids.incrementAndGet());
+        String coffeeName = Datasets.coffeeName(ThreadLocalRandom.current().nextInt(COFFEES));
+        return index.createIfAbsent(coffeeName, 4, "new " + id, () -> new Review(id, coffeeName, 4, "new " + id));
+    }
+}
@@ -1,19 +1,254 @@
 package ch.brewingstand;
 
+import ch.brewingstand.admission.Admission;
+import ch.brewingstand.endpoints.CatalogDataset;
+import ch.brewingstand.endpoints.ChangeIndex;
+import ch.brewingstand.endpoints.Dictionary;
+import ch.brewingstand.endpoints.JsonCodecs;
+import ch.brewingstand.endpoints.ParallelScan;
+import ch.brewingstand.endpoints.ResponseCache;
+import ch.brewingstand.endpoints.CoffeeClasses.CoffeeController;
+import ch.brewingstand.endpoints.ReviewClasses.CompactReviewStore;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewController;
+import ch.brewingstand.feed.ChangeFeed;
+import ch.brewingstand.metrics.Startup;
+import ch.brewingstand.replication.ReplicationFollower;
+import ch.brewingstand.replication.ReplicationLeader;
+import ch.brewingstand.storage.LogBackend;
+import ch.brewingstand.storage.Storage;
 import io.javalin.Javalin;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import io.javalin.config.JavalinConfig;
+import io.javalin.json.JavalinJackson;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
     public static final int PORT = 8080;
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        ServerConfig settings = ServerConfig.load(args);
+        if (settings.getBoolean("training-run", false)) {
+            train(settings);
+            return;
+        }
+        Javalin app = start(settings);
+
+        // Stop serving first, then flush the log and write a final snapshot.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.stop();
+            Storage.close();
+        }));
+    }
+
+    /**
+     * Starts the server with the settings of the environment and of the properties file, on the given port.
+     *
+     * @param port the port to listen on, 0 for an ephemeral port (see {@link Javalin#port()})
+     * @return the started application
+     * @throws IOException if the configuration or the stored data cannot be read
+     */
+    public static Javalin start(int port) throws IOException {
+        return start(ServerConfig.load("--port=" + port));
+    }
+
+    /**
+     * Training run, used to build the class data sharing archive (see the appcds profile): warms up the request
+     * handlers on throwaway in-memory data, then returns without ever listening, so that the JVM started with
+     * -XX:ArchiveClassesAtExit archives every class the requests loaded.
+     *
+     * @param settings the server settings (see {@link ServerConfig})
+     * @throws IOException if the warm-up fails
+     */
+    static void train(ServerConfig settings) throws IOException {
+        Warmup.run(config -> configureCodecs(config, settings), settings.getInt("warmup-requests", 2_000), true);
+    }
+
+    /**
+     * Opens the storage, warms up the request handlers, then starts the server.
+     *
+     * Without replication, no socket is opened while the data is loaded, and the warm-up server is stopped before the
+     * server starts: the process holds no connection until it listens, so the boot can be checkpointed up to there.
+     *
+     * @param settings the server settings (see {@link ServerConfig})
+     * @return the started application
+     * @throws IOException if the stored data cannot be read
+     */
+    public static Javalin start(ServerConfig settings) throws IOException {
+        Startup.phase("jvm");
+        // In-memory layout, chosen before anything is loaded.
+        if (settings.getBoolean("compact-store", false)) {
+            Dictionary names = new Dictionary();
+            CoffeeController.setDictionary(names);
+            ReviewController.setStore(new CompactReviewStore(names));
+        }
+        ChangeFeed.setCapacity(settings.getInt("feed-buffer", 1 << 17));
+        ChangeIndex.setRetention(settings.getInt("changes-retention", 100_000));
+        ReviewController.setNode(settings.getInt("node-id", 0), settings.getInt("node-count", 1));
+        int cores = Runtime.getRuntime().availableProcessors();
+        ParallelScan.configure(
+                settings.getInt("scan-threads", cores),
+                settings.getInt("scan-parallelism", Math.max(1, cores / 2)),
+                settings.getInt("scan-threshold", 10_000));
+
+
+        // Storage: "memory" (default) keeps nothing across restarts, "wal" persists to the data directory.
+        CatalogDataset dataset = new CatalogDataset();
+        String storage = settings.get("storage", "memory");
+        if (storage.equalsIgnoreCase("wal")) {
+            LogBackend backend = new LogBackend(
+                    Path.of(settings.get("data-dir", "data")),
+                    settings.getBoolean("fsync", true),
+                    settings.getLong("snapshot-every", 100_000),
+                    settings.getInt("load-threads", cores));
+            Storage.open(backend, dataset);
+        } else if (!storage.equalsIgnoreCase("memory")) {
+            throw new IllegalArgumentException("Invalid value for storage : " + storage + ", expected memory or wal");
+        }
+
+        // Replication: "none" (default), "leader" streams its mutations to the followers, "follower" serves the reads
+        // from a copy of the leader's data and forwards the writes to it.
+        String replication = settings.get("replication", "none");
+        ReplicationLeader leader = null;
+        ReplicationFollower follower = null;
+        if (replication.equalsIgnoreCase("leader")) {
+            leader = new ReplicationLeader(
+                    settings.getInt("replication-port", 8081),
+                    settings.getInt("replication-buffer", 1 << 16),
+                    dataset);
+            Storage.addListener(leader::append);
+            leader.start();
+        } else if (replication.equalsIgnoreCase("follower")) {
+            follower = new ReplicationFollower(
+                    settings.get("leader", null),
+                    settings.get("leader-url", null),
+                    dataset,
+                    settings.getLong("replication-timeout", 5_000));
+            follower.start();
+            try {
+                follower.awaitSync();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the leader");
+            }
+        } else if (!replication.equalsIgnoreCase("none")) {
+            throw new IllegalArgumentException("Invalid value for replication : " + replication
+                    + ", expected none, leader or follower");
+        }
+
+        Startup.phase("load");
+
+        // Warm-up of the handlers on the loaded data, before the admission control: its requests are not counted.
+        int warmup = settings.getInt("warmup-requests", 0);
+        if (warmup > 0) {
+            Warmup.run(config -> configureCodecs(config, settings), warmup, false);
+            Startup.phase("warmup");
+        }
+
+        // Admission control, read before the routes are guarded (see RequestManager).
+        Admission.configure(
+                settings.getBoolean("admission", true),
+                settings.getInt("rate-limit", 0),
+                settings.getInt("rate-burst", 0),
+                settings.getInt("scan-concurrency", Math.max(4, 2 * cores)),
+                settings.getInt("write-concurrency", 64),
+                settings.getInt("bulk-concurrency", Math.max(1, cores / 2)),
+                settings.getLong("admission-target", 50),
+                settings.getList("trusted-proxies"));
+
+        AutoCloseable replica = (leader != null) ? leader : follower;
         Javalin app = Javalin.create(config -> {
-            // This will allow us to parse LocalDateTime
-            config.validation.register(LocalDateTime.class, LocalDateTime::parse);
+            configureCodecs(config, settings);
+            configureJetty(config, settings);
+            if (replica != null) config.events.serverStopped(replica::close);
         });
+        // The writes of a follower are forwarded before they can reach the routes of the application.
+        if (follower != null) follower.install(app);
         RequestManager.delegate(app);
+        if (leader != null) leader.install(app);
+        Startup.install(app);
+        app.start();
+        Startup.started();
+        return app;
+    }
+
+    /**
+     * JSON mapper and response compression, shared by the server and the warm-up.
+     */
+    private static void configureCodecs(JavalinConfig config, ServerConfig settings) {
+        // Shared with the response cache and the bulk endpoints, with the codecs of the coffees and reviews.
+        config.jsonMapper(new JavalinJackson(JsonCodecs.MAPPER, false));
+        configureCompression(config, settings);
+    }
+
+    /**
+     * Thread pool and connector settings.
+     *
+     * With virtual-threads=true, the pool only runs Jetty's acceptors and selectors, and every request is handled on
+     * its own virtual thread: slow clients no longer hold a pool thread each, so the number of concurrent requests is
+     * not capped by max-threads.
+     */
+    private static void configureJetty(JavalinConfig config, ServerConfig settings) {
+        QueuedThreadPool pool = new QueuedThreadPool(
+                settings.getInt("max-threads", 200),
+                settings.getInt("min-threads", 8),
+                settings.getInt("thread-idle-timeout", 60_000));
+        pool.setName("JettyServerThreadPool");
+        if (settings.getBoolean("virtual-threads", false)) {
+            if (!VirtualThreads.areSupported()) {
+                throw new IllegalStateException("virtual-threads requires a JVM with virtual threads");
+            }
+            pool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+        }
+        config.jetty.threadPool = pool;
+
+        int port = settings.getInt("port", PORT);
+        String host = settings.get("host", null);
+        int acceptors = settings.getInt("acceptors", -1); // -1: Jetty's default, from the number of cores
+        int selectors = settings.getInt("selectors", -1);
+        long idleTimeout = settings.getLong("idle-timeout", 30_000);
+        boolean h2c = settings.getBoolean("h2c", false);
+        config.jetty.addConnector((server, httpConfiguration) -> {
+            List<ConnectionFactory> factories = new ArrayList<>();
+            factories.add(new HttpConnectionFactory(httpConfiguration));
+            // HTTP/2 over cleartext, with prior knowledge or through an upgrade from HTTP/1.1.
+            if (h2c) factories.add(new HTTP2CServerConnectionFactory(httpConfiguration));
+            ServerConnector connector = new ServerConnector(server, acceptors, selectors,
+                    factories.toArray(new ConnectionFactory[0]));
+            connector.setPort(port);
+            connector.setHost(host);
+            connector.setIdleTimeout(idleTimeout);
+            return connector;
+        });
+    }
 
-        app.start(PORT);
+    /**
+     * Response compression settings, shared with the gzipped copies of the response cache.
+     */
+    private static void configureCompression(JavalinConfig config, ServerConfig settings) {
+        String compression = settings.get("compression", "gzip");
+        int minSize = settings.getInt("compression-min-size", 1500);
+        if (compression.equalsIgnoreCase("none")) {
+            config.http.disableCompression();
+            ResponseCache.setGzipMinSize(Integer.MAX_VALUE);
+        } else if (compression.equalsIgnoreCase("gzip")) {
+            CompressionStrategy strategy = new CompressionStrategy(null, new Gzip(settings.getInt("compression-level", 6)));
+            strategy.setDefaultMinSizeForCompression(minSize);
+            config.http.customCompression(strategy);
+            ResponseCache.setGzipMinSize(minSize);
+        } else {
+            throw new IllegalArgumentException("Invalid value for compression : " + compression + ", expected gzip or none");
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,20 @@
 package ch.brewingstand;
 
+import ch.brewingstand.admission.Admission;
+import ch.brewingstand.endpoints.ParallelScan;
 import ch.brewingstand.endpoints.CoffeeClasses.CoffeeController;
 import ch.brewingstand.endpoints.ReviewClasses.ReviewController;
+import ch.brewingstand.feed.ChangeFeed;
+import ch.brewingstand.metrics.Metrics;
+import ch.brewingstand.storage.Storage;
 import io.javalin.Javalin;
 
+import static ch.brewingstand.admission.Admission.guard;
+import static ch.brewingstand.admission.RouteClass.BULK;
+import static ch.brewingstand.admission.RouteClass.CHEAP;
+import static ch.brewingstand.admission.RouteClass.SCAN;
+import static ch.brewingstand.admission.RouteClass.WRITE;
+
 public abstract class RequestManager {
 
     /**
@@ -12,35 +23,83 @@ public abstract class RequestManager {
      * @param app Javalin application
      */
     public static void delegate(Javalin app) {
+        metrics_delegate(app);
+        api_delegate(app);
+        feed_delegate(app);
+    }
+
+    /**
+     * Registers the coffee and review endpoints only, without the metrics and the change feed. Used alone by the
+     * warm-up (see {@link Warmup}).
+     *
+     * @param app Javalin application
+     */
+    static void api_delegate(Javalin app) {
         coffee_delegate(app);
         review_delegate(app);
     }
+
+    /**
+     * Registers the request instrumentation and the GET /metrics endpoint.
+     *
+     * @param app Javalin application
+     */
+    private static void metrics_delegate(Javalin app) {
+        Metrics.install(app);
+        CoffeeController.registerMetrics();
+        ReviewController.registerMetrics();
+        ChangeFeed.registerMetrics();
+        Admission.registerMetrics();
+        ParallelScan.registerMetrics();
+    }
     
     /**
-     * Registers Coffee CRUD endpoints.
+     * Registers Coffee CRUD endpoints, each behind the admission control of its class (see {@link Admission}).
      *
      * @param app Javalin application
      */
     private static void coffee_delegate(Javalin app) {
-        app.get("/coffees", CoffeeController::getManyCoffees);
-        app.get("/coffees/{id}", CoffeeController::getCoffeeById);
+        app.get("/coffees", guard(SCAN, CoffeeController::getManyCoffees));
+        // Registered before /coffees/{id}, which would otherwise match "changes" as a name.
+        app.get("/coffees/changes", guard(SCAN, CoffeeController::getCoffeeChanges));
+        app.get("/coffees/{id}", guard(CHEAP, CoffeeController::getCoffeeById));
 
-        app.post("/coffees", CoffeeController::postCoffee);
-        app.put("/coffees/{id}", CoffeeController::putCoffee);
-        app.delete("/coffees/{id}", CoffeeController::deleteCoffee);
+        app.post("/coffees", guard(WRITE, CoffeeController::postCoffee));
+        app.post("/coffees/bulk", guard(BULK, CoffeeController::bulkCoffees));
+        app.put("/coffees/{id}", guard(WRITE, CoffeeController::putCoffee));
+        app.delete("/coffees/{id}", guard(WRITE, CoffeeController::deleteCoffee));
     }
 
     /**
-     * Registers Review CRUD endpoints.
+     * Registers Review CRUD endpoints, each behind the admission control of its class (see {@link Admission}).
      *
      * @param app Javalin application
      */
     private static void review_delegate(Javalin app) {
-        app.get("/reviews", ReviewController::getManyReviews);
-        app.get("/reviews/{id}", ReviewController::getReviewById);
+        app.get("/reviews", guard(SCAN, ReviewController::getManyReviews));
+        // Registered before /reviews/{id}, which would otherwise match "search" and "changes" as ids.
+        app.get("/reviews/search", guard(SCAN, ReviewController::searchReviews));
+        app.get("/reviews/changes", guard(SCAN, ReviewController::getReviewChanges));
+        app.get("/reviews/{id}", guard(CHEAP, ReviewController::getReviewById));
+
+        app.post("/reviews", guard(WRITE, ReviewController::postReview));
+        app.post("/reviews/bulk", guard(BULK, ReviewController::bulkReviews));
+        app.put("/reviews/{id}", guard(WRITE, ReviewController::putReview));
+        app.delete("/reviews/{id}", guard(WRITE, ReviewController::deleteReview));
+
+        // Rating aggregates, maintained with the reviews.
+        app.get("/coffees/{id}/rating", guard(CHEAP, ReviewController::getCoffeeRating));
+        app.get("/ratings/top", guard(CHEAP, ReviewController::getTopRated));
+    }
 
-        app.post("/reviews", ReviewController::postReview);
-        app.put("/reviews/{id}", ReviewController::putReview);
-        app.delete("/reviews/{id}", ReviewController::deleteReview);
+    /**
+     * Registers the change feed, fed with every mutation submitted to the storage.
+     *
+     * @param app Javalin application
+     */
+    private static void feed_delegate(Javalin app) {
+        Storage.addListener(ChangeFeed::publish);
+        // Long-lived streams, not capped: the feed serves every client from a shared buffer.
+        app.get("/changes", ChangeFeed::handle);
     }
 }
@@ -0,0 +1,139 @@
+package ch.brewingstand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Settings of the server, read from several sources. A setting has a key such as "max-threads", and each source names
+ * it its own way; the first source defining it wins:
+ * 1. command line: --max-threads=400 or --max-threads 400;
+ * 2. system property: -Dbrewing.max-threads=400;
+ * 3. environment variable: BREWING_MAX_THREADS=400;
+ * 4. properties file: max-threads=400, in the file given by --config (or BREWING_CONFIG), by default
+ *    brewing.properties in the working directory if it exists;
+ * 5. the default value.
+ *
+ * Invalid values are rejected when the server starts, rather than silently replaced by the default.
+ */
+public final class ServerConfig {
+
+    private static final String DEFAULT_FILE = "brewing.properties";
+
+    private final Map<String, String> cli;
+    private final Properties file;
+
+    private ServerConfig(Map<String, String> cli, Properties file) {
+        this.cli = cli;
+        this.file = file;
+    }
+
+    /**
+     * Reads the command line and the properties file.
+     *
+     * @param args command line arguments, as --key=value or --key value
+     * @return the settings
+     * @throws IOException if the properties file cannot be read
+     * @throws IllegalArgumentException if an argument is not a --key=value pair
+     */
+    public static ServerConfig load(String... args) throws IOException {
+        Map<String, String> cli = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            String arg = args[i].substring(2);
+            int eq = arg.indexOf('=');
+            if (eq >= 0) {
+                cli.put(arg.substring(0, eq), arg.substring(eq + 1));
+            } else if (i + 1 < args.length) {
+                cli.put(arg, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+
+        Properties file = new Properties();
+        String path = cli.getOrDefault("config", System.getenv("BREWING_CONFIG"));
+        Path source = Path.of(path == null ? DEFAULT_FILE : path);
+        // An explicitly named file must exist, the default one is optional.
+        if (path != null || Files.exists(source)) {
+            try (InputStream in = Files.newInputStream(source)) {
+                file.load(in);
+            }
+        }
+        return new ServerConfig(cli, file);
+    }
+
+    /**
+     * @param key          setting key
+     * @param defaultValue value used when no source defines the setting
+     * @return the value of the setting
+     */
+    public String get(String key, String defaultValue) {
+        String value = cli.get(key);
+        if (value == null) value = System.getProperty("brewing." + key);
+        if (value == null) value = System.getenv("BREWING_" + key.toUpperCase(Locale.ROOT).replace('-', '_'));
+        if (value == null) value = file.getProperty(key);
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    /**
+     * @param key          setting key
+     * @param defaultValue value used when no source defines the setting
+     * @return the value of the setting
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * @param key          setting key
+     * @param defaultValue value used when no source defines the setting
+     * @return the value of the setting
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + " : " + value + ", expected an integer");
+        }
+    }
+
+    /**
+     * @param key          setting key
+     * @param defaultValue value used when no source defines the setting
+     * @return the value of the setting
+     * @throws IllegalArgumentException if the value is neither true nor false
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        if (value == null) return defaultValue;
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        throw new IllegalArgumentException("Invalid value for " + key + " : " + value + ", expected true or false");
+    }
+
+    /**
+     * @param key setting key
+     * @return the comma-separated values of the setting, empty when no source defines it
+     */
+    public List<String> getList(String key) {
+        String value = get(key, null);
+        List<String> values = new ArrayList<>();
+        if (value == null) return values;
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) values.add(item.trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,214 @@
+package ch.brewingstand;
+
+import ch.brewingstand.endpoints.JsonCodecs;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.javalin.Javalin;
+import io.javalin.config.JavalinConfig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warm-up of the request handlers, run at startup before the server accepts requests.
+ *
+ * The JIT compiles a method once it has run enough times: right after a deploy, the first requests run interpreted
+ * through Jetty, Javalin, Jackson and the controllers, and are several times slower than the next ones. The warm-up
+ * serves the routes of the application on a private loopback port, with the same JSON mapper and compression, and
+ * sends them requests until the hot paths are compiled. The server then starts with those methods compiled and the
+ * response caches filled, and the warm-up server is stopped first, so that no socket of it is left open.
+ *
+ * The requests read the loaded data (lists, filters, ranges, orders, pages, lookups, conditional requests, search,
+ * ratings, delta syncs) and send writes rejected by the validation, so the warm-up changes no data. In a training run
+ * (see {@link Main}), the data is thrown away: the warm-up first creates, updates and deletes a few coffees and
+ * reviews, so that the write paths are loaded as well.
+ */
+final class Warmup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Warmup.class);
+
+    private static final int SEED_COFFEES = 20;
+    private static final int SEED_REVIEWS = 200;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final String base;
+    // Last ETag of each path, sent back in If-None-Match.
+    private final Map<String, String> etags = new HashMap<>();
+
+    private Warmup(int port) {
+        this.base = "http://127.0.0.1:" + port;
+    }
+
+    /**
+     * Serves the routes on a loopback port, sends them requests, then stops.
+     *
+     * @param configuration configures the codecs and the compression, like the application
+     * @param requests      number of requests to send
+     * @param seed          create throwaway data first, and exercise the writes
+     * @throws IOException if a request fails
+     */
+    static void run(Consumer<JavalinConfig> configuration, int requests, boolean seed) throws IOException {
+        long start = System.nanoTime();
+        Javalin app = Javalin.create(config -> {
+            configuration.accept(config);
+            config.jetty.defaultHost = "127.0.0.1";
+            config.jetty.defaultPort = 0;
+            config.showJavalinBanner = false;
+        });
+        RequestManager.api_delegate(app);
+        app.start();
+        try {
+            Warmup warmup = new Warmup(app.port());
+            if (seed) warmup.seed();
+            List<String> paths = warmup.paths(seed);
+            for (int i = 0; i < requests; i++) {
+                warmup.get(paths.get(i % paths.size()), i % 2 == 0, i % 4 == 3);
+                // Writes rejected by the validation: body parsing and validation, without any change.
+                if (i % 10 == 0) {
+                    warmup.send("POST", "/coffees", "{\"origin\":\"warm-up\",\"intensity\":0}", 400);
+                    warmup.send("POST", "/reviews", "{\"coffeeName\":\"\",\"rating\":0,\"comment\":\"\"}", 400);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during the warm-up");
+        } finally {
+            app.stop();
+        }
+        LOG.info("Warm-up: " + requests + " requests in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Creates, updates and deletes coffees and reviews. Every request must succeed: a training run that silently
+     * skipped the write paths would load none of them.
+     *
+     * @throws IOException if a request is not answered with its success status
+     */
+    private void seed() throws IOException, InterruptedException {
+        for (int i = 0; i < SEED_COFFEES; i++) {
+            send("POST", "/coffees", "{\"name\":\"Warm-up " + i + "\",\"origin\":\"Origin " + (i % 4)
+                    + "\",\"intensity\":" + (1 + i % 10) + ",\"aroma\":\"Aroma " + (i % 3)
+                    + "\",\"type\":\"Arabica\"}", 201);
+        }
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < SEED_REVIEWS; i++) {
+            String created = send("POST", "/reviews", "{\"coffeeName\":\"Warm-up " + (i % SEED_COFFEES)
+                    + "\",\"rating\":" + (1 + i % 5) + ",\"comment\":\"Warm-up review " + i
+                    + " smooth bitter fruity\"}", 201);
+            ids.add(JsonCodecs.MAPPER.readTree(created).path("id").asText());
+        }
+        // The attributes of a coffee are updated from the query, not from a body.
+        send("PUT", "/coffees/" + encode("Warm-up 0") + "?origin=" + encode("Origin 1")
+                + "&intensity=5&aroma=" + encode("Aroma 1") + "&type=Blend", null, 200);
+        send("PUT", "/reviews/" + ids.get(0), "{\"rating\":5,\"comment\":\"Updated during the warm-up\"}", 200);
+        send("DELETE", "/reviews/" + ids.get(1), null, 204);
+        String report = send("POST", "/reviews/bulk", "{\"coffeeName\":\"Warm-up 1\",\"rating\":3,"
+                + "\"comment\":\"Bulk one\"}\n"
+                + "{\"coffeeName\":\"Warm-up 1\",\"rating\":4,\"comment\":\"Bulk two\"}", 200);
+        if (JsonCodecs.MAPPER.readTree(report).path("failed").asInt(-1) != 0) {
+            throw new IOException("Warm-up: POST /reviews/bulk failed: " + report);
+        }
+        send("DELETE", "/coffees/" + encode("Warm-up " + (SEED_COFFEES - 1)), null, 204);
+    }
+
+    /**
+     * Builds the read requests, from a coffee and a review of the data when there are some. The lists are paged: a
+     * warm-up request should cost about as much as a client one, whatever the size of the data.
+     *
+     * @param seeded the data was created by the warm-up
+     */
+    private List<String> paths(boolean seeded) throws IOException, InterruptedException {
+        JsonNode coffees = JsonCodecs.MAPPER.readTree(get("/coffees?limit=1", false, false));
+        JsonNode reviews = JsonCodecs.MAPPER.readTree(get("/reviews?limit=1", false, false));
+        JsonNode coffee = coffees.path(0);
+        JsonNode review = reviews.path(0);
+        String name = encode(coffee.path("name").asText("warm-up"));
+        String origin = encode(coffee.path("origin").asText("warm-up"));
+        String id = review.path("id").asText("1");
+        // The longest word of a comment, likely the rarest: a search ranks every review matching it.
+        String word = "";
+        for (String candidate : review.path("comment").asText("").split("\\W+")) {
+            if (candidate.length() > word.length()) word = candidate;
+        }
+        word = encode(word.isEmpty() ? "coffee" : word);
+        // A delta sync from the current version. The changes of the loaded data are not kept, so right after a load a
+        // delta sync of the reviews would return every one of them: the coffees, few, exercise the same code.
+        long version = JsonCodecs.MAPPER.readTree(get("/coffees/changes", false, false)).path("version").asLong();
+
+        List<String> paths = new ArrayList<>();
+        paths.add("/coffees");
+        paths.add("/coffees?limit=20");
+        paths.add("/coffees?origin=" + origin);
+        paths.add("/coffees?intensity=5&limit=10");
+        paths.add("/coffees?intensityMin=3&intensityMax=7&sort=-intensity&limit=20");
+        paths.add("/coffees?stream=true");
+        paths.add("/coffees/" + name);
+        paths.add("/coffees/" + name + "/rating");
+        paths.add("/reviews?limit=50");
+        paths.add("/reviews?coffeeName=" + name + "&limit=20");
+        paths.add("/reviews?ratingMin=4&sort=-rating&limit=20");
+        paths.add("/reviews/" + id);
+        paths.add("/reviews/search?q=" + word + "&limit=20");
+        paths.add("/ratings/top");
+        paths.add("/coffees/changes?since=" + version);
+        if (seeded) paths.add("/reviews/changes?since=" + version);
+        return paths;
+    }
+
+    /**
+     * Sends a GET.
+     *
+     * @param gzip        accept a gzipped response
+     * @param conditional send the last ETag of the path, if any, in If-None-Match
+     * @return the body of the response
+     */
+    private String get(String path, boolean gzip, boolean conditional) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(base + path));
+        String etag = etags.get(path);
+        if (conditional && etag != null) request.header("If-None-Match", etag);
+        if (gzip) request.header("Accept-Encoding", "gzip");
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        response.headers().firstValue("ETag").ifPresent(value -> etags.put(path, value));
+        return response.body();
+    }
+
+    /**
+     * Sends a write.
+     *
+     * @param body     the JSON body, or null for none
+     * @param expected the status of the response, or -1 for any
+     * @return the body of the response
+     * @throws IOException if the request fails, or is answered with another status than the expected one
+     */
+    private String send(String method, String path, String body, int expected)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+                .header("Content-Type", "application/json")
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (expected != -1 && response.statusCode() != expected) {
+            throw new IOException("Warm-up: " + method + " " + path + " answered " + response.statusCode()
+                    + " instead of " + expected + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,181 @@
+package ch.brewingstand.admission;
+
+import ch.brewingstand.metrics.Metrics;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control: decides, before a route handler runs, whether the server takes the request, so that bursts of
+ * expensive requests cannot starve the cheap ones.
+ *
+ * Every route is registered with its {@link RouteClass}, and its requests go through two gates:
+ * 1. the token bucket of the client (its IP address, or the one forwarded by a trusted proxy, see
+ *    {@link TrustedProxies}), when a rate limit is set: each request takes the tokens of its class, a client without
+ *    enough tokens gets a 429 and the time to wait in Retry-After;
+ * 2. the concurrency limit of the class, adapted to its latency (see {@link ConcurrencyLimit}): a request above it
+ *    gets a 503 with Retry-After. Lookups by key are never capped: they keep being served while the scans and the
+ *    writes are shed.
+ *
+ * Rejections happen before the request body is read or any store is touched, so a rejected request costs next to
+ * nothing. The settings are read when the server starts, before the routes are registered.
+ */
+public final class Admission {
+
+    // Retry-After (s) of the requests shed by the concurrency limits.
+    private static final int OVERLOAD_RETRY_SECONDS = 1;
+
+    private static volatile boolean enabled = true;
+    private static volatile RateLimiter rateLimiter;
+    private static volatile TrustedProxies trustedProxies = TrustedProxies.of(List.of());
+    private static final Map<RouteClass, ConcurrencyLimit> limits = new EnumMap<>(RouteClass.class);
+    private static final Map<RouteClass, LongAdder> rateLimited = new EnumMap<>(RouteClass.class);
+
+    static {
+        for (RouteClass type : RouteClass.values()) rateLimited.put(type, new LongAdder());
+    }
+
+    // Utility class pattern: no instances.
+    private Admission() {}
+
+    /**
+     * Sets up the gates. Must be called before the routes are registered.
+     *
+     * @param enabled          false to admit every request
+     * @param rate             tokens earned by a client per second, 0 for no rate limit
+     * @param burst            largest number of tokens held by a client, 0 for twice the rate (at least the cost of a
+     *                         bulk request)
+     * @param scanConcurrency  largest number of list, search and delta sync requests processed at once
+     * @param writeConcurrency largest number of writes processed at once
+     * @param bulkConcurrency  largest number of bulk requests processed at once
+     * @param targetMillis     latency (ms) under which the concurrency limits never shrink
+     * @param trustedProxies   IP addresses of the reverse proxies whose X-Forwarded-For header identifies the client
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public static void configure(boolean enabled, int rate, int burst, int scanConcurrency, int writeConcurrency,
+                                 int bulkConcurrency, long targetMillis, List<String> trustedProxies) {
+        if (rate < 0) throw new IllegalArgumentException("Invalid value for rate-limit : " + rate);
+        int bucket = burst == 0 ? Math.max(2 * rate, RouteClass.BULK.cost) : burst;
+        if (rate > 0 && bucket < RouteClass.BULK.cost) {
+            throw new IllegalArgumentException("Invalid value for rate-burst : " + burst + ", expected at least "
+                    + RouteClass.BULK.cost);
+        }
+        requirePositive("scan-concurrency", scanConcurrency);
+        requirePositive("write-concurrency", writeConcurrency);
+        requirePositive("bulk-concurrency", bulkConcurrency);
+        if (targetMillis <= 0) {
+            throw new IllegalArgumentException("Invalid value for admission-target : " + targetMillis);
+        }
+        TrustedProxies proxies = TrustedProxies.of(trustedProxies);
+
+        Admission.enabled = enabled;
+        rateLimiter = rate > 0 ? new RateLimiter(rate, bucket) : null;
+        Admission.trustedProxies = proxies;
+        limits.put(RouteClass.SCAN, new ConcurrencyLimit(scanConcurrency, targetMillis));
+        limits.put(RouteClass.WRITE, new ConcurrencyLimit(writeConcurrency, targetMillis));
+        limits.put(RouteClass.BULK, new ConcurrencyLimit(bulkConcurrency, targetMillis));
+    }
+
+    /**
+     * Puts a route handler behind the gates of its class.
+     *
+     * Status codes, besides the ones of the handler:
+     * - 429 if the client exceeded its rate limit
+     * - 503 if the server is overloaded with requests of the class
+     *
+     * @param type    class of the route
+     * @param handler the route handler
+     * @return the guarded handler, or the handler itself if admission control is disabled
+     */
+    public static Handler guard(RouteClass type, Handler handler) {
+        return guard(type, handler, true);
+    }
+
+    /**
+     * Puts a route handler behind the concurrency limit of its class only, for requests whose client is rate-limited
+     * by another node: the writes a follower forwards are charged to their client by the leader.
+     *
+     * Status codes, besides the ones of the handler:
+     * - 503 if the server is overloaded with requests of the class
+     *
+     * @param type    class of the route
+     * @param handler the route handler
+     * @return the guarded handler, or the handler itself if admission control is disabled
+     */
+    public static Handler guardConcurrency(RouteClass type, Handler handler) {
+        return guard(type, handler, false);
+    }
+
+    private static Handler guard(RouteClass type, Handler handler, boolean rateLimited) {
+        if (!enabled) return handler;
+        ConcurrencyLimit limit = limits.get(type);
+        return ctx -> {
+            if (rateLimited && !admitClient(ctx, type)) return;
+            if (limit == null) {
+                handler.handle(ctx);
+                return;
+            }
+            if (!limit.tryAcquire()) {
+                ctx.header("Retry-After", Integer.toString(OVERLOAD_RETRY_SECONDS));
+                ctx.status(503).result("Error : the server is overloaded, retry later");
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+            } finally {
+                limit.release(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Registers the limits, the requests in flight and the rejections of every class.
+     */
+    public static void registerMetrics() {
+        if (!enabled) return;
+        for (Map.Entry<RouteClass, ConcurrencyLimit> entry : limits.entrySet()) {
+            String label = "class=\"" + entry.getKey().label + "\"";
+            ConcurrencyLimit limit = entry.getValue();
+            Metrics.gauge("brewing_admission_limit", "Concurrency limit of the route class, adapted to its latency",
+                    label, limit::limit);
+            Metrics.gauge("brewing_admission_in_flight", "Requests of the route class being processed", label,
+                    limit::inFlight);
+            Metrics.counter("brewing_admission_rejected_total", "Requests rejected, by route class and reason",
+                    label + ",reason=\"overload\"", limit::rejected);
+        }
+        RateLimiter limiter = rateLimiter;
+        if (limiter == null) return;
+        for (Map.Entry<RouteClass, LongAdder> entry : rateLimited.entrySet()) {
+            Metrics.counter("brewing_admission_rejected_total", "Requests rejected, by route class and reason",
+                    "class=\"" + entry.getKey().label + "\",reason=\"rate_limit\"", entry.getValue()::sum);
+        }
+        Metrics.gauge("brewing_admission_clients", "Clients tracked by the rate limit", "", limiter::clients);
+    }
+
+    /**
+     * Takes the tokens of a request from the bucket of its client, or answers 429.
+     *
+     * @return true if the request may go on
+     */
+    private static boolean admitClient(Context ctx, RouteClass type) {
+        RateLimiter limiter = rateLimiter;
+        if (limiter == null) return true;
+        long wait = limiter.take(trustedProxies.client(ctx), type.cost);
+        if (wait == 0) return true;
+        rateLimited.get(type).increment();
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+        ctx.header("Retry-After", Long.toString(seconds));
+        ctx.status(429).result("Error : too many requests, retry in " + seconds + " s");
+        return false;
+    }
+
+    private static void requirePositive(String key, int value) {
+        if (value <= 0) throw new IllegalArgumentException("Invalid value for " + key + " : " + value);
+    }
+}
@@ -0,0 +1,141 @@
+package ch.brewingstand.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive cap on the requests of a route class being processed at once.
+ *
+ * Requests above the limit are rejected right away rather than queued: a queued request would hold a thread and
+ * reach the client late anyway. The limit starts at the configured maximum and follows the latency of the class, with
+ * a gradient in the manner of TCP Vegas:
+ * - the latencies are averaged over windows of WINDOW_NANOS, and compared with a baseline: the lowest window average
+ *   of the last period, but never less than the latency target, so that latencies under the target never shrink the
+ *   limit;
+ * - when a window is slower than TOLERANCE times the baseline, requests are queueing for the CPU or the locks, and the
+ *   limit shrinks by the ratio, at most by half per window;
+ * - otherwise it grows by its square root, as long as the requests actually reach it.
+ *
+ * The window is closed by the first request completing after its end, so an idle class costs nothing. The window
+ * counters are read one after the other, so an average may be off by a concurrent request, which does not matter.
+ */
+final class ConcurrencyLimit {
+
+    private static final long WINDOW_NANOS = 100_000_000L;
+    // Number of windows after which the baseline is renewed, so that it follows lasting changes of the workload.
+    private static final int PERIOD_WINDOWS = 100;
+    private static final double TOLERANCE = 2.0;
+    // Weight of the new limit of a window, to smooth the steps.
+    private static final double SMOOTHING = 0.2;
+
+    private final int max;
+    private final long targetNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private final LongAdder rejected = new LongAdder();
+
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final LongAdder windowNanos = new LongAdder();
+    private final LongAdder windowCount = new LongAdder();
+    // Most requests in flight during the window.
+    private final AtomicInteger windowPeak = new AtomicInteger();
+    // Guarded by the compare-and-set on windowStart: updated by one thread at a time.
+    private double baseline = Double.MAX_VALUE;
+    private double periodMin = Double.MAX_VALUE;
+    private int windows;
+
+    /**
+     * @param max          largest number of requests processed at once
+     * @param targetMillis latency (ms) under which the limit never shrinks
+     */
+    ConcurrencyLimit(int max, long targetMillis) {
+        this.max = max;
+        this.targetNanos = targetMillis * 1_000_000L;
+        this.limit = max;
+    }
+
+    /**
+     * Admits a request if the limit allows it. An admitted request must be ended with {@link #release}.
+     *
+     * @return true if the request is admitted
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                windowPeak.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends an admitted request.
+     *
+     * @param nanos time spent processing it
+     */
+    void release(long nanos) {
+        inFlight.decrementAndGet();
+        windowNanos.add(nanos);
+        windowCount.increment();
+        long start = windowStart.get();
+        long now = System.nanoTime();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) adapt();
+    }
+
+    private void adapt() {
+        long count = windowCount.sumThenReset();
+        long nanos = windowNanos.sumThenReset();
+        int peak = windowPeak.getAndSet(inFlight.get());
+        if (count == 0) return;
+        double average = (double) nanos / count;
+
+        periodMin = Math.min(periodMin, average);
+        if (++windows >= PERIOD_WINDOWS) {
+            baseline = periodMin;
+            periodMin = Double.MAX_VALUE;
+            windows = 0;
+        }
+        double reference = Math.max(Math.min(baseline, periodMin), targetNanos);
+
+        double current = limit;
+        double next;
+        if (average > TOLERANCE * reference) {
+            next = current * Math.max(0.5, TOLERANCE * reference / average);
+        } else if (peak >= current / 2) {
+            next = current + Math.sqrt(current);
+        } else {
+            // The class does not use its limit: no evidence it could take more.
+            next = current;
+        }
+        next = current + SMOOTHING * (next - current);
+        limit = Math.max(1, Math.min(max, next));
+    }
+
+    /**
+     * @return the current limit
+     */
+    double limit() {
+        return limit;
+    }
+
+    /**
+     * @return number of requests being processed
+     */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return number of requests rejected so far
+     */
+    long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,127 @@
+package ch.brewingstand.admission;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket per client: each client earns rate tokens per second, holds at most burst of them, and every request
+ * takes the tokens of its route class.
+ *
+ * A bucket is a single AtomicLong, in the form of the generic cell rate algorithm: rather than a token count and a
+ * refill time, it stores the time at which the bucket will be full again. Taking n tokens pushes that time n emission
+ * intervals later, and is refused if it would then be more than burst intervals ahead of now. Admitting a request is
+ * one compare-and-set, without lock nor refill arithmetic.
+ *
+ * Buckets are created on the first request of a client, and the number of buckets is bounded:
+ * - Once maxClients clients are tracked, a new client triggers an eviction pass, which brings them back to 3/4 of
+ *   maxClients: first the buckets that are full again (clients idle for long enough, forgetting them changes nothing),
+ *   then the buckets closest to full (the clients owing the fewest tokens, forgetting them gives back the least).
+ * - A pass scans every bucket, so at most one runs at a time and at most one per MIN_PASS_INTERVAL: a flood of new
+ *   clients costs one scan per maxClients / 4 of them, not one per client.
+ * - New clients arriving while the buckets are full and no pass may run share a single overflow bucket until the next
+ *   pass makes room.
+ */
+final class RateLimiter {
+
+    private static final int MAX_CLIENTS = 100_000;
+    // Shortest time (ns) between two eviction passes.
+    private static final long MIN_PASS_INTERVAL = 100_000_000L;
+
+    // Time (ns) to earn one token.
+    private final long interval;
+    // How far ahead of now the full time may go: the burst, in ns.
+    private final long tolerance;
+    private final int maxClients;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    // Bucket of the new clients finding no room, see the class comment.
+    private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+    // Earliest time (ns) of the next eviction pass, moved forward by the thread running a pass.
+    private final AtomicLong nextPass = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param rate  tokens earned per second
+     * @param burst largest number of tokens held
+     */
+    RateLimiter(int rate, int burst) {
+        this(rate, burst, MAX_CLIENTS);
+    }
+
+    /**
+     * @param rate       tokens earned per second
+     * @param burst      largest number of tokens held
+     * @param maxClients number of clients tracked above which the buckets are evicted
+     */
+    RateLimiter(int rate, int burst, int maxClients) {
+        this.interval = 1_000_000_000L / rate;
+        this.tolerance = interval * burst;
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * Takes tokens from the bucket of a client.
+     *
+     * @param client the client, as identified by the caller
+     * @param tokens number of tokens to take
+     * @return 0 if they were taken, otherwise the time (ns) after which they will be available
+     */
+    long take(String client, int tokens) {
+        AtomicLong full = buckets.get(client);
+        if (full == null) full = bucketOfNewClient(client);
+        long cost = tokens * interval;
+        while (true) {
+            long now = System.nanoTime();
+            long current = full.get();
+            long next = Math.max(current, now) + cost;
+            long ahead = next - now;
+            if (ahead > tolerance) return ahead - tolerance;
+            if (full.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    /**
+     * @return number of clients tracked
+     */
+    int clients() {
+        return buckets.size();
+    }
+
+    private AtomicLong bucketOfNewClient(String client) {
+        if (buckets.size() >= maxClients) {
+            evict();
+            if (buckets.size() >= maxClients) return overflow;
+        }
+        return buckets.computeIfAbsent(client, c -> new AtomicLong(System.nanoTime()));
+    }
+
+    /**
+     * Runs an eviction pass, unless one is running or ran less than MIN_PASS_INTERVAL ago.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        long scheduled = nextPass.get();
+        // The thread running the pass first moves the next one far ahead, so that no other starts meanwhile.
+        if (now - scheduled < 0 || !nextPass.compareAndSet(scheduled, now + Long.MAX_VALUE / 2)) return;
+        try {
+            int keep = maxClients * 3 / 4;
+            // Owed time of every bucket: the ones owing the least are dropped first.
+            long[] owed = new long[buckets.size()];
+            int n = 0;
+            for (AtomicLong full : buckets.values()) {
+                if (n == owed.length) break;
+                owed[n++] = full.get() - now;
+            }
+            Arrays.sort(owed, 0, n);
+            // Drop the idle buckets, and the ones owing less than the keep-th most indebted.
+            long threshold = n > keep ? Math.max(0, owed[n - keep]) : 0;
+            Iterator<AtomicLong> it = buckets.values().iterator();
+            while (it.hasNext()) {
+                long debt = it.next().get() - now;
+                if (debt <= 0 || debt < threshold) it.remove();
+            }
+        } finally {
+            nextPass.set(System.nanoTime() + MIN_PASS_INTERVAL);
+        }
+    }
+}
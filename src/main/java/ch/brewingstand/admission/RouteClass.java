@@ -0,0 +1,25 @@
+package ch.brewingstand.admission;
+
+/**
+ * Cost class of a route, which decides how its requests are admitted (see {@link Admission}).
+ */
+public enum RouteClass {
+
+    /** Lookups by key and maintained aggregates: never capped nor shed, only rate limited. */
+    CHEAP("cheap", 1),
+    /** Lists, searches and delta syncs, which may read a whole store. */
+    SCAN("scan", 5),
+    /** Creations, updates and deletions of a single entity. */
+    WRITE("write", 2),
+    /** Bulk imports and exports. */
+    BULK("bulk", 20);
+
+    final String label;
+    // Tokens taken from the rate limit of the client by each request.
+    final int cost;
+
+    RouteClass(String label, int cost) {
+        this.label = label;
+        this.cost = cost;
+    }
+}
@@ -0,0 +1,110 @@
+package ch.brewingstand.admission;
+
+import io.javalin.http.Context;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Identifies the client of a request for the rate limit, behind reverse proxies.
+ *
+ * A request coming from one of the trusted proxies is attributed to the address its proxies forwarded in
+ * X-Forwarded-For, read from the right: every proxy appends the address it received the request from, so the
+ * rightmost hop that is not a trusted proxy is the client. Hops further left were written by the client itself and
+ * cannot be trusted. A request coming from any other address is attributed to that address, whatever its headers say,
+ * so that a client cannot pick its own bucket.
+ */
+final class TrustedProxies {
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private final Set<InetAddress> proxies;
+
+    private TrustedProxies(Set<InetAddress> proxies) {
+        this.proxies = proxies;
+    }
+
+    /**
+     * @param addresses IP addresses of the trusted proxies, empty to trust no proxy
+     * @return the trusted proxies
+     * @throws IllegalArgumentException if an address is not an IP address
+     */
+    static TrustedProxies of(List<String> addresses) {
+        Set<InetAddress> proxies = new HashSet<>();
+        for (String address : addresses) {
+            InetAddress parsed = parse(address);
+            if (parsed == null) {
+                throw new IllegalArgumentException("Invalid value for trusted-proxies : " + address
+                        + ", expected IP addresses");
+            }
+            proxies.add(parsed);
+        }
+        return new TrustedProxies(proxies);
+    }
+
+    /**
+     * @return the address identifying the client of the request
+     */
+    String client(Context ctx) {
+        String peer = ctx.ip();
+        if (proxies.isEmpty() || !trusted(peer)) return peer;
+        // Every header line, in order: a proxy may append its own line rather than extend the previous one.
+        Enumeration<String> headers = ctx.req().getHeaders(FORWARDED_FOR);
+        return client(peer, headers == null ? List.of() : Collections.list(headers));
+    }
+
+    /**
+     * @param peer  address the request came from
+     * @param lines the X-Forwarded-For header lines of the request, in order
+     * @return the address identifying the client of the request
+     */
+    String client(String peer, List<String> lines) {
+        if (proxies.isEmpty() || !trusted(peer)) return peer;
+        String leftmost = null;
+        for (int l = lines.size() - 1; l >= 0; l--) {
+            String[] hops = lines.get(l).split(",");
+            for (int h = hops.length - 1; h >= 0; h--) {
+                String hop = hops[h].trim();
+                if (hop.isEmpty()) continue;
+                if (!trusted(hop)) return hop;
+                leftmost = hop;
+            }
+        }
+        // Only proxies in the chain: the request started at the furthest one.
+        return leftmost != null ? leftmost : peer;
+    }
+
+    private boolean trusted(String address) {
+        InetAddress parsed = parse(address);
+        return parsed != null && proxies.contains(parsed);
+    }
+
+    /**
+     * Parses an IP address without ever resolving a host name.
+     *
+     * @return the address, or null if the text is not an IP address
+     */
+    private static InetAddress parse(String text) {
+        String address = text.strip();
+        if (address.startsWith("[") && address.endsWith("]")) address = address.substring(1, address.length() - 1);
+        boolean v6 = address.indexOf(':') >= 0;
+        if (address.isEmpty() || (!v6 && address.indexOf('.') < 0)) return null;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            boolean allowed = (c >= '0' && c <= '9') || c == '.'
+                    || (v6 && (c == ':' || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')));
+            if (!allowed) return null;
+        }
+        try {
+            // A literal address: no lookup happens.
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ch.brewingstand.endpoints;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Request and response formats of the bulk endpoints (POST /coffees/bulk, POST /reviews/bulk).
+ *
+ * The body is either a JSON array of items or newline-delimited JSON (one item per line). The whole batch is
+ * validated and applied in one pass, and the response reports the outcome of every item, in the order of the body:
+ * an invalid item does not prevent the others from being applied.
+ */
+public final class Bulk {
+
+    // Largest number of items accepted in one request.
+    public static final int MAX_ITEMS = 100_000;
+
+    public enum Mode { CREATE, UPSERT, DELETE }
+
+    /**
+     * Outcome of one item of the batch.
+     *
+     * @param index  position of the item in the body
+     * @param status HTTP status the item would have got from the single-item endpoint
+     * @param id     id of the written item, on success
+     * @param error  reason of the failure, otherwise
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record ItemResult(int index, int status, String id, String error) {}
+
+    /**
+     * Response body of a bulk request.
+     *
+     * @param succeeded number of items applied
+     * @param failed    number of items rejected
+     * @param results   outcome of every item
+     */
+    public record Report(int succeeded, int failed, List<ItemResult> results) {}
+
+    // Utility class pattern: no instances.
+    private Bulk() {}
+
+    /**
+     * Reads the mode query parameter, "create" by default.
+     *
+     * @param ctx Javalin request/response context
+     * @return the requested mode
+     * @throws BadRequestResponse if the mode is unknown
+     */
+    public static Mode mode(Context ctx) {
+        String mode = ctx.queryParam("mode");
+        if (mode == null) return Mode.CREATE;
+        try {
+            return Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("Error : mode should be one of [create, upsert, delete]");
+        }
+    }
+
+    /**
+     * Parses the items of the body, as a JSON array or as newline-delimited JSON.
+     *
+     * @param ctx  Javalin request/response context
+     * @param type item type
+     * @param <T>  item type
+     * @return the items
+     * @throws BadRequestResponse if the body is not valid JSON or holds more than MAX_ITEMS items
+     */
+    public static <T> List<T> read(Context ctx, Class<T> type) {
+        ObjectReader reader = JsonCodecs.MAPPER.readerFor(type);
+        List<T> items = new ArrayList<>();
+        // A root-level array is unwrapped by the iterator, so both formats go through the same loop.
+        try (InputStream body = ctx.bodyInputStream(); MappingIterator<T> values = reader.readValues(body)) {
+            while (values.hasNextValue()) {
+                if (items.size() == MAX_ITEMS) {
+                    throw new BadRequestResponse("Error : at most " + MAX_ITEMS + " items per request");
+                }
+                items.add(values.nextValue());
+            }
+        } catch (IOException | RuntimeJsonMappingException e) {
+            throw new BadRequestResponse("Error : invalid body, expected a JSON array or NDJSON");
+        }
+        return items;
+    }
+
+    /**
+     * @param index  position of the item
+     * @param status success status
+     * @param id     id of the written item
+     * @return a successful item result
+     */
+    public static ItemResult ok(int index, int status, String id) {
+        return new ItemResult(index, status, id, null);
+    }
+
+    /**
+     * @param index  position of the item
+     * @param status error status
+     * @param error  reason of the failure
+     * @return a failed item result
+     */
+    public static ItemResult failed(int index, int status, String error) {
+        return new ItemResult(index, status, null, error);
+    }
+
+    /**
+     * Builds the response body from the item results.
+     *
+     * @param results outcome of every item
+     * @return the report
+     */
+    public static Report report(List<ItemResult> results) {
+        int succeeded = 0;
+        for (ItemResult result : results) {
+            if (result.status() < 300) succeeded++;
+        }
+        return new Report(succeeded, results.size() - succeeded, results);
+    }
+}
@@ -0,0 +1,51 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.endpoints.CoffeeClasses.CoffeeController;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewController;
+import ch.brewingstand.storage.Dataset;
+import ch.brewingstand.storage.Mutation;
+
+import java.util.function.Consumer;
+
+/**
+ * The coffees and reviews held by the controllers, exposed to the storage layer.
+ */
+public class CatalogDataset implements Dataset {
+
+    @Override
+    public void reserve(long entities) {
+        // The reviews outnumber the coffees by far: only their storage is worth sizing.
+        ReviewController.reserve(entities);
+    }
+
+    @Override
+    public void apply(Mutation mutation) {
+        switch (mutation.kind()) {
+            case COFFEE_PUT, COFFEE_DELETE -> CoffeeController.apply(mutation);
+            default -> ReviewController.apply(mutation);
+        }
+    }
+
+    @Override
+    public void apply(Mutation mutation, long version) {
+        switch (mutation.kind()) {
+            case COFFEE_PUT, COFFEE_DELETE -> CoffeeController.apply(mutation, version);
+            default -> ReviewController.apply(mutation, version);
+        }
+    }
+
+    @Override
+    public long versionOf(Mutation mutation) {
+        return switch (mutation.kind()) {
+            case COFFEE_PUT, COFFEE_DELETE -> CoffeeController.versionOf(mutation);
+            default -> ReviewController.versionOf(mutation);
+        };
+    }
+
+    @Override
+    public void export(Consumer<Mutation> sink) {
+        // Coffees first, so that a snapshot replays in the same order as the requests that built it.
+        CoffeeController.export(sink);
+        ReviewController.export(sink);
+    }
+}
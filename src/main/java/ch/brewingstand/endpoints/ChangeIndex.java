@@ -0,0 +1,164 @@
+package ch.brewingstand.endpoints;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Latest change of every entity, ordered by version, for the delta sync endpoints (GET /coffees/changes and
+ * GET /reviews/changes): a client sends the version of its last sync and only gets the entities created, updated or
+ * deleted since, read from the head of the index instead of a scan of the dataset. A deleted entity leaves a tombstone.
+ *
+ * Versions:
+ * - The index numbers the changes itself, under a lock, when they are recorded. The version clocks of the controllers
+ *   hand out versions before the changes are applied, so a version could become visible after a greater one; here a
+ *   version is only published once every smaller one is recorded, and a client which got the changes up to version V
+ *   gets every later change by asking for the changes after V.
+ * - Versions start from the boot time in microseconds, so a version received before a restart is older than the
+ *   history of the new process.
+ *
+ * History: only the last changes are kept (see {@link #setRetention}). A client asking for the changes after a version
+ * older than that gets a full snapshot instead, and so does a client sending a version the index never handed out.
+ */
+public final class ChangeIndex {
+
+    // Number of changes kept by every index, the oldest ones are dropped first.
+    private static volatile int retention = 100_000;
+
+    /**
+     * Response body of the delta sync endpoints.
+     *
+     * @param version version to send as since on the next sync
+     * @param full    true if changes holds every entity (a snapshot), which replace the ones held by the client
+     * @param changes the changes, oldest first, or every entity as a put
+     */
+    public record Delta<T>(long version, boolean full, List<Item<T>> changes) {}
+
+    /**
+     * One change of a delta.
+     *
+     * @param id    id of the entity
+     * @param op    "put" (created or updated) or "delete"
+     * @param value the entity, absent for a delete
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Item<T>(String id, String op, T value) {}
+
+    private record Change(long version, String id, boolean deleted) {}
+
+    private final ConcurrentSkipListSet<Change> byVersion =
+            new ConcurrentSkipListSet<>(Comparator.comparingLong(Change::version));
+    private final ConcurrentHashMap<String, Change> latest = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Serializes the writers, so that the versions are recorded in order.
+    private final ReentrantLock lock = new ReentrantLock();
+    // Last handed out version. Guarded by lock.
+    private long clock = System.currentTimeMillis() * 1000;
+    // Last version whose changes (and every older one) are recorded.
+    private volatile long last = clock;
+    // Greatest version dropped from the history: a client behind it needs a snapshot.
+    private volatile long horizon = clock;
+
+    /**
+     * Sets the number of changes kept by every index. Must be called at startup.
+     *
+     * @param changes number of changes, at least 1
+     */
+    public static void setRetention(int changes) {
+        if (changes < 1) {
+            throw new IllegalArgumentException("Invalid value for changes-retention : " + changes);
+        }
+        retention = changes;
+    }
+
+    /**
+     * Records the creation or the update of an entity. Must be called once the entity is visible to the readers.
+     *
+     * @param id id of the entity
+     */
+    public void put(String id) {
+        record(id, false);
+    }
+
+    /**
+     * Records the deletion of an entity. Must be called once the entity is deleted.
+     *
+     * @param id id of the entity
+     */
+    public void delete(String id) {
+        record(id, true);
+    }
+
+    private void record(String id, boolean deleted) {
+        lock.lock();
+        try {
+            Change change = new Change(++clock, id, deleted);
+            Change previous = latest.put(id, change);
+            if (previous != null && byVersion.remove(previous)) size.decrementAndGet();
+            byVersion.add(change);
+            size.incrementAndGet();
+            last = change.version();
+            while (size.get() > retention) {
+                Change oldest = byVersion.pollFirst();
+                if (oldest == null) break;
+                size.decrementAndGet();
+                latest.remove(oldest.id(), oldest);
+                horizon = oldest.version();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Collects the changes after a version: the current value of the entities changed since, and the ids of the
+     * deleted ones. Falls back to a snapshot of every entity when the version is no longer in the history.
+     *
+     * An entity changed during the call may be sent again by the next sync: applying a delta is idempotent.
+     *
+     * @param since  version of the last sync of the client, null for a first sync
+     * @param lookup current value of an entity, null if it has been deleted since
+     * @param all    visits every entity, for a snapshot
+     * @param idOf   id of an entity
+     * @return the delta, or the snapshot
+     */
+    public <T> Delta<T> since(Long since, Function<String, T> lookup, Consumer<Consumer<T>> all,
+                              Function<T, String> idOf) {
+        // read before the data: the entities changed after it are sent again by the next sync
+        long version = last;
+        if (since != null && since >= horizon && since <= version) {
+            List<Item<T>> changes = new ArrayList<>();
+            for (Change change : byVersion.tailSet(new Change(since, null, false), false)) {
+                if (change.version() > version) break;
+                if (change.deleted()) {
+                    changes.add(new Item<>(change.id(), "delete", null));
+                    continue;
+                }
+                // deleted since the version was read: its tombstone is after it
+                T value = lookup.apply(change.id());
+                if (value != null) changes.add(new Item<>(change.id(), "put", value));
+            }
+            // changes may have been dropped while reading them
+            if (since >= horizon) return new Delta<>(version, false, changes);
+        }
+        List<Item<T>> snapshot = new ArrayList<>();
+        all.accept(entity -> snapshot.add(new Item<>(idOf.apply(entity), "put", entity)));
+        return new Delta<>(version, true, snapshot);
+    }
+
+    /**
+     * @return the number of changes held, tombstones included
+     */
+    public int size() {
+        return size.get();
+    }
+}
@@ -1,18 +1,70 @@
 package ch.brewingstand.endpoints.CoffeeClasses;
+import ch.brewingstand.endpoints.Bulk;
+import ch.brewingstand.endpoints.ChangeIndex;
+import ch.brewingstand.endpoints.Dictionary;
+import ch.brewingstand.endpoints.HttpCaching;
+import ch.brewingstand.endpoints.HttpDates;
+import ch.brewingstand.endpoints.JsonBody;
+import ch.brewingstand.endpoints.JsonStreaming;
+import ch.brewingstand.endpoints.Page;
+import ch.brewingstand.endpoints.ResponseCache;
+import ch.brewingstand.endpoints.Sort;
+import ch.brewingstand.endpoints.StripedLocks;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewController;
+import ch.brewingstand.metrics.Metrics;
+import ch.brewingstand.storage.Mutation;
+import ch.brewingstand.storage.Storage;
+
 import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.NotModifiedResponse;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class CoffeeController {
     private static final ConcurrentHashMap<String, Coffee> coffees = new ConcurrentHashMap<String, Coffee>();
-    private static final ConcurrentHashMap<String, LocalDateTime> cached_time = new ConcurrentHashMap<String, LocalDateTime>();
+    // Last modification of each coffee, in seconds since the epoch (the precision of Last-Modified).
+    private static final ConcurrentHashMap<String, Long> cached_time = new ConcurrentHashMap<String, Long>();
+    // Secondary indexes (origin, aroma, type, intensity) used by the GET /coffees filters.
+    private static final CoffeeIndex index = new CoffeeIndex();
+    // Clock handing out one version per mutation, used to build the ETags.
+    private static final AtomicLong versionClock = new AtomicLong(0);
+    // Version of the whole catalog, published once a mutation is applied. Used by the unfiltered list.
+    private static final AtomicLong dataVersion = new AtomicLong(0);
+    // Path segment of GET /coffees/changes, which takes precedence over GET /coffees/{id}: no coffee can have this name.
+    private static final String RESERVED_NAME = "changes";
+    // Name of every coffee, keyed by its lower-cased name: names are unique regardless of case.
+    private static final ConcurrentHashMap<String, String> namesByLowercase = new ConcurrentHashMap<String, String>();
+    // Version of the last mutation of each coffee, keyed by name.
+    private static final ConcurrentHashMap<String, Long> coffeeVersions = new ConcurrentHashMap<String, Long>();
+    // Serialized GET responses, validated against the current ETag on every hit.
+    private static final ResponseCache responses = new ResponseCache(1024, 32L * 1024 * 1024);
+    // Latest change of every coffee, by version, for the delta sync.
+    private static final ChangeIndex changes = new ChangeIndex();
+    // Dictionary of the names and attributes of the stored coffees, null to store them as received (see setDictionary).
+    private static volatile Dictionary dictionary;
 
     public CoffeeController() {}
+
+    /**
+     * Enables the dictionary encoding of the coffees : the name, origin, aroma and type of a stored coffee are replaced
+     * by the instances held by the dictionary, so that the coffees (and the reviews, sharing the dictionary) with the
+     * same values share the same strings, released when the coffee is replaced or deleted. Must be called at startup,
+     * before the stored data is recovered.
+     * @param names the dictionary
+     */
+    public static void setDictionary(Dictionary names) {
+        dictionary = names;
+    }
     /**
      * The function that handle the GET requests, for coffees, using path parameters. it can respond one coffee.
      *
@@ -20,6 +72,8 @@ public class CoffeeController {
      */
     public static void getCoffeeById(Context ctx) {
         String idToRetrieve = ctx.pathParam("id");
+        // read the version before the data, so a concurrent write can only make the ETag older
+        long version = coffeeVersions.getOrDefault(idToRetrieve, 0L);
         Coffee coffee = coffees.get(idToRetrieve);
         if (coffee == null) {
             ctx.status(404);
@@ -27,85 +81,117 @@ public class CoffeeController {
             return;
         }
 
-        // Here we get the last time the value has been changed from the user
-        LocalDateTime lastKnownModification =
-                ctx.headerAsClass("If-Modified-Since", LocalDateTime.class).getOrDefault(null);
-
-        LocalDateTime cached =  cached_time.get(idToRetrieve);
-
-
-        // check if the user sent the last time he requested the value, and if it's the same as before
-        if (lastKnownModification != null && cached != null && cached_time.get(coffee.name()).equals(lastKnownModification)) {
+        String etag = etagOf(idToRetrieve, version);
+        if (HttpCaching.isNotModified(ctx, etag)) {
             throw new NotModifiedResponse();
         }
 
-        // get the time of last modification
-        LocalDateTime now;
-        if(cached_time.containsKey(coffee.name())) {
-            now =  cached_time.get(coffee.name());
-        } else {
-            // if it was not present, set the date to know (happens at the start)
-            now = LocalDateTime.now();
-            cached_time.put(coffee.name(), now);
+        // get the time of last modification, set to now if it was not present (happens at the start)
+        long modified = cached_time.computeIfAbsent(coffee.name(), name -> System.currentTimeMillis() / 1000);
+
+        // If-None-Match takes precedence over If-Modified-Since (RFC 9110, 13.2.2), an invalid date is ignored
+        String lastKnownModification = ctx.header("If-Modified-Since");
+        if (lastKnownModification != null && ctx.header("If-None-Match") == null) {
+            long since = HttpDates.parse(lastKnownModification);
+            if (since >= 0 && modified <= since) {
+                throw new NotModifiedResponse();
+            }
         }
 
-        ctx.header("Last-Modified", String.valueOf(now));
-        ctx.json(coffee);
+        ctx.header("Last-Modified", HttpDates.format(modified));
+        HttpCaching.setCacheHeaders(ctx, etag);
+        String key = ResponseCache.key(ctx);
+        if (!responses.serve(ctx, key, etag)) {
+            responses.store(ctx, key, etag, coffee);
+        }
     }
 
     /**
      * The function that handle the GET requests, for coffees, using query parameters. it can respond from none to all
-     * the coffees
+     * the coffees, sorted by name, or by intensity with sort=intensity (see {@link Sort}). The intensity can be
+     * filtered on a range, with intensityMin and intensityMax.
+     * The list can be paginated with the limit and cursor query parameters (see {@link Page}), and streamed with
+     * stream=true or "Accept: application/x-ndjson" (see {@link JsonStreaming}).
+     * The query parameters are parsed once per distinct query string (see {@link CoffeeQuery}).
      *
      * @param ctx the context of the request
      */
     public static void getManyCoffees(Context ctx) {
-        String orgn = ctx.queryParam("origin");
-        String intense = ctx.queryParam("intensity");
-        String get_aroma = ctx.queryParam("aroma");
-        String get_type = ctx.queryParam("type");
-        List<Coffee> returnArray = new ArrayList<Coffee>();
-        if(intense != null && isInvalidNumeric(intense, 1, 10)) {
+        CoffeeQuery query = CoffeeQuery.of(ctx);
+        if(query.invalidIntensity) {
             ctx.result("Error : Intensity in [1:10]");
             return;
         }
+        Page page = query.page;
+        JsonStreaming.Mode mode = JsonStreaming.mode(ctx, query.stream);
+
+        // the list only depends on the postings of the filters (or on the whole catalog when unfiltered)
+        long version = query.unfiltered() ? dataVersion.get() : query.version(index);
+        String etag = HttpCaching.buildEtag(query.scope(mode), version);
+        if (HttpCaching.isNotModified(ctx, etag)) {
+            throw new NotModifiedResponse();
+        }
+        HttpCaching.setCacheHeaders(ctx, etag);
+        ctx.status(200);
+
+        if (mode == JsonStreaming.Mode.NONE && responses.serve(ctx, query.cacheKey, etag)) {
+            return;
+        }
 
-        for(Coffee coffee : coffees.values()) {
-            if(orgn != null && !coffee.origin().equals(orgn)) continue;
-            if(get_aroma != null && !coffee.aroma().equals(get_aroma)) continue;
-            if(intense != null && Integer.parseInt(intense) != coffee.intensity()) continue;
-            if(get_type != null && !coffee.type().equals(get_type)) continue;
+        Iterator<Coffee> matching = query.scan(index, coffees);
 
-            returnArray.add(coffee);
+        if (mode != JsonStreaming.Mode.NONE) {
+            JsonStreaming.write(ctx, page.stream(ctx, matching, query::cursorOf), mode);
+            return;
         }
+        List<Coffee> returnArray = page.collect(ctx, matching, query::cursorOf);
+        responses.store(ctx, query.cacheKey, etag, returnArray, Page.NEXT_CURSOR_HEADER);
+    }
+
+    /**
+     * The function that handle the GET requests for the changes of the catalog (delta sync). With the since query
+     * parameter, the version returned by the previous call, it responds the coffees created or updated since and the
+     * names of the deleted ones. Without it, or if that version is no longer in the history, it responds every coffee
+     * (see {@link ChangeIndex}).
+     *
+     * @param ctx the context of the request
+     */
+    public static void getCoffeeChanges(Context ctx) {
+        Long since = ctx.queryParamAsClass("since", Long.class).getOrDefault(null);
         ctx.status(200);
-        ctx.json(returnArray);
+        ctx.json(changes.since(since, coffees::get, coffees.values()::forEach, Coffee::name));
     }
+
     /**
      * The function that handle the POST requests for a coffee, given its attributes. The context should include at least
      * 3 query parameters : a name, an origin and an intensity. In addition, it can also contain an aroma and a type.
      * If a coffee already exists with that name, the coffee won't be able to be created.
+     * The check and the creation are atomic, under the lock of the name (see {@link StripedLocks}).
      *
      * @param ctx the context of the request
      */
     public static void postCoffee(Context ctx) {
 
-        Coffee c = ctx.bodyValidator(Coffee.class)
-                .check(obj -> obj.name() != null, "Missing name")
-                .check(obj -> obj.origin() != null, "Missing origin")
-                .check(obj -> obj.aroma() != null, "Missing aroma")
-                .check(obj -> obj.type() != null, "Missing type")
-                .check(obj -> obj.intensity() != 0, "Missing intensity")
-                .get();
-        for(Coffee coffee : coffees.values()) {
-            if(c.name().equalsIgnoreCase(coffee.name())) {
+        Coffee c = JsonBody.read(ctx, Coffee.class);
+        String error = validate(c);
+        if (error != null) {
+            throw JsonBody.invalid(error, c);
+        }
+
+        CompletableFuture<Long> durable;
+        StripedLocks.Held held = lock(c.name());
+        try {
+            if(coffeeExistsByName(c.name())) {
                 throw new ConflictResponse();
             }
+            storeCoffee(c);
+            durable = Storage.submit(List.of(Mutation.putCoffee(c)));
+        } finally {
+            held.close();
         }
-
-        c = new Coffee(c.name(), c.origin(), c.intensity(), c.aroma(), c.type());
-
-        coffees.put(c.name(), c);
+        // wait for the log once the lock is released, so other writers of the stripe don't wait for the disk too
+        durable.join();
+        ctx.header("ETag", etagOf(c.name(), coffeeVersions.getOrDefault(c.name(), 0L)));
         ctx.status(201);
         ctx.json(c);
     }
@@ -113,18 +199,32 @@ public class CoffeeController {
     /**
      * The function that handle the DELETE requests on a specific coffee. The context should include
      * a path parameter named id, which will correspond to the id of the coffee we want to delete.
+     * With an If-Match header, the coffee is only deleted if its current ETag matches (412 otherwise).
      *
      * @param ctx the context of the request
      */
     public static void deleteCoffee(Context ctx) {
-        Coffee coffee = coffees.get(ctx.pathParam("id"));
-        if(coffee == null) {
-            ctx.status(404);
-            ctx.result("Not found");
-            return;
+        String name = ctx.pathParam("id");
+        CompletableFuture<Long> durable;
+        StripedLocks.Held held = lock(name);
+        try {
+            Coffee coffee = coffees.get(name);
+            if(coffee == null) {
+                ctx.status(404);
+                ctx.result("Not found");
+                return;
+            }
+            if (HttpCaching.isPreconditionFailed(ctx, etagOf(name, coffeeVersions.getOrDefault(name, 0L)))) {
+                ctx.status(412);
+                ctx.result("Error : coffee with name " + name + " has been modified");
+                return;
+            }
+            removeCoffee(coffee.name());
+            durable = Storage.submit(List.of(Mutation.deleteCoffee(coffee.name())));
+        } finally {
+            held.close();
         }
-        coffees.remove(coffee.name());
-        cached_time.remove(coffee.name());
+        durable.join();
         ctx.status(204);
     }
 
@@ -132,7 +232,9 @@ public class CoffeeController {
      * The function that handle the PUT function : the context should include a path parameter named id, which correspond
      * to the coffee we want to modify. The context should also contain the query parameters for each attribute of the
      * coffee object.
-     * The request shall include at least one of these query parameters, but it can contain all of them
+     * The request shall include at least one of these query parameters, but it can contain all of them.
+     * The coffee is read and replaced under the lock of its name, so concurrent updates of different attributes are
+     * all kept. With an If-Match header, the coffee is only updated if its current ETag matches (412 otherwise).
      * @param ctx the context of the request
      */
     public static void putCoffee(Context ctx) {
@@ -158,17 +260,314 @@ public class CoffeeController {
             ctx.result("Error : Intensity should be between 1 and 10");
             return;
         }
-        String newOrigin = (orgn == null)?coffee.origin() : orgn;
-        String newAroma = (post_aroma == null)?coffee.aroma() : post_aroma;
-        String newType = (post_type == null)?coffee.type() : post_type;
-        int newIntensity = (intense == null)?coffee.intensity() : Integer.parseInt(intense);
-        coffee = new Coffee(coffee.name(), newOrigin, newIntensity, newAroma, newType);
-        coffees.put(coffee.name(), coffee);
-        cached_time.put(coffee.name(), LocalDateTime.now());
+        CompletableFuture<Long> durable;
+        StripedLocks.Held held = lock(coffeeToUpdate);
+        try {
+            // read again under the lock: the coffee may have changed or been deleted since
+            coffee = coffees.get(coffeeToUpdate);
+            if(coffee == null) {
+                ctx.status(404);
+                ctx.result("Error : coffee with name "+ coffeeToUpdate +" do not exists.");
+                return;
+            }
+            if (HttpCaching.isPreconditionFailed(ctx,
+                    etagOf(coffeeToUpdate, coffeeVersions.getOrDefault(coffeeToUpdate, 0L)))) {
+                ctx.status(412);
+                ctx.result("Error : coffee with name " + coffeeToUpdate + " has been modified");
+                return;
+            }
+            String newOrigin = (orgn == null)?coffee.origin() : orgn;
+            String newAroma = (post_aroma == null)?coffee.aroma() : post_aroma;
+            String newType = (post_type == null)?coffee.type() : post_type;
+            int newIntensity = (intense == null)?coffee.intensity() : Integer.parseInt(intense);
+            coffee = new Coffee(coffee.name(), newOrigin, newIntensity, newAroma, newType);
+            storeCoffee(coffee);
+            durable = Storage.submit(List.of(Mutation.putCoffee(coffee)));
+            ctx.header("ETag", etagOf(coffee.name(), coffeeVersions.getOrDefault(coffee.name(), 0L)));
+        } finally {
+            held.close();
+        }
+        durable.join();
         ctx.json(coffee);
         ctx.status(200);
     }
 
+    /**
+     * The function that handle the POST /coffees/bulk requests. The body holds many coffees, as a JSON array or as
+     * NDJSON, and the mode query parameter tells what to do with them :
+     * - create (default) : creates the coffees, like POST /coffees;
+     * - upsert : creates the coffees, or replaces the existing coffees with the same name;
+     * - delete : deletes the coffees with these names (only the name is required), like DELETE /coffees/{id}.
+     * The whole batch is published with a single version, and the response holds the status of every coffee.
+     * The locks of every name of the batch are held while it is applied and submitted to the log.
+     *
+     * @param ctx the context of the request
+     */
+    public static void bulkCoffees(Context ctx) {
+        Bulk.Mode mode = Bulk.mode(ctx);
+        List<Coffee> items = Bulk.read(ctx, Coffee.class);
+
+        List<Bulk.ItemResult> results = new ArrayList<>(items.size());
+        List<Mutation> mutations = new ArrayList<>(items.size());
+        // lower-cased names of the batch : a batch can only write a coffee once
+        Set<String> seen = new HashSet<>(items.size() * 2);
+        List<String> names = new ArrayList<>(items.size());
+        for (Coffee c : items) {
+            if (c != null && c.name() != null) names.add(c.name().toLowerCase(Locale.ROOT));
+        }
+        CompletableFuture<Long> durable = null;
+        StripedLocks.Held held = StripedLocks.PARTITIONS.lock(names);
+        try {
+            long version = versionClock.incrementAndGet();
+            for (int i = 0; i < items.size(); i++) {
+                Coffee c = items.get(i);
+                String error = (mode == Bulk.Mode.DELETE) ? (c == null || c.name() == null ? "Missing name" : null)
+                        : validate(c);
+                if (error != null) {
+                    results.add(Bulk.failed(i, 400, error));
+                    continue;
+                }
+                String lower = c.name().toLowerCase(Locale.ROOT);
+                if (!seen.add(lower)) {
+                    results.add(Bulk.failed(i, 409, "Duplicate name in the batch"));
+                    continue;
+                }
+                String existing = namesByLowercase.get(lower);
+                switch (mode) {
+                    case CREATE, UPSERT -> {
+                        // a coffee can only be replaced by its exact name
+                        if (existing != null && (mode == Bulk.Mode.CREATE || !existing.equals(c.name()))) {
+                            results.add(Bulk.failed(i, 409, "Coffee already exists"));
+                            continue;
+                        }
+                        Coffee coffee = new Coffee(c.name(), c.origin(), c.intensity(), c.aroma(), c.type());
+                        storeCoffee(coffee, version);
+                        mutations.add(Mutation.putCoffee(coffee));
+                        results.add(Bulk.ok(i, existing == null ? 201 : 200, coffee.name()));
+                    }
+                    case DELETE -> {
+                        if (removeCoffee(c.name(), version) == null) {
+                            results.add(Bulk.failed(i, 404, "Not found"));
+                            continue;
+                        }
+                        mutations.add(Mutation.deleteCoffee(c.name()));
+                        results.add(Bulk.ok(i, 204, c.name()));
+                    }
+                }
+            }
+            if (!mutations.isEmpty()) {
+                publishCatalog(version);
+                durable = Storage.submit(mutations);
+            }
+        } finally {
+            held.close();
+        }
+        if (durable != null) durable.join();
+        ctx.status(200);
+        ctx.json(Bulk.report(results));
+    }
+
+    /**
+     * Checks a coffee against the rules of POST /coffees, shared with the bulk requests.
+     * @param c the coffee, null if the item was a JSON null
+     * @return the error message, or null if the coffee is valid
+     */
+    private static String validate(Coffee c) {
+        if (c == null || c.name() == null) return "Missing name";
+        if (c.name().equals(RESERVED_NAME)) return "The name " + RESERVED_NAME + " is reserved";
+        if (c.origin() == null) return "Missing origin";
+        if (c.aroma() == null) return "Missing aroma";
+        if (c.type() == null) return "Missing type";
+        if (c.intensity() == 0) return "Missing intensity";
+        return null;
+    }
+
+    /**
+     * Creates or replaces a coffee in memory, and publishes the new version. Used by the request handlers (the replay
+     * of stored mutations goes through apply).
+     * @param coffee the new version of the coffee
+     */
+    private static void storeCoffee(Coffee coffee) {
+        long version = versionClock.incrementAndGet();
+        storeCoffee(coffee, version);
+        publishCatalog(version);
+    }
+
+    /**
+     * Creates or replaces a coffee in memory: storage, indexes and version of the coffee. The catalog version is left
+     * to the caller, so that a batch publishes it once.
+     * @param coffee the new version of the coffee
+     * @param version the version handed out by versionClock for this mutation
+     */
+    private static void storeCoffee(Coffee coffee, long version) {
+        Dictionary names = dictionary;
+        if (names != null) {
+            coffee = new Coffee(names.intern(coffee.name()), names.intern(coffee.origin()), coffee.intensity(),
+                    names.intern(coffee.aroma()), names.intern(coffee.type()));
+        }
+        Coffee previous = coffees.put(coffee.name(), coffee);
+        release(previous);
+        namesByLowercase.put(coffee.name().toLowerCase(Locale.ROOT), coffee.name());
+        index.replace(previous, coffee, version);
+        publish(coffee.name(), version);
+        changes.put(coffee.name());
+        if (previous != null) {
+            cached_time.put(coffee.name(), System.currentTimeMillis() / 1000);
+        }
+    }
+
+    /**
+     * Releases the dictionary values held by a coffee no longer stored.
+     * @param coffee the replaced or deleted coffee, possibly null
+     */
+    private static void release(Coffee coffee) {
+        Dictionary names = dictionary;
+        if (names == null || coffee == null) return;
+        names.release(coffee.name());
+        names.release(coffee.origin());
+        names.release(coffee.aroma());
+        names.release(coffee.type());
+    }
+
+    /**
+     * Deletes a coffee from memory, along with its reviews, and publishes the new version. Used by the request
+     * handlers (the replay of stored mutations goes through apply).
+     * @param name the name of the coffee
+     * @return the deleted coffee, or null if it did not exist
+     */
+    private static Coffee removeCoffee(String name) {
+        long version = versionClock.incrementAndGet();
+        Coffee removed = removeCoffee(name, version);
+        if (removed != null) publishCatalog(version);
+        return removed;
+    }
+
+    /**
+     * Deletes a coffee from memory, along with its reviews. The catalog version is left to the caller.
+     * @param name the name of the coffee
+     * @param version the version handed out by versionClock for this mutation
+     * @return the deleted coffee, or null if it did not exist
+     */
+    private static Coffee removeCoffee(String name, long version) {
+        Coffee removed = coffees.remove(name);
+        if (removed == null) return null;
+        release(removed);
+        namesByLowercase.remove(name.toLowerCase(Locale.ROOT), name);
+        index.remove(removed, version);
+        publish(name, version);
+        coffeeVersions.remove(name);
+        cached_time.remove(name);
+        changes.delete(name);
+        // cascade: the reviews of a deleted coffee are deleted with it
+        ReviewController.deleteReviewsOfCoffee(name);
+        return removed;
+    }
+
+    /**
+     * Applies a coffee mutation read back from storage.
+     * @param mutation a COFFEE_PUT or COFFEE_DELETE mutation
+     */
+    public static void apply(Mutation mutation) {
+        apply(mutation, versionClock.incrementAndGet());
+    }
+
+    /**
+     * Applies a coffee mutation with a given version, and publishes it. Used by the replication, with the version of
+     * the coffee on the leader.
+     * @param mutation a COFFEE_PUT or COFFEE_DELETE mutation
+     * @param version the version of the mutation
+     */
+    public static void apply(Mutation mutation, long version) {
+        // the versions handed out later stay above the replicated ones
+        versionClock.accumulateAndGet(version, Math::max);
+        switch (mutation.kind()) {
+            case COFFEE_PUT -> storeCoffee(mutation.coffee(), version);
+            case COFFEE_DELETE -> {
+                if (removeCoffee(mutation.key(), version) == null) return;
+            }
+            default -> throw new IllegalArgumentException("Not a coffee mutation: " + mutation.kind());
+        }
+        publishCatalog(version);
+    }
+
+    /**
+     * Returns the version of the coffee written by a mutation, for the replication.
+     * @param mutation a COFFEE_PUT or COFFEE_DELETE mutation, applied under the lock of the coffee
+     * @return the version of the coffee, or the current version for a deletion
+     */
+    public static long versionOf(Mutation mutation) {
+        if (mutation.kind() == Mutation.Kind.COFFEE_DELETE) return versionClock.get();
+        return coffeeVersions.getOrDefault(mutation.key(), 0L);
+    }
+
+    /**
+     * Emits every stored coffee as a COFFEE_PUT mutation, for snapshots.
+     * @param sink receives the mutations
+     */
+    public static void export(Consumer<Mutation> sink) {
+        for (Coffee coffee : coffees.values()) {
+            sink.accept(Mutation.putCoffee(coffee));
+        }
+    }
+
+    /**
+     * Acquires the lock guarding a coffee and its reviews.
+     * @param name the name of the coffee, in any case
+     * @return the held lock, released when closed
+     */
+    private static StripedLocks.Held lock(String name) {
+        return StripedLocks.PARTITIONS.lock(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Builds the ETag of a coffee, returned by GET /coffees/{id} and expected in the If-Match header of the writes.
+     * @param name the name of the coffee
+     * @param version the version of the coffee
+     * @return the ETag
+     */
+    private static String etagOf(String name, long version) {
+        return HttpCaching.buildEtag("coffee:" + name, version);
+    }
+
+    /**
+     * Publishes the version of a mutation on the coffee. Must be called once the mutation is applied, so a reader
+     * never sees a new version with old data.
+     * @param name the name of the written coffee
+     * @param version the version handed out by versionClock for this mutation
+     */
+    private static void publish(String name, long version) {
+        coffeeVersions.put(name, version);
+        responses.invalidate("/coffees/" + name);
+    }
+
+    /**
+     * Publishes the version of the whole catalog, once every coffee of a mutation (or of a batch) is applied.
+     * @param version the version handed out by versionClock for the mutation or the batch
+     */
+    private static void publishCatalog(long version) {
+        dataVersion.accumulateAndGet(version, Math::max);
+        // the filtered lists are dropped lazily, when their ETag no longer matches
+        responses.invalidate("/coffees");
+    }
+
+    /**
+     * Registers the size of the catalog, of its indexes and the response cache in the metrics.
+     */
+    public static void registerMetrics() {
+        Metrics.gauge("brewing_store_entries", "Stored entities", "store=\"coffees\"", coffees::size);
+        for (String attribute : index.postingCounts().keySet()) {
+            Metrics.gauge("brewing_index_keys", "Distinct keys of the secondary indexes",
+                    "index=\"coffees_by_" + attribute + "\"", () -> index.postingCounts().get(attribute));
+        }
+        Metrics.gauge("brewing_index_keys", "Distinct keys of the secondary indexes", "index=\"coffees_by_version\"",
+                changes::size);
+        if (dictionary != null) {
+            Metrics.gauge("brewing_dictionary_entries", "Distinct strings of the dictionary of the catalog", "",
+                    dictionary::size);
+        }
+        Metrics.cache("coffees", responses);
+    }
+
     /**
      * Takes a string and check if it represents an integer value, and if this value is between the min
      * and max.
@@ -196,13 +595,8 @@ public class CoffeeController {
     public static boolean coffeeExistsByName(String coffeeName) {
         if (coffeeName == null) return false;
 
-        // coffees is keyed by name, but we still ensure case-insensitive behavior.
-        for (Coffee c : coffees.values()) {
-            if (c.name() != null && c.name().equalsIgnoreCase(coffeeName)) {
-                return true;
-            }
-        }
-        return false;
+        // coffees is keyed by name, the lower-cased names give the case-insensitive behavior.
+        return namesByLowercase.containsKey(coffeeName.toLowerCase(Locale.ROOT));
     }
 
 
@@ -0,0 +1,362 @@
+package ch.brewingstand.endpoints.CoffeeClasses;
+
+import ch.brewingstand.endpoints.Sort;
+import ch.brewingstand.endpoints.SortedMerge;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Secondary indexes over the coffee catalog, used to answer the GET /coffees filters without scanning every coffee.
+ *
+ * Each indexed attribute (origin, aroma, type, intensity) maps a value to the set of coffee names holding that value
+ * (its "posting set"). The controller keeps the index in sync on every mutation: add on create, remove + add on
+ * update and remove on delete. Posting sets are sorted by name, which gives every list a stable order to paginate on.
+ *
+ * The intensities holding coffees are also kept in order, in a skip list: a range of intensities is a subset of it,
+ * found in O(log N), and the coffees sorted by intensity are its posting sets read one after the other, each in name
+ * order. The same range sorted by name is the merge of its posting sets (see {@link SortedMerge}). Either way, a page
+ * of k coffees costs O(log N + k) without other filters, instead of a scan of the catalog followed by a sort.
+ *
+ * Each posting set also carries the version of the last mutation that entered or left it. A filtered list only
+ * changes when one of the coffees it contains changes, and such a change bumps every posting the query reads, so the
+ * highest version among those postings is a valid ETag version for the query. A posting set emptied by a removal is
+ * dropped with its version, which is fine for a single value (the list is now empty, version 0 differs from any
+ * version it had), but not for a range of intensities: the highest version left in the range may be one a previous
+ * response already carried. The intensity index as a whole therefore carries the version of its last mutation too,
+ * and a range reads that one.
+ *
+ * Thread-safety: posting sets are created and dropped inside ConcurrentHashMap.compute, so a concurrent add and remove
+ * on the same value can never lose a name.
+ */
+public class CoffeeIndex {
+
+    /**
+     * Names of the coffees sharing one attribute value, with the version of the last mutation of the set.
+     * The size is tracked separately, since the size of a skip list is a linear-time walk.
+     */
+    private static final class Posting {
+        final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+        volatile int size;
+        volatile long version;
+    }
+
+    // Every indexed coffee name, sorted. Serves the unfiltered list.
+    private final ConcurrentSkipListSet<String> allNames = new ConcurrentSkipListSet<>();
+
+    private final ConcurrentHashMap<String, Posting> byOrigin = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Posting> byAroma = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Posting> byType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Posting> byIntensity = new ConcurrentHashMap<>();
+    // Keys of byIntensity, in order. Added and removed with their posting set, inside its compute.
+    private final ConcurrentSkipListSet<Integer> intensities = new ConcurrentSkipListSet<>();
+    // Version of the last mutation of the intensity index, dropped posting sets included. Versions the ranges.
+    private final AtomicLong intensitiesVersion = new AtomicLong();
+
+    /**
+     * Names to scan for a query: the names of one selection (or of the whole catalog), in the order of the query, and
+     * the check of a name against the other selections. The check is left to the caller, so that it can be run in
+     * parallel (see {@link ch.brewingstand.endpoints.ParallelScan}).
+     *
+     * @param names  the names, sorted
+     * @param filter true if a name belongs to every other selection; thread-safe
+     */
+    public record Candidates(Stream<String> names, Predicate<String> filter) {
+
+        // A new one each time: a stream is consumed once.
+        private static Candidates none() {
+            return new Candidates(Stream.empty(), name -> false);
+        }
+    }
+
+    /**
+     * Coffees matched by one filter: a posting set, or the posting sets of a range of intensities, which are disjoint.
+     *
+     * @param postings the posting sets
+     * @param size     number of coffees matched
+     */
+    private record Selection(Collection<Posting> postings, int size) {
+
+        static Selection of(Collection<Posting> postings) {
+            int size = 0;
+            for (Posting posting : postings) size += posting.size;
+            return new Selection(postings, size);
+        }
+
+        boolean contains(String name) {
+            for (Posting posting : postings) {
+                if (posting.names.contains(name)) return true;
+            }
+            return false;
+        }
+
+        Stream<String> names(String after, boolean descending) {
+            List<Stream<String>> runs = new ArrayList<>(postings.size());
+            for (Posting posting : postings) runs.add(tail(posting.names, after, descending).stream());
+            return SortedMerge.merge(runs, descending ? Comparator.reverseOrder() : Comparator.naturalOrder());
+        }
+    }
+
+    /**
+     * Returns the number of distinct values of each indexed attribute, for the metrics.
+     *
+     * @return attribute name -> number of posting sets
+     */
+    public Map<String, Integer> postingCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("origin", byOrigin.size());
+        counts.put("aroma", byAroma.size());
+        counts.put("type", byType.size());
+        counts.put("intensity", byIntensity.size());
+        return counts;
+    }
+
+    /**
+     * Adds a coffee to every attribute index.
+     *
+     * @param coffee  the coffee to index
+     * @param version version of the mutation
+     */
+    public void add(Coffee coffee, long version) {
+        allNames.add(coffee.name());
+        index(coffee, version);
+    }
+
+    /**
+     * Removes a coffee from every attribute index. Empty posting sets are dropped.
+     *
+     * @param coffee  the coffee to remove, as it was indexed
+     * @param version version of the mutation
+     */
+    public void remove(Coffee coffee, long version) {
+        unindex(coffee, version);
+        allNames.remove(coffee.name());
+    }
+
+    /**
+     * Replaces the indexed attributes of a coffee.
+     *
+     * @param previous the coffee as it is currently indexed (may be null)
+     * @param updated  the new version of the coffee
+     * @param version  version of the mutation
+     */
+    public void replace(Coffee previous, Coffee updated, long version) {
+        if (previous != null) unindex(previous, version);
+        else allNames.add(updated.name());
+        index(updated, version);
+    }
+
+    private void index(Coffee coffee, long version) {
+        addPosting(byOrigin, null, coffee.origin(), coffee.name(), version);
+        addPosting(byAroma, null, coffee.aroma(), coffee.name(), version);
+        addPosting(byType, null, coffee.type(), coffee.name(), version);
+        addPosting(byIntensity, intensities, coffee.intensity(), coffee.name(), version);
+        // after the change of the posting set, like the version of a posting
+        intensitiesVersion.accumulateAndGet(version, Math::max);
+    }
+
+    private void unindex(Coffee coffee, long version) {
+        removePosting(byOrigin, null, coffee.origin(), coffee.name(), version);
+        removePosting(byAroma, null, coffee.aroma(), coffee.name(), version);
+        removePosting(byType, null, coffee.type(), coffee.name(), version);
+        removePosting(byIntensity, intensities, coffee.intensity(), coffee.name(), version);
+        intensitiesVersion.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * Returns the names of the coffees to scan for the given filters, in name order. A null filter is ignored.
+     * The smallest selection is walked lazily and probed against the others, so the cost is bounded by the smallest
+     * selection (or by the requested page) rather than by the catalog size.
+     *
+     * @param origin       origin filter, or null
+     * @param intensityMin lowest intensity, or null
+     * @param intensityMax highest intensity, or null
+     * @param aroma        aroma filter, or null
+     * @param type         type filter, or null
+     * @param after        only return names strictly after this one in the order (pagination cursor), or null
+     * @param descending   true for the descending name order
+     * @return the names to scan, sorted, and their check against the other filters
+     */
+    public Candidates lookup(String origin, Integer intensityMin, Integer intensityMax, String aroma, String type,
+                             String after, boolean descending) {
+        List<Selection> selections = new ArrayList<>(4);
+        if (!select(selections, origin, aroma, type)) return Candidates.none();
+        if (intensityMin != null || intensityMax != null) {
+            List<Posting> range = new ArrayList<>();
+            for (int intensity : intensityRange(intensityMin, intensityMax)) {
+                Posting posting = byIntensity.get(intensity);
+                if (posting != null) range.add(posting);
+            }
+            if (range.isEmpty()) return Candidates.none();
+            selections.add(Selection.of(range));
+        }
+        if (selections.isEmpty()) return new Candidates(tail(allNames, after, descending).stream(), name -> true);
+
+        selections.sort(Comparator.comparingInt(Selection::size));
+        Stream<String> smallest = selections.get(0).names(after, descending);
+        return new Candidates(smallest, filter(List.copyOf(selections.subList(1, selections.size()))));
+    }
+
+    /**
+     * Returns the names of the coffees to scan for the given filters, sorted by intensity, then by name. A null filter
+     * is ignored. The posting sets of the intensity range are walked in order, and probed against the other filters.
+     *
+     * @param origin       origin filter, or null
+     * @param intensityMin lowest intensity, or null
+     * @param intensityMax highest intensity, or null
+     * @param aroma        aroma filter, or null
+     * @param type         type filter, or null
+     * @param after        only return names strictly after this position in the order (pagination cursor), or null
+     * @param descending   true for the descending order
+     * @return the names to scan, sorted, and their check against the other filters
+     */
+    public Candidates lookupByIntensity(String origin, Integer intensityMin, Integer intensityMax, String aroma,
+                                        String type, Sort.Position after, boolean descending) {
+        List<Selection> selections = new ArrayList<>(3);
+        if (!select(selections, origin, aroma, type)) return Candidates.none();
+        NavigableSet<Integer> range = intensityRange(intensityMin, intensityMax);
+        if (descending) range = range.descendingSet();
+        if (after != null) range = range.tailSet(after.value(), true);
+
+        // Concatenated rather than flat-mapped, so that a posting set is read lazily, as far as the page goes.
+        Stream<String> names = Stream.empty();
+        for (int intensity : range) {
+            Posting posting = byIntensity.get(intensity);
+            if (posting == null) continue;
+            String from = (after != null && intensity == after.value()) ? after.key() : null;
+            names = Stream.concat(names, tail(posting.names, from, descending).stream());
+        }
+        return new Candidates(names, filter(selections));
+    }
+
+    /**
+     * Returns the intensities of a range holding coffees, in order.
+     *
+     * @param min lowest intensity, or null
+     * @param max highest intensity, or null
+     * @return the intensities, sorted
+     */
+    private NavigableSet<Integer> intensityRange(Integer min, Integer max) {
+        int low = (min == null) ? Integer.MIN_VALUE : min;
+        int high = (max == null) ? Integer.MAX_VALUE : max;
+        if (low > high) return Collections.emptyNavigableSet();
+        return intensities.subSet(low, true, high, true);
+    }
+
+    /**
+     * Adds the selections of the exact filters. A null filter is ignored.
+     *
+     * @return false if a filter matches no coffee, meaning the result is empty
+     */
+    private boolean select(List<Selection> selections, String origin, String aroma, String type) {
+        return (origin == null || collect(selections, byOrigin.get(origin)))
+                && (aroma == null || collect(selections, byAroma.get(aroma)))
+                && (type == null || collect(selections, byType.get(type)));
+    }
+
+    /**
+     * Checks that a name is held by every selection.
+     */
+    private static Predicate<String> filter(List<Selection> selections) {
+        if (selections.isEmpty()) return name -> true;
+        return name -> {
+            for (Selection selection : selections) {
+                if (!selection.contains(name)) return false;
+            }
+            return true;
+        };
+    }
+
+    private static NavigableSet<String> tail(NavigableSet<String> names, String after, boolean descending) {
+        NavigableSet<String> ordered = descending ? names.descendingSet() : names;
+        return (after == null) ? ordered : ordered.tailSet(after, false);
+    }
+
+    /**
+     * Adds a posting set to the list of sets to intersect.
+     *
+     * @return false if the posting set does not exist, meaning the intersection is empty
+     */
+    private static boolean collect(List<Selection> selections, Posting posting) {
+        if (posting == null) return false;
+        selections.add(new Selection(List.of(posting), posting.size));
+        return true;
+    }
+
+    /**
+     * Returns the version of the data read by a filtered query: the highest version among the postings of the given
+     * filters. A missing posting reads as version 0, like an empty result that was never written. A range of
+     * intensities reads the version of the whole intensity index, see the class comment.
+     *
+     * @param origin       origin filter, or null
+     * @param intensityMin lowest intensity, or null
+     * @param intensityMax highest intensity, or null
+     * @param aroma        aroma filter, or null
+     * @param type         type filter, or null
+     * @return the version of the query
+     */
+    public long version(String origin, Integer intensityMin, Integer intensityMax, String aroma, String type) {
+        long version = 0;
+        if (origin != null) version = Math.max(version, versionOf(byOrigin.get(origin)));
+        if (intensityMin != null && intensityMin.equals(intensityMax)) {
+            version = Math.max(version, versionOf(byIntensity.get(intensityMin)));
+        } else if (intensityMin != null || intensityMax != null) {
+            version = Math.max(version, intensitiesVersion.get());
+        }
+        if (aroma != null) version = Math.max(version, versionOf(byAroma.get(aroma)));
+        if (type != null) version = Math.max(version, versionOf(byType.get(type)));
+        return version;
+    }
+
+    private static long versionOf(Posting posting) {
+        return (posting == null) ? 0 : posting.version;
+    }
+
+    /**
+     * Adds a name to the posting set of a value, creating it if needed.
+     *
+     * @param keys the ordered keys of the index, or null if it has none
+     */
+    private static <K> void addPosting(ConcurrentHashMap<K, Posting> index, NavigableSet<K> keys, K value, String name,
+                                       long version) {
+        if (value == null) return;
+        index.compute(value, (k, posting) -> {
+            if (posting == null) {
+                posting = new Posting();
+                if (keys != null) keys.add(k);
+            }
+            if (posting.names.add(name)) posting.size++;
+            // published after the change of the set, so a reader never sees a new version with an old set
+            posting.version = Math.max(posting.version, version);
+            return posting;
+        });
+    }
+
+    /**
+     * Removes a name from the posting set of a value, dropping the set once empty.
+     *
+     * @param keys the ordered keys of the index, or null if it has none
+     */
+    private static <K> void removePosting(ConcurrentHashMap<K, Posting> index, NavigableSet<K> keys, K value,
+                                          String name, long version) {
+        if (value == null) return;
+        index.computeIfPresent(value, (k, posting) -> {
+            if (posting.names.remove(name)) posting.size--;
+            posting.version = Math.max(posting.version, version);
+            if (posting.size > 0) return posting;
+            if (keys != null) keys.remove(k);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,226 @@
+package ch.brewingstand.endpoints.CoffeeClasses;
+
+import ch.brewingstand.endpoints.JsonStreaming;
+import ch.brewingstand.endpoints.Page;
+import ch.brewingstand.endpoints.ParallelScan;
+import ch.brewingstand.endpoints.ResponseCache;
+import ch.brewingstand.endpoints.Sort;
+import io.javalin.http.Context;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Query plan of GET /coffees: the filters, the order, the page and the streaming parameter of a query string parsed
+ * once, with the ETag scopes and the response cache key built ahead.
+ *
+ * The intensity filters are an intensity range: intensity=5 is the range [5:5], intersected with intensityMin and
+ * intensityMax when they are given too.
+ *
+ * Plans are cached by raw query string, so a repeated query (the lists the clients poll) reads none of its parameters
+ * again: the query string is not even split into a parameter map. Queries with a cursor are one-off pages and are
+ * compiled for every request. The cache holds at most MAX_PLANS plans whatever the clients send, and evicts the least
+ * recently used ones: a burst of one-off queries does not push out the plans of the polled lists. Like
+ * {@link ResponseCache}, it is split into segments, each one an access-ordered LinkedHashMap with its own lock.
+ */
+final class CoffeeQuery {
+
+    private static final int MAX_PLANS = 1024;
+    private static final int SEGMENTS = 16;
+    private static final PlanSegment[] plans = new PlanSegment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) plans[i] = new PlanSegment(MAX_PLANS / SEGMENTS);
+    }
+
+    final String origin;
+    // bounds of the intensity range, null if unbounded
+    final Integer intensityMin;
+    final Integer intensityMax;
+    final String aroma;
+    final String type;
+    // an intensity parameter is not an integer in [1:10], the other parameters are not parsed
+    final boolean invalidIntensity;
+    final Sort sort;
+    final Page page;
+    // position of the cursor in the intensity order, null for the first page or in the name order
+    private final Sort.Position after;
+    final boolean stream;
+    final String cacheKey;
+    // ETag scope of the query for each streaming mode, by ordinal
+    private final String[] scopes;
+
+    private CoffeeQuery(Context ctx) {
+        origin = ctx.queryParam("origin");
+        aroma = ctx.queryParam("aroma");
+        type = ctx.queryParam("type");
+        String intense = ctx.queryParam("intensity");
+        String min = ctx.queryParam("intensityMin");
+        String max = ctx.queryParam("intensityMax");
+        Integer exact = intensity(intense);
+        Integer low = intensity(min);
+        Integer high = intensity(max);
+        invalidIntensity = (intense != null && exact == null) || (min != null && low == null)
+                || (max != null && high == null);
+        if (exact != null) {
+            low = (low == null) ? exact : Math.max(low, exact);
+            high = (high == null) ? exact : Math.min(high, exact);
+        }
+        intensityMin = invalidIntensity ? null : low;
+        intensityMax = invalidIntensity ? null : high;
+        sort = invalidIntensity ? null : Sort.of(ctx, "name", "intensity");
+        page = invalidIntensity ? null : Page.of(ctx);
+        after = (page != null && sort.by("intensity")) ? Sort.position(page.after()) : null;
+        stream = "true".equals(ctx.queryParam("stream"));
+        cacheKey = ResponseCache.key(ctx);
+
+        JsonStreaming.Mode[] modes = JsonStreaming.Mode.values();
+        scopes = new String[modes.length];
+        if (!invalidIntensity) {
+            for (JsonStreaming.Mode mode : modes) {
+                scopes[mode.ordinal()] = "coffees?" + origin + "&" + intensityMin + "-" + intensityMax + "&" + aroma
+                        + "&" + type + "&" + sort.scope() + "&" + page.scope() + "&" + mode;
+            }
+        }
+    }
+
+    /**
+     * Parses an intensity parameter.
+     *
+     * @return the intensity, or null if the parameter is missing or not an integer in [1:10]
+     */
+    private static Integer intensity(String value) {
+        if (value == null) return null;
+        try {
+            int parsed = Integer.parseInt(value);
+            return (parsed < 1 || parsed > 10) ? null : parsed;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the plan of a request, compiling it if it is not cached.
+     *
+     * @param ctx Javalin request/response context
+     * @return the plan
+     * @throws io.javalin.http.BadRequestResponse if the limit, the order or the cursor is invalid (see {@link Page#of}
+     *                                            and {@link Sort})
+     */
+    static CoffeeQuery of(Context ctx) {
+        String query = ctx.queryString();
+        if (query == null) query = "";
+        PlanSegment segment = plans[(query.hashCode() & 0x7fffffff) % SEGMENTS];
+        CoffeeQuery plan = segment.get(query);
+        if (plan != null) return plan;
+
+        plan = new CoffeeQuery(ctx);
+        if (plan.page == null || plan.page.after() == null) segment.put(query, plan);
+        return plan;
+    }
+
+    /**
+     * A segment of the plan cache: an access-ordered map dropping its least recently used plan once full.
+     */
+    private static final class PlanSegment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, CoffeeQuery> entries;
+
+        PlanSegment(int maxPlans) {
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CoffeeQuery> eldest) {
+                    return size() > maxPlans;
+                }
+            };
+        }
+
+        CoffeeQuery get(String query) {
+            lock.lock();
+            try {
+                return entries.get(query);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String query, CoffeeQuery plan) {
+            lock.lock();
+            try {
+                entries.put(query, plan);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if the query has no filter, and reads the whole catalog
+     */
+    boolean unfiltered() {
+        return origin == null && intensityMin == null && intensityMax == null && aroma == null && type == null;
+    }
+
+    /**
+     * Scans the matching coffees, in the order of the query and from its cursor: the names read from the index are
+     * checked against the other filters, resolved, and re-checked against the query since the coffees may have been
+     * updated since the index lookup. Large scans are resolved in parallel (see {@link ParallelScan}).
+     *
+     * @param index   the coffee index
+     * @param coffees the stored coffees, by name
+     * @return the matching coffees, sorted
+     */
+    Iterator<Coffee> scan(CoffeeIndex index, Map<String, Coffee> coffees) {
+        CoffeeIndex.Candidates candidates = sort.by("intensity")
+                ? index.lookupByIntensity(origin, intensityMin, intensityMax, aroma, type, after, sort.descending())
+                : index.lookup(origin, intensityMin, intensityMax, aroma, type, page.after(), sort.descending());
+        Predicate<String> filter = candidates.filter();
+        return ParallelScan.scan(candidates.names().iterator(), name -> {
+            if (!filter.test(name)) return null;
+            Coffee coffee = coffees.get(name);
+            return matches(coffee) ? coffee : null;
+        });
+    }
+
+    /**
+     * @param index the coffee index
+     * @return the version of the data read by the query (see {@link CoffeeIndex#version})
+     */
+    long version(CoffeeIndex index) {
+        return index.version(origin, intensityMin, intensityMax, aroma, type);
+    }
+
+    /**
+     * @param coffee a coffee of the result
+     * @return the cursor of the page starting after it
+     */
+    String cursorOf(Coffee coffee) {
+        return sort.by("intensity") ? Sort.cursor(coffee.intensity(), coffee.name()) : coffee.name();
+    }
+
+    /**
+     * Checks a coffee against the filters. A missing filter matches every coffee.
+     *
+     * @param coffee the coffee, possibly null
+     * @return true if the coffee exists and matches every filter
+     */
+    boolean matches(Coffee coffee) {
+        if (coffee == null) return false;
+        if (origin != null && !coffee.origin().equals(origin)) return false;
+        if (aroma != null && !coffee.aroma().equals(aroma)) return false;
+        if (intensityMin != null && coffee.intensity() < intensityMin) return false;
+        if (intensityMax != null && coffee.intensity() > intensityMax) return false;
+        return type == null || coffee.type().equals(type);
+    }
+
+    /**
+     * @param mode the streaming mode of the request
+     * @return the ETag scope of the query in this mode
+     */
+    String scope(JsonStreaming.Mode mode) {
+        return scopes[mode.ordinal()];
+    }
+}
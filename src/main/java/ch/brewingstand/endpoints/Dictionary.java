@@ -0,0 +1,61 @@
+package ch.brewingstand.endpoints;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding of repeated strings: every distinct value is kept once, and equal strings read from different
+ * requests are replaced by that single instance. Millions of reviews of a few thousand coffees then hold a few
+ * thousand coffee names, instead of one copy each.
+ *
+ * Values are reference-counted: every {@link #intern} of a stored entity is matched by a {@link #release} when the
+ * entity is replaced or deleted, and a value is evicted with its last holder. Deleted coffee names, and the case
+ * variants of a name, do not stay in the dictionary.
+ */
+public final class Dictionary {
+
+    /**
+     * A value and the number of stored entities holding it. Only modified inside a compute on the value.
+     */
+    private static final class Entry {
+        final String value;
+        int holders;
+
+        Entry(String value) {
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> values = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the canonical instance of a value, held until {@link #release} is called with it.
+     *
+     * @param value the value, possibly null
+     * @return the instance equal to the value held by the dictionary, or null if the value is null
+     */
+    public String intern(String value) {
+        if (value == null) return null;
+        return values.compute(value, (v, entry) -> {
+            if (entry == null) entry = new Entry(v);
+            entry.holders++;
+            return entry;
+        }).value;
+    }
+
+    /**
+     * Releases a value returned by {@link #intern}, evicting it if nothing else holds it.
+     *
+     * @param value the value, possibly null
+     */
+    public void release(String value) {
+        if (value == null) return;
+        values.computeIfPresent(value, (v, entry) -> --entry.holders == 0 ? null : entry);
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,83 @@
+package ch.brewingstand.endpoints;
+
+import io.javalin.http.Context;
+
+/**
+ * ETag helpers shared by the controllers for conditional GET support (If-None-Match / 304 Not Modified), and for
+ * conditional writes (If-Match / 412 Precondition Failed).
+ *
+ * An ETag is built from a version and a scope: the version is the one of the data the representation was built
+ * from (one entity, or the partitions a query touches), the scope identifies the representation itself (endpoint +
+ * filter), so two different queries never share an ETag.
+ */
+public final class HttpCaching {
+
+    // Utility class pattern: no instances.
+    private HttpCaching() {}
+
+    /**
+     * Builds an ETag string for the given scope and version.
+     *
+     * @param scope   String representing endpoint + filter context
+     * @param version version of the data the representation is built from
+     * @return quoted ETag value
+     */
+    public static String buildEtag(String scope, long version) {
+        // ETag simple: "v<version>-<scopeHash>"
+        return "\"v" + version + "-" + scope.hashCode() + "\"";
+    }
+
+    /**
+     * Checks whether the client-provided If-None-Match header matches the current ETag.
+     * The header may hold a list of ETags, weak ETags (W/ prefix) or "*".
+     *
+     * @param ctx  Javalin request/response context
+     * @param etag current ETag for this representation
+     * @return true if the server should reply 304 Not Modified
+     */
+    public static boolean isNotModified(Context ctx, String etag) {
+        String inm = ctx.header("If-None-Match");
+        if (inm == null) return false;
+        if (inm.equals(etag)) return true;
+
+        for (String candidate : inm.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks the client-provided If-Match header of a write against the current ETag of the entity, for optimistic
+     * concurrency: a client sends the ETag it read, and its write is rejected if the entity changed since.
+     * The header may hold a list of ETags or "*" (any existing entity). Weak ETags never match.
+     *
+     * @param ctx  Javalin request/response context
+     * @param etag current ETag of the entity
+     * @return true if the server should reply 412 Precondition Failed
+     */
+    public static boolean isPreconditionFailed(Context ctx, String etag) {
+        String im = ctx.header("If-Match");
+        if (im == null) return false;
+
+        for (String candidate : im.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets caching headers for conditional GET support.
+     *
+     * @param ctx  Javalin request/response context
+     * @param etag ETag for this representation
+     */
+    public static void setCacheHeaders(Context ctx, String etag) {
+        ctx.header("ETag", etag);
+
+        // Cacheable but must revalidate, so clients can use ETag validation.
+        ctx.header("Cache-Control", "private, max-age=0, must-revalidate");
+    }
+}
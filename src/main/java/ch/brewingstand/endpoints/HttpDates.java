@@ -0,0 +1,74 @@
+package ch.brewingstand.endpoints;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * HTTP dates (Last-Modified, If-Modified-Since), in the IMF-fixdate format of RFC 9110 (an RFC 1123 date in GMT, such
+ * as "Sun, 06 Nov 1994 08:49:37 GMT"), with a precision of one second.
+ *
+ * Clients send back the Last-Modified value they received, so the same few strings are parsed over and over: parsed
+ * and formatted dates are kept in small direct-mapped caches (the slot is chosen by the hash of the key, a new entry
+ * replaces the previous one). A hit costs a hash and a comparison, without running the formatter. The entries are
+ * immutable, so the slots are read and written without locking.
+ */
+public final class HttpDates {
+
+    private static final int SLOTS = 256;
+
+    // Parsing accepts a one-digit day, formatting always writes two digits (IMF-fixdate).
+    private static final DateTimeFormatter PARSER = DateTimeFormatter.RFC_1123_DATE_TIME;
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private record Parsed(String text, long seconds) {}
+
+    private record Formatted(long seconds, String text) {}
+
+    private static final Parsed[] parsed = new Parsed[SLOTS];
+    private static final Formatted[] formatted = new Formatted[SLOTS];
+
+    // Utility class pattern: no instances.
+    private HttpDates() {}
+
+    /**
+     * Parses an HTTP date.
+     *
+     * @param text the header value
+     * @return the date in seconds since the epoch, or -1 if the value is not a valid date (the header is then ignored)
+     */
+    public static long parse(String text) {
+        int slot = text.hashCode() & (SLOTS - 1);
+        Parsed entry = parsed[slot];
+        if (entry != null && entry.text().equals(text)) return entry.seconds();
+
+        long seconds;
+        try {
+            seconds = ZonedDateTime.parse(text.trim(), PARSER).toEpochSecond();
+        } catch (DateTimeException e) {
+            seconds = -1;
+        }
+        parsed[slot] = new Parsed(text, seconds);
+        return seconds;
+    }
+
+    /**
+     * Formats an HTTP date.
+     *
+     * @param seconds the date in seconds since the epoch
+     * @return the header value
+     */
+    public static String format(long seconds) {
+        int slot = Long.hashCode(seconds) & (SLOTS - 1);
+        Formatted entry = formatted[slot];
+        if (entry != null && entry.seconds() == seconds) return entry.text();
+
+        String text = FORMATTER.format(Instant.ofEpochSecond(seconds));
+        formatted[slot] = new Formatted(seconds, text);
+        return text;
+    }
+}
@@ -0,0 +1,60 @@
+package ch.brewingstand.endpoints;
+
+import io.javalin.http.Context;
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and validates the JSON body of the single-item writes (POST /coffees, POST and PUT /reviews).
+ *
+ * Same responses as ctx.bodyValidator(...): a 400 with a REQUEST_BODY error, holding DESERIALIZATION_FAILED and the
+ * raw body if the body cannot be parsed, or the message of the failed check and the parsed body otherwise. The body
+ * is parsed from its bytes with {@link JsonCodecs}, and the checks are plain code in the controllers: a valid request
+ * allocates no validator, rule list nor error map.
+ */
+public final class JsonBody {
+
+    private static final String REQUEST_BODY = "REQUEST_BODY";
+
+    // Utility class pattern: no instances.
+    private JsonBody() {}
+
+    /**
+     * Parses the body of a request.
+     *
+     * @param ctx  Javalin request/response context
+     * @param type type of the body
+     * @param <T>  type of the body
+     * @return the parsed body
+     * @throws ValidationException if the body is not a valid JSON representation of the type
+     */
+    public static <T> T read(Context ctx, Class<T> type) {
+        byte[] body = ctx.bodyAsBytes();
+        T value = null;
+        try {
+            if (body.length > 0) value = JsonCodecs.MAPPER.readValue(body, type);
+        } catch (IOException e) {
+            // reported below, like a JSON null
+        }
+        if (value == null) {
+            throw invalid("DESERIALIZATION_FAILED", new String(body, StandardCharsets.UTF_8));
+        }
+        return value;
+    }
+
+    /**
+     * Builds the error of a body failing a check.
+     *
+     * @param message reason of the failure
+     * @param body    the parsed body
+     * @return the exception to throw, answered with a 400
+     */
+    public static ValidationException invalid(String message, Object body) {
+        return new ValidationException(Map.of(REQUEST_BODY, List.of(new ValidationError<>(message, Map.of(), body))));
+    }
+}
@@ -0,0 +1,238 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewCreateRequest;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewUpdateRequest;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+
+/**
+ * The JSON mapper of the application, shared by Javalin (ctx.json, request bodies), the response cache, the streamed
+ * lists and the bulk endpoints, with hand-written codecs for the coffees, the reviews and the review requests.
+ *
+ * Jackson's generic record codecs go through reflection: properties are looked up by name in a map, constructor
+ * arguments are buffered in an array and the ints are boxed. The codecs below write the fields in declaration order
+ * with pre-encoded names, and read them with a switch on the name straight into locals. They follow the rules of the
+ * generic codecs: unknown properties are rejected, scalars are coerced the same way (a number for a string, "3" or
+ * 3.0 for an int), missing fields are null or 0, and nulls are written.
+ */
+public final class JsonCodecs {
+
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString ORIGIN = new SerializedString("origin");
+    private static final SerializedString INTENSITY = new SerializedString("intensity");
+    private static final SerializedString AROMA = new SerializedString("aroma");
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString COFFEE_NAME = new SerializedString("coffeeName");
+    private static final SerializedString RATING = new SerializedString("rating");
+    private static final SerializedString COMMENT = new SerializedString("comment");
+
+    /** The mapper, configured like Javalin's default one. */
+    public static final ObjectMapper MAPPER = JavalinJackson.defaultMapper().registerModule(module());
+
+    // Utility class pattern: no instances.
+    private JsonCodecs() {}
+
+    private static SimpleModule module() {
+        SimpleModule module = new SimpleModule("brewing-codecs");
+        module.addSerializer(Coffee.class, new CoffeeSerializer());
+        module.addDeserializer(Coffee.class, new CoffeeDeserializer());
+        module.addSerializer(Review.class, new ReviewSerializer());
+        module.addDeserializer(Review.class, new ReviewDeserializer());
+        module.addDeserializer(ReviewCreateRequest.class, new ReviewCreateDeserializer());
+        module.addDeserializer(ReviewUpdateRequest.class, new ReviewUpdateDeserializer());
+        return module;
+    }
+
+    private static final class CoffeeSerializer extends StdSerializer<Coffee> {
+        private static final long serialVersionUID = 1L;
+
+        CoffeeSerializer() {
+            super(Coffee.class);
+        }
+
+        @Override
+        public void serialize(Coffee coffee, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(coffee);
+            gen.writeFieldName(NAME);
+            gen.writeString(coffee.name());
+            gen.writeFieldName(ORIGIN);
+            gen.writeString(coffee.origin());
+            gen.writeFieldName(INTENSITY);
+            gen.writeNumber(coffee.intensity());
+            gen.writeFieldName(AROMA);
+            gen.writeString(coffee.aroma());
+            gen.writeFieldName(TYPE);
+            gen.writeString(coffee.type());
+            gen.writeEndObject();
+        }
+    }
+
+    private static final class ReviewSerializer extends StdSerializer<Review> {
+        private static final long serialVersionUID = 1L;
+
+        ReviewSerializer() {
+            super(Review.class);
+        }
+
+        @Override
+        public void serialize(Review review, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(review);
+            gen.writeFieldName(ID);
+            gen.writeString(review.id());
+            gen.writeFieldName(COFFEE_NAME);
+            gen.writeString(review.coffeeName());
+            gen.writeFieldName(RATING);
+            gen.writeNumber(review.rating());
+            gen.writeFieldName(COMMENT);
+            gen.writeString(review.comment());
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Base of the deserializers: iterates over the field names of an object.
+     */
+    private abstract static class FieldsDeserializer<T> extends StdDeserializer<T> {
+        private static final long serialVersionUID = 1L;
+
+        FieldsDeserializer(Class<T> type) {
+            super(type);
+        }
+
+        /**
+         * Moves to the first field of the object.
+         *
+         * @return its name, or null if the object is empty
+         */
+        String firstField(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.hasToken(JsonToken.START_OBJECT)) return p.nextFieldName();
+            if (p.hasToken(JsonToken.FIELD_NAME)) return p.currentName();
+            if (p.hasToken(JsonToken.END_OBJECT)) return null;
+            return ctxt.reportInputMismatch(this, "Expected a JSON object for %s", handledType().getSimpleName());
+        }
+
+        String string(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.VALUE_STRING) return p.getText();
+            return token == JsonToken.VALUE_NULL ? null : _parseString(p, ctxt, this);
+        }
+
+        int integer(JsonParser p, DeserializationContext ctxt) throws IOException {
+            p.nextToken();
+            return p.hasToken(JsonToken.VALUE_NUMBER_INT) ? p.getIntValue() : _parseIntPrimitive(p, ctxt);
+        }
+
+        void unknown(JsonParser p, DeserializationContext ctxt, String field) throws IOException {
+            p.nextToken();
+            handleUnknownProperty(p, ctxt, handledType(), field);
+        }
+    }
+
+    private static final class CoffeeDeserializer extends FieldsDeserializer<Coffee> {
+        private static final long serialVersionUID = 1L;
+
+        CoffeeDeserializer() {
+            super(Coffee.class);
+        }
+
+        @Override
+        public Coffee deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String name = null, origin = null, aroma = null, type = null;
+            int intensity = 0;
+            for (String field = firstField(p, ctxt); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "name" -> name = string(p, ctxt);
+                    case "origin" -> origin = string(p, ctxt);
+                    case "intensity" -> intensity = integer(p, ctxt);
+                    case "aroma" -> aroma = string(p, ctxt);
+                    case "type" -> type = string(p, ctxt);
+                    default -> unknown(p, ctxt, field);
+                }
+            }
+            return new Coffee(name, origin, intensity, aroma, type);
+        }
+    }
+
+    private static final class ReviewDeserializer extends FieldsDeserializer<Review> {
+        private static final long serialVersionUID = 1L;
+
+        ReviewDeserializer() {
+            super(Review.class);
+        }
+
+        @Override
+        public Review deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String id = null, coffeeName = null, comment = null;
+            int rating = 0;
+            for (String field = firstField(p, ctxt); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "id" -> id = string(p, ctxt);
+                    case "coffeeName" -> coffeeName = string(p, ctxt);
+                    case "rating" -> rating = integer(p, ctxt);
+                    case "comment" -> comment = string(p, ctxt);
+                    default -> unknown(p, ctxt, field);
+                }
+            }
+            return new Review(id, coffeeName, rating, comment);
+        }
+    }
+
+    private static final class ReviewCreateDeserializer extends FieldsDeserializer<ReviewCreateRequest> {
+        private static final long serialVersionUID = 1L;
+
+        ReviewCreateDeserializer() {
+            super(ReviewCreateRequest.class);
+        }
+
+        @Override
+        public ReviewCreateRequest deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String coffeeName = null, comment = null;
+            int rating = 0;
+            for (String field = firstField(p, ctxt); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "coffeeName" -> coffeeName = string(p, ctxt);
+                    case "rating" -> rating = integer(p, ctxt);
+                    case "comment" -> comment = string(p, ctxt);
+                    default -> unknown(p, ctxt, field);
+                }
+            }
+            return new ReviewCreateRequest(coffeeName, rating, comment);
+        }
+    }
+
+    private static final class ReviewUpdateDeserializer extends FieldsDeserializer<ReviewUpdateRequest> {
+        private static final long serialVersionUID = 1L;
+
+        ReviewUpdateDeserializer() {
+            super(ReviewUpdateRequest.class);
+        }
+
+        @Override
+        public ReviewUpdateRequest deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String comment = null;
+            int rating = 0;
+            for (String field = firstField(p, ctxt); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "rating" -> rating = integer(p, ctxt);
+                    case "comment" -> comment = string(p, ctxt);
+                    default -> unknown(p, ctxt, field);
+                }
+            }
+            return new ReviewUpdateRequest(rating, comment);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ch.brewingstand.endpoints;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Writes list responses incrementally to the response output stream, one item at a time, instead of building the whole
+ * list and serializing it in one go. The memory used by a request is then bounded by the serialization buffer, no
+ * matter how many items match.
+ *
+ * Two formats are supported:
+ * - a regular JSON array, requested with the stream=true query parameter;
+ * - newline-delimited JSON (one object per line), requested with "Accept: application/x-ndjson".
+ */
+public final class JsonStreaming {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    // The mapper Javalin uses for ctx.json(...), without a flush after every item.
+    private static final ObjectWriter WRITER = JsonCodecs.MAPPER.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    public enum Mode { NONE, ARRAY, NDJSON }
+
+    // Utility class pattern: no instances.
+    private JsonStreaming() {}
+
+    /**
+     * Returns the streaming mode requested by the client.
+     *
+     * @param ctx Javalin request/response context
+     * @return NDJSON, ARRAY or NONE for a regular buffered response
+     */
+    public static Mode mode(Context ctx) {
+        return mode(ctx, "true".equals(ctx.queryParam("stream")));
+    }
+
+    /**
+     * Returns the streaming mode requested by the client, the stream query parameter being already parsed.
+     *
+     * @param ctx    Javalin request/response context
+     * @param stream true if the request has stream=true
+     * @return NDJSON, ARRAY or NONE for a regular buffered response
+     */
+    public static Mode mode(Context ctx, boolean stream) {
+        String accept = ctx.header("Accept");
+        if (accept != null && accept.contains(NDJSON)) return Mode.NDJSON;
+        return stream ? Mode.ARRAY : Mode.NONE;
+    }
+
+    /**
+     * Streams the items to the response.
+     *
+     * @param ctx   Javalin request/response context
+     * @param items items to write, consumed lazily
+     * @param mode  ARRAY or NDJSON
+     */
+    public static void write(Context ctx, Iterator<?> items, Mode mode) {
+        ctx.contentType(mode == Mode.NDJSON ? NDJSON : ContentType.JSON);
+        try (JsonGenerator gen = WRITER.getFactory().createGenerator(ctx.outputStream())) {
+            gen.setRootValueSeparator(null);
+            if (mode == Mode.ARRAY) gen.writeStartArray();
+            while (items.hasNext()) {
+                WRITER.writeValue(gen, items.next());
+                if (mode == Mode.NDJSON) gen.writeRaw('\n');
+            }
+            if (mode == Mode.ARRAY) gen.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ch.brewingstand.endpoints;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Cursor pagination parameters of the list endpoints.
+ *
+ * Lists are sorted on their key (coffee name, review id), and the cursor is the key of the last item of the previous
+ * page: the next page starts strictly after it. As the cursor is a key and not an offset, a page never skips nor
+ * repeats an item when the data changes between two requests.
+ *
+ * @param limit maximal number of items of the page, 0 for no limit
+ * @param after key after which the page starts, or null for the first page
+ */
+public record Page(int limit, String after) {
+
+    public static final int MAX_LIMIT = 1000;
+
+    // Response header holding the cursor of the next page, only set if there is one.
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Reads the limit and cursor query parameters.
+     *
+     * @param ctx Javalin request/response context
+     * @return the requested page
+     * @throws BadRequestResponse if the limit is not an integer in [1:MAX_LIMIT]
+     */
+    public static Page of(Context ctx) {
+        String limit = ctx.queryParam("limit");
+        String cursor = ctx.queryParam("cursor");
+        int parsed = 0;
+        if (limit != null) {
+            try {
+                parsed = Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                parsed = -1;
+            }
+            if (parsed < 1 || parsed > MAX_LIMIT) {
+                throw new BadRequestResponse("Error : limit should be between 1 and " + MAX_LIMIT);
+            }
+        }
+        return new Page(parsed, (cursor == null || cursor.isEmpty()) ? null : cursor);
+    }
+
+    /**
+     * @return true if no limit was requested
+     */
+    public boolean unbounded() {
+        return limit == 0;
+    }
+
+    /**
+     * Identifies the page in ETag scopes and cache keys.
+     *
+     * @return a string unique to this page
+     */
+    public String scope() {
+        return "limit=" + limit + "&cursor=" + (after == null ? "" : after);
+    }
+
+    /**
+     * Collects one page out of a sorted sequence of items, and sets the next cursor header if more items follow.
+     *
+     * @param ctx   Javalin request/response context
+     * @param items the items, sorted on their key and starting after the cursor
+     * @param key   extracts the key of an item
+     * @param <T>   item type
+     * @return the items of the page
+     */
+    public <T> List<T> collect(Context ctx, Iterator<T> items, Function<T, String> key) {
+        List<T> page = new ArrayList<>(unbounded() ? 16 : limit);
+        while (items.hasNext() && (unbounded() || page.size() < limit)) {
+            page.add(items.next());
+        }
+        if (!unbounded() && page.size() == limit && items.hasNext()) {
+            ctx.header(NEXT_CURSOR_HEADER, key.apply(page.get(page.size() - 1)));
+        }
+        return page;
+    }
+
+    /**
+     * Prepares one page out of a sorted sequence of items for a streamed response. Without a limit, the items are
+     * streamed as they are read. With one, the page (at most MAX_LIMIT items) is read first, so that the next cursor
+     * header is set before the body is written.
+     *
+     * @param ctx   Javalin request/response context
+     * @param items the items, sorted on their key and starting after the cursor
+     * @param key   extracts the key of an item
+     * @param <T>   item type
+     * @return an iterator over the items of the page
+     */
+    public <T> Iterator<T> stream(Context ctx, Iterator<T> items, Function<T, String> key) {
+        if (unbounded()) return items;
+        return collect(ctx, items, key).iterator();
+    }
+}
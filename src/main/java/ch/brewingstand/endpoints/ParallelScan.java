@@ -0,0 +1,170 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Parallel execution of the list scans: the keys read from an index (in the order of the list) are resolved to their
+ * entity and checked against the filters the index could not apply, on several threads.
+ *
+ * A scan starts on the request thread, and stays there for its first threshold keys: small lists and pages filled
+ * early never touch the pool. Past the threshold, the keys are cut into chunks of CHUNK keys and resolved in waves of
+ * at most parallelism chunks: the request thread resolves the first chunk of a wave itself and the pool the others,
+ * then the results are emitted chunk after chunk. The output is thus in key order, the same as a sequential scan,
+ * whatever the scheduling. A wave is only started once the previous one is consumed, so a page stops the scan within
+ * one wave of its last item.
+ *
+ * The pool is shared by all the requests and each one has at most parallelism chunks in flight, so a single large scan
+ * cannot take every scan thread. Since the request thread always works on its own first chunk, a scan keeps
+ * progressing when the pool is busy with other ones.
+ */
+public final class ParallelScan {
+
+    // Keys resolved by one task: large enough to amortize the scheduling, small enough to spread a scan.
+    private static final int CHUNK = 2048;
+
+    // Shared pool of the scans, null for sequential scans only. Set at startup, see configure.
+    private static volatile ForkJoinPool pool;
+    private static volatile int parallelism = 1;
+    private static volatile int threshold = 10_000;
+
+    private static final LongAdder parallelScans = new LongAdder();
+    private static final LongAdder pooledChunks = new LongAdder();
+
+    // Utility class pattern: no instances.
+    private ParallelScan() {}
+
+    /**
+     * Sets up the scan pool. Must be called at startup, before the server accepts requests.
+     *
+     * @param threads     number of threads of the pool, shared by all the scans
+     * @param parallelism largest number of chunks of one scan resolved at once, the request thread included; 1 for
+     *                    sequential scans only
+     * @param threshold   number of keys resolved on the request thread before a scan goes parallel
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public static void configure(int threads, int parallelism, int threshold) {
+        if (threads <= 0) throw new IllegalArgumentException("Invalid value for scan-threads : " + threads);
+        if (parallelism <= 0) throw new IllegalArgumentException("Invalid value for scan-parallelism : " + parallelism);
+        if (threshold < 0) throw new IllegalArgumentException("Invalid value for scan-threshold : " + threshold);
+        ForkJoinPool previous = pool;
+        pool = (parallelism > 1) ? new ForkJoinPool(threads, ParallelScan::newThread, null, false) : null;
+        ParallelScan.parallelism = parallelism;
+        ParallelScan.threshold = threshold;
+        if (previous != null) previous.shutdown();
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("scan-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    /**
+     * Scans keys lazily: resolves each key, and keeps the non-null results.
+     *
+     * @param keys    the keys, in the order of the list
+     * @param resolve returns the entity of a key if it matches the query, null otherwise; called from several threads
+     * @param <K>     key type
+     * @param <T>     entity type
+     * @return the matching entities, in the order of their keys
+     */
+    public static <K, T> Iterator<T> scan(Iterator<K> keys, Function<? super K, ? extends T> resolve) {
+        return new Scan<>(keys, resolve, pool, parallelism, threshold);
+    }
+
+    /**
+     * Registers the number of scans that went parallel, and of chunks resolved by the pool.
+     */
+    public static void registerMetrics() {
+        Metrics.counter("brewing_scan_parallel_total", "List scans resolved in parallel", "",
+                parallelScans::sum);
+        Metrics.counter("brewing_scan_pooled_chunks_total", "Chunks of list scans resolved by the scan pool", "",
+                pooledChunks::sum);
+    }
+
+    private static final class Scan<K, T> implements Iterator<T> {
+
+        private final Iterator<K> keys;
+        private final Function<? super K, ? extends T> resolve;
+        private final ForkJoinPool pool;
+        private final int width;
+        // Keys left to resolve on the request thread before going parallel.
+        private long sequential;
+        private boolean parallel;
+        private final ArrayDeque<T> ready = new ArrayDeque<>();
+
+        Scan(Iterator<K> keys, Function<? super K, ? extends T> resolve, ForkJoinPool pool, int width,
+             long sequential) {
+            this.keys = keys;
+            this.resolve = resolve;
+            this.pool = pool;
+            this.width = width;
+            this.sequential = sequential;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (ready.isEmpty() && keys.hasNext()) {
+                if (pool == null || sequential > 0) {
+                    sequential--;
+                    T item = resolve.apply(keys.next());
+                    if (item != null) ready.add(item);
+                } else {
+                    wave();
+                }
+            }
+            return !ready.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return ready.poll();
+        }
+
+        /**
+         * Resolves the next chunks of keys, the first one on the calling thread and the others in the pool.
+         */
+        private void wave() {
+            if (!parallel) {
+                parallel = true;
+                parallelScans.increment();
+            }
+            List<K> first = chunk();
+            List<ForkJoinTask<List<T>>> others = new ArrayList<>(width - 1);
+            for (int i = 1; i < width && keys.hasNext(); i++) {
+                List<K> chunk = chunk();
+                others.add(pool.submit(() -> resolveAll(chunk)));
+            }
+            pooledChunks.add(others.size());
+            ready.addAll(resolveAll(first));
+            for (ForkJoinTask<List<T>> task : others) ready.addAll(task.join());
+        }
+
+        private List<K> chunk() {
+            List<K> chunk = new ArrayList<>(CHUNK);
+            while (chunk.size() < CHUNK && keys.hasNext()) chunk.add(keys.next());
+            return chunk;
+        }
+
+        private List<T> resolveAll(List<K> chunk) {
+            List<T> items = new ArrayList<>();
+            for (K key : chunk) {
+                T item = resolve.apply(key);
+                if (item != null) items.add(item);
+            }
+            return items;
+        }
+    }
+}
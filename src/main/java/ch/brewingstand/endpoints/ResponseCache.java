@@ -0,0 +1,334 @@
+package ch.brewingstand.endpoints;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bounded cache of serialized GET responses, keyed by route + normalized query.
+ *
+ * An entry holds the JSON bytes of a representation (and a gzipped copy when the body is large enough to be worth
+ * compressing) together with the ETag it was built for. A hit is only served if the stored ETag is still the current
+ * one, so a stale entry can never be returned even if a mutation path forgot to invalidate it; mutation paths still
+ * invalidate the entries they know are stale to free the memory early.
+ *
+ * Eviction is LRU, bounded both by entry count and by total bytes. The cache is split into segments, each one being an
+ * access-ordered LinkedHashMap with its own lock and its share of the budget, so concurrent readers of different keys
+ * do not contend on a single lock.
+ *
+ * Outcomes (hits, misses, stale entries, evictions) are counted for the metrics.
+ */
+public final class ResponseCache {
+
+    // Bodies smaller than this are not worth a gzipped copy (same threshold as Javalin's compression).
+    private static volatile int gzipMinSize = 1500;
+
+    private static final int SEGMENTS = 16;
+
+    /**
+     * A cached representation.
+     *
+     * @param etag ETag of the representation
+     * @param json serialized JSON body
+     * @param gzip gzipped JSON body, or null if the body is too small
+     * @param headers response headers that are part of the representation (e.g. the next page cursor)
+     */
+    public record Entry(String etag, byte[] json, byte[] gzip, Map<String, String> headers) {
+        long weight() {
+            return json.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+
+    // Lookups served from the cache, not found, and found but built for an older ETag.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * @param maxEntries maximal number of cached responses
+     * @param maxBytes   maximal total size of the cached bodies, in bytes
+     */
+    public ResponseCache(int maxEntries, long maxBytes) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS), Math.max(1, maxBytes / SEGMENTS));
+        }
+    }
+
+    /**
+     * Builds the cache key of a request: the matched route followed by its query parameters sorted by name, so that
+     * "?a=1&b=2" and "?b=2&a=1" share the same entry.
+     *
+     * @param ctx Javalin request/response context
+     * @return the cache key
+     */
+    public static String key(Context ctx) {
+        Map<String, List<String>> params = ctx.queryParamMap();
+        if (params.isEmpty()) return ctx.path();
+
+        StringBuilder key = new StringBuilder(ctx.path()).append('?');
+        for (Map.Entry<String, List<String>> param : new TreeMap<>(params).entrySet()) {
+            for (String value : param.getValue()) {
+                key.append(param.getKey()).append('=').append(value).append('&');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Writes the cached response for the key, if there is one built for the current ETag.
+     *
+     * @param ctx  Javalin request/response context
+     * @param key  cache key of the request
+     * @param etag current ETag of the representation
+     * @return true if the response has been served from the cache
+     */
+    public boolean serve(Context ctx, String key, String etag) {
+        Entry entry = segmentOf(key).get(key, etag);
+        if (entry == null) return false;
+        write(ctx, entry);
+        return true;
+    }
+
+    /**
+     * Serializes a body, stores it under the key and writes it to the response.
+     *
+     * @param ctx  Javalin request/response context
+     * @param key  cache key of the request
+     * @param etag ETag of the representation
+     * @param body object to serialize as JSON
+     * @param captured names of the response headers already set by the handler that must be replayed on a hit
+     */
+    public void store(Context ctx, String key, String etag, Object body, String... captured) {
+        byte[] json;
+        try {
+            // straight to UTF-8 bytes, without an intermediate String
+            json = JsonCodecs.MAPPER.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, String> headers = Map.of();
+        if (captured.length > 0) {
+            headers = new HashMap<>();
+            for (String name : captured) {
+                String value = ctx.res().getHeader(name);
+                if (value != null) headers.put(name, value);
+            }
+        }
+        Entry entry = new Entry(etag, json, json.length >= gzipMinSize ? gzip(json) : null, headers);
+        segmentOf(key).put(key, entry);
+        write(ctx, entry);
+    }
+
+    /**
+     * Drops the entry of a key.
+     *
+     * @param key cache key
+     */
+    public void invalidate(String key) {
+        segmentOf(key).remove(key);
+    }
+
+    /**
+     * Sets the size from which a gzipped copy of the bodies is kept, to follow the compression settings of the server.
+     * Only applies to the entries stored afterwards.
+     *
+     * @param minSize smallest body size to compress, Integer.MAX_VALUE to never compress
+     */
+    public static void setGzipMinSize(int minSize) {
+        gzipMinSize = minSize;
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public void clear() {
+        for (Segment segment : segments) segment.clear();
+    }
+
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups without an entry
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of lookups finding an entry built for an older ETag
+     */
+    public long stale() {
+        return stale.sum();
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the budget
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    /**
+     * @return the total size of the cached bodies, in bytes
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments) bytes += segment.bytes();
+        return bytes;
+    }
+
+    private static void write(Context ctx, Entry entry) {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.header("Vary", "Accept-Encoding");
+        entry.headers().forEach(ctx::header);
+        String accepted = ctx.header("Accept-Encoding");
+        if (entry.gzip() != null && accepted != null && accepted.contains("gzip")) {
+            // Javalin does not compress a response that already has a Content-Encoding.
+            ctx.header("Content-Encoding", "gzip");
+            ctx.result(entry.gzip());
+        } else {
+            ctx.result(entry.json());
+        }
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private Segment segmentOf(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * One LRU segment of the cache. Guarded by a ReentrantLock rather than a monitor, so that a virtual thread waiting
+     * for it does not pin its carrier (see {@link StripedLocks}).
+     */
+    private final class Segment {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        Entry get(String key, String etag) {
+            lock.lock();
+            try {
+                Entry entry = entries.get(key);
+                if (entry == null) {
+                    misses.increment();
+                    return null;
+                }
+                if (!entry.etag().equals(etag)) {
+                    // built for an older version of the data
+                    stale.increment();
+                    remove(key);
+                    return null;
+                }
+                hits.increment();
+                return entry;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String key, Entry entry) {
+            if (entry.weight() > maxBytes) return;
+            lock.lock();
+            try {
+                Entry previous = entries.put(key, entry);
+                if (previous != null) bytes -= previous.weight();
+                bytes += entry.weight();
+
+                // evict from the least recently used end
+                Iterator<Entry> lru = entries.values().iterator();
+                while ((entries.size() > maxEntries || bytes > maxBytes) && lru.hasNext()) {
+                    bytes -= lru.next().weight();
+                    lru.remove();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(String key) {
+            lock.lock();
+            try {
+                Entry removed = entries.remove(key);
+                if (removed != null) bytes -= removed.weight();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+                bytes = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long bytes() {
+            lock.lock();
+            try {
+                return bytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
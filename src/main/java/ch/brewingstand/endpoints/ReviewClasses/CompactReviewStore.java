@@ -0,0 +1,326 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import ch.brewingstand.endpoints.Dictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Review storage for large catalogs. Review ids are server-generated decimal numbers, so the reviews are keyed by the
+ * id as a primitive long in open-addressing tables (linear probing): an entry costs two longs (id and version) and a
+ * reference in three arrays, instead of a map node per review and another one, with a boxed Long, per version. The coffee names of the reviews are dictionary-encoded (see
+ * {@link Dictionary}), so the reviews of a coffee share a single name instance, released with the review.
+ *
+ * Only the reviews and their versions are compact: the secondary indexes ({@link ReviewIndex}), the search postings
+ * and the changes of the delta sync are the same in both modes, and still cost a few map or skip-list nodes per
+ * review.
+ *
+ * The tables are split into segments, each guarded by a StampedLock. Lookups first run without locking (optimistic
+ * read), and only take the read lock if a write of the segment overlapped them: a lookup parses the id in place and
+ * returns the stored Review, without allocating.
+ *
+ * Ids which are not in the canonical form of a generated id (digits only, no leading zero) are never stored, and are
+ * not found.
+ */
+public class CompactReviewStore implements ReviewStore {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    private final Dictionary names;
+
+    /**
+     * @param names dictionary of the coffee names, shared with the coffees
+     */
+    public CompactReviewStore(Dictionary names) {
+        this.names = names;
+        for (int i = 0; i < segments.length; i++) segments[i] = new Segment();
+    }
+
+    @Override
+    public Review get(String id) {
+        long key = keyOf(id);
+        return key < 0 ? null : segmentOf(key).get(key);
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        return get(id) != null;
+    }
+
+    @Override
+    public Review put(Review review) {
+        long key = keyOf(review.id());
+        if (key < 0) throw new IllegalArgumentException("Not a generated review id : " + review.id());
+        String name = names.intern(review.coffeeName());
+        if (name != review.coffeeName()) {
+            review = new Review(review.id(), name, review.rating(), review.comment());
+        }
+        Review previous = segmentOf(key).put(key, review);
+        if (previous != null) names.release(previous.coffeeName());
+        return previous;
+    }
+
+    @Override
+    public Review remove(String id) {
+        long key = keyOf(id);
+        if (key < 0) return null;
+        Review removed = segmentOf(key).remove(key);
+        if (removed != null) names.release(removed.coffeeName());
+        return removed;
+    }
+
+    @Override
+    public long version(String id) {
+        long key = keyOf(id);
+        return key < 0 ? 0 : segmentOf(key).version(key);
+    }
+
+    @Override
+    public void setVersion(String id, long version) {
+        long key = keyOf(id);
+        if (key >= 0) segmentOf(key).setVersion(key, version);
+    }
+
+    @Override
+    public void reserve(int reviews) {
+        // Ids are spread evenly over the segments.
+        int perSegment = reviews / segments.length + 1;
+        for (Segment segment : segments) segment.reserve(perSegment);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size;
+        return size;
+    }
+
+    @Override
+    public void forEach(Consumer<Review> visitor) {
+        for (Segment segment : segments) {
+            // copy under the read lock, then visit without blocking the writers of the segment
+            segment.snapshot().forEach(visitor);
+        }
+    }
+
+    /**
+     * Parses a review id.
+     *
+     * @param id review id
+     * @return the id as a positive long, or -1 if it is not in the canonical form of a generated id
+     */
+    static long keyOf(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18 || id.charAt(0) == '0') return -1;
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    private static long mix(long key) {
+        // ids are sequential: spread them over the segments and the slots
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private Segment segmentOf(long key) {
+        return segments[(int) (mix(key) >>> (64 - SEGMENT_BITS))];
+    }
+
+    /**
+     * The arrays of a segment, replaced as a whole when the segment grows, so that a lookup reads consistent arrays.
+     * Key 0 marks a free slot.
+     */
+    private record Table(long[] keys, Review[] values, long[] versions) {
+        Table(int capacity) {
+            this(new long[capacity], new Review[capacity], new long[capacity]);
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile Table table = new Table(INITIAL_CAPACITY);
+        private volatile int size;
+
+        Review get(long key) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Table t = table;
+                int slot = find(t, key);
+                Review found = slot < 0 ? null : t.values()[slot];
+                if (lock.validate(stamp)) return found;
+            }
+            stamp = lock.readLock();
+            try {
+                int slot = find(table, key);
+                return slot < 0 ? null : table.values()[slot];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long version(long key) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Table t = table;
+                int slot = find(t, key);
+                long found = slot < 0 ? 0 : t.versions()[slot];
+                if (lock.validate(stamp)) return found;
+            }
+            stamp = lock.readLock();
+            try {
+                int slot = find(table, key);
+                return slot < 0 ? 0 : table.versions()[slot];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void setVersion(long key, long version) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = find(table, key);
+                if (slot >= 0) table.versions()[slot] = version;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Probes a table. Safe to run during a write: it only reads within the bounds of the arrays and visits each
+         * slot at most once, the caller validates the result.
+         *
+         * @return the slot of the key, or -1 if it is not in the table
+         */
+        private static int find(Table table, long key) {
+            long[] keys = table.keys();
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long k = keys[slot];
+                if (k == key) return slot;
+                if (k == 0) return -1;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        Review put(long key, Review review) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                long[] keys = t.keys();
+                int mask = keys.length - 1;
+                int slot = (int) mix(key) & mask;
+                while (keys[slot] != 0) {
+                    if (keys[slot] == key) {
+                        Review previous = t.values()[slot];
+                        t.values()[slot] = review;
+                        return previous;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                t.values()[slot] = review;
+                t.versions()[slot] = 0;
+                keys[slot] = key;
+                size++;
+                if (size > keys.length * 3 / 4) resize(keys.length * 2);
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        Review remove(long key) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                long[] keys = t.keys();
+                Review[] values = t.values();
+                long[] versions = t.versions();
+                int mask = keys.length - 1;
+                int slot = (int) mix(key) & mask;
+                while (keys[slot] != key) {
+                    if (keys[slot] == 0) return null;
+                    slot = (slot + 1) & mask;
+                }
+                Review removed = values[slot];
+
+                // Backward shift deletion: move back the entries of the probe sequence that follow the freed slot,
+                // so that lookups can stop at the first free slot without tombstones.
+                int free = slot;
+                int next = (free + 1) & mask;
+                while (keys[next] != 0) {
+                    int home = (int) mix(keys[next]) & mask;
+                    // the entry can move to the free slot if its home is not cyclically within (free, next]
+                    boolean stays = (free <= next) ? (home > free && home <= next) : (home > free || home <= next);
+                    if (!stays) {
+                        keys[free] = keys[next];
+                        values[free] = values[next];
+                        versions[free] = versions[next];
+                        free = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                keys[free] = 0;
+                values[free] = null;
+                versions[free] = 0;
+                size--;
+                return removed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Grows the table so that it holds a number of entries without growing again.
+         */
+        void reserve(int entries) {
+            long stamp = lock.writeLock();
+            try {
+                int capacity = table.keys().length;
+                while (entries > capacity * 3 / 4 && capacity < (1 << 30)) capacity *= 2;
+                if (capacity > table.keys().length) resize(capacity);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void resize(int capacity) {
+            Table old = table;
+            Table grown = new Table(capacity);
+            int mask = grown.keys().length - 1;
+            for (int i = 0; i < old.keys().length; i++) {
+                long key = old.keys()[i];
+                if (key == 0) continue;
+                int slot = (int) mix(key) & mask;
+                while (grown.keys()[slot] != 0) slot = (slot + 1) & mask;
+                grown.keys()[slot] = key;
+                grown.values()[slot] = old.values()[i];
+                grown.versions()[slot] = old.versions()[i];
+            }
+            table = grown;
+        }
+
+        List<Review> snapshot() {
+            long stamp = lock.readLock();
+            try {
+                List<Review> reviews = new ArrayList<>(size);
+                for (Review review : table.values()) {
+                    if (review != null) reviews.add(review);
+                }
+                return reviews;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
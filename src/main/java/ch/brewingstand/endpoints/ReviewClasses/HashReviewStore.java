@@ -0,0 +1,64 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Review storage backed by ConcurrentHashMaps keyed by the review id, one for the reviews and one for their versions.
+ * The default storage.
+ */
+public class HashReviewStore implements ReviewStore {
+
+    // Only replaced by reserve, at startup.
+    private volatile ConcurrentHashMap<String, Review> reviews = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+
+    @Override
+    public Review get(String id) {
+        return reviews.get(id);
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        return reviews.containsKey(id);
+    }
+
+    @Override
+    public Review put(Review review) {
+        return reviews.put(review.id(), review);
+    }
+
+    @Override
+    public Review remove(String id) {
+        versions.remove(id);
+        return reviews.remove(id);
+    }
+
+    @Override
+    public long version(String id) {
+        return versions.getOrDefault(id, 0L);
+    }
+
+    @Override
+    public void setVersion(String id, long version) {
+        if (reviews.containsKey(id)) versions.put(id, version);
+    }
+
+    @Override
+    public void reserve(int count) {
+        if (reviews.isEmpty()) {
+            reviews = new ConcurrentHashMap<>(count);
+            versions = new ConcurrentHashMap<>(count);
+        }
+    }
+
+    @Override
+    public int size() {
+        return reviews.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Review> visitor) {
+        reviews.values().forEach(visitor);
+    }
+}
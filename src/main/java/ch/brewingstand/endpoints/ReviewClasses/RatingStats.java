@@ -0,0 +1,184 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rating aggregates of every coffee (count, sum and 1-5 histogram of the ratings of its reviews), maintained
+ * incrementally by the review mutations instead of being computed from the reviews on every request.
+ *
+ * - aggregates: coffee name (case-insensitive) -> counters. The counters are LongAdders, so concurrent reviews of the
+ *   same coffee update them in O(1) without contending on a lock.
+ * - ranking: the coffees with at least one review, sorted by average rating, used by the top-N query. An entry is
+ *   replaced after every change of its aggregate, under the lock of that aggregate only; since every writer re-ranks
+ *   after its own update, the last one always leaves the entry in line with the counters. The lock is a ReentrantLock
+ *   rather than a monitor, so that a virtual thread waiting for it does not pin its carrier (see StripedLocks).
+ */
+public class RatingStats {
+
+    /**
+     * Rating summary of a coffee, as returned by the API.
+     *
+     * @param coffeeName name of the coffee
+     * @param count      number of reviews
+     * @param sum        sum of the ratings
+     * @param average    average rating, 0 without reviews
+     * @param histogram  number of reviews for each rating, from 1 to 5
+     */
+    public record Summary(String coffeeName, long count, long sum, double average, long[] histogram) {}
+
+    /**
+     * Position of a coffee in the ranking.
+     */
+    private record Rank(String key, double average, long count) {}
+
+    // Best average first, then the most reviewed, then by name for a total order.
+    private static final Comparator<Rank> RANK_ORDER = Comparator.comparingDouble(Rank::average).reversed()
+            .thenComparing(Comparator.comparingLong(Rank::count).reversed())
+            .thenComparing(Rank::key);
+
+    private static final class Aggregate {
+        final String coffeeName;
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAdder[] histogram = new LongAdder[5];
+        final ReentrantLock lock = new ReentrantLock();
+        // Entry of the coffee in the ranking, null while it has no review. Guarded by lock.
+        Rank ranked;
+
+        Aggregate(String coffeeName) {
+            this.coffeeName = coffeeName;
+            for (int i = 0; i < histogram.length; i++) histogram[i] = new LongAdder();
+        }
+
+        void add(int rating, int delta) {
+            count.add(delta);
+            sum.add((long) rating * delta);
+            histogram[rating - 1].add(delta);
+        }
+
+        Summary summary() {
+            long[] counts = new long[histogram.length];
+            for (int i = 0; i < counts.length; i++) counts[i] = histogram[i].sum();
+            long n = count.sum();
+            long total = sum.sum();
+            return new Summary(coffeeName, n, total, n == 0 ? 0 : (double) total / n, counts);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Aggregate> aggregates = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Rank> ranking = new ConcurrentSkipListSet<>(RANK_ORDER);
+
+    /**
+     * Counts a new review.
+     *
+     * @param review the created review
+     */
+    public void add(Review review) {
+        Aggregate aggregate = aggregates.computeIfAbsent(normalize(review.coffeeName()),
+                k -> new Aggregate(review.coffeeName()));
+        aggregate.add(review.rating(), 1);
+        rerank(aggregate);
+    }
+
+    /**
+     * Moves a review from its previous rating to its new one. The coffee of a review never changes.
+     *
+     * @param previous the review before the update
+     * @param updated  the review after the update
+     */
+    public void update(Review previous, Review updated) {
+        if (previous.rating() == updated.rating()) return;
+        Aggregate aggregate = aggregates.get(normalize(updated.coffeeName()));
+        if (aggregate == null) return;
+        aggregate.add(previous.rating(), -1);
+        aggregate.add(updated.rating(), 1);
+        rerank(aggregate);
+    }
+
+    /**
+     * Uncounts a deleted review.
+     *
+     * @param review the deleted review
+     */
+    public void remove(Review review) {
+        Aggregate aggregate = aggregates.get(normalize(review.coffeeName()));
+        if (aggregate == null) return;
+        aggregate.add(review.rating(), -1);
+        rerank(aggregate);
+    }
+
+    /**
+     * Drops the aggregate of a coffee, whose reviews are all deleted with it.
+     *
+     * @param coffeeName the coffee name (case-insensitive)
+     */
+    public void removeCoffee(String coffeeName) {
+        Aggregate aggregate = aggregates.remove(normalize(coffeeName));
+        if (aggregate == null) return;
+        aggregate.lock.lock();
+        try {
+            if (aggregate.ranked != null) ranking.remove(aggregate.ranked);
+            aggregate.ranked = null;
+        } finally {
+            aggregate.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the rating summary of a coffee.
+     *
+     * @param coffeeName the coffee name, as it should appear in the summary when the coffee has no review
+     * @return the summary, with zero counts if the coffee has no review
+     */
+    public Summary of(String coffeeName) {
+        Aggregate aggregate = aggregates.get(normalize(coffeeName));
+        if (aggregate == null) return new Summary(coffeeName, 0, 0, 0, new long[5]);
+        return aggregate.summary();
+    }
+
+    /**
+     * Returns the best rated coffees, read from the ranking without sorting.
+     *
+     * @param n        maximal number of coffees
+     * @param minCount only rank the coffees with at least that many reviews
+     * @return the summaries, best average first
+     */
+    public List<Summary> top(int n, long minCount) {
+        List<Summary> top = new ArrayList<>(Math.min(n, 64));
+        for (Rank rank : ranking) {
+            if (top.size() == n) break;
+            if (rank.count() < minCount) continue;
+            Aggregate aggregate = aggregates.get(rank.key());
+            if (aggregate != null) top.add(aggregate.summary());
+        }
+        return top;
+    }
+
+    private void rerank(Aggregate aggregate) {
+        String key = normalize(aggregate.coffeeName);
+        aggregate.lock.lock();
+        try {
+            // A dropped aggregate (coffee deleted) must not come back in the ranking.
+            if (aggregates.get(key) != aggregate) return;
+            long n = aggregate.count.sum();
+            Rank rank = (n <= 0) ? null : new Rank(key, (double) aggregate.sum.sum() / n, n);
+            if (rank != null && rank.equals(aggregate.ranked)) return;
+            if (aggregate.ranked != null) ranking.remove(aggregate.ranked);
+            if (rank != null) ranking.add(rank);
+            aggregate.ranked = rank;
+        } finally {
+            aggregate.lock.unlock();
+        }
+    }
+
+    private static String normalize(String coffeeName) {
+        return coffeeName.toLowerCase(Locale.ROOT);
+    }
+}
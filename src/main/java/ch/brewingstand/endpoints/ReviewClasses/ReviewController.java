@@ -1,37 +1,129 @@
 package ch.brewingstand.endpoints.ReviewClasses;
 import ch.brewingstand.endpoints.CoffeeClasses.CoffeeController;
-
+import ch.brewingstand.endpoints.Bulk;
+import ch.brewingstand.endpoints.ChangeIndex;
+import ch.brewingstand.endpoints.HttpCaching;
+import ch.brewingstand.endpoints.JsonBody;
+import ch.brewingstand.endpoints.JsonStreaming;
+import ch.brewingstand.endpoints.Page;
+import ch.brewingstand.endpoints.ParallelScan;
+import ch.brewingstand.endpoints.ResponseCache;
+import ch.brewingstand.endpoints.Sort;
+import ch.brewingstand.endpoints.StripedLocks;
+import ch.brewingstand.metrics.Metrics;
+import ch.brewingstand.storage.Mutation;
+import ch.brewingstand.storage.Storage;
+
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Controller handling CRUD operations for Review resources.
  *
- * Thread-safety: storage is backed by a ConcurrentHashMap and IDs/versions are generated using AtomicLong,
+ * Thread-safety: storage is backed by a concurrent {@link ReviewStore} and IDs/versions are generated using AtomicLong,
  * which makes the data structure resilient to concurrent accesses.
  *
  * Caching: GET endpoints emit an ETag and support conditional requests with If-None-Match,
- * returning 304 when the data has not changed.</p>
+ * returning 304 when the data has not changed. Versions are tracked per review and per coffee partition, so a write
+ * only invalidates the representations that contain the written review.</p>
+ *
+ * Writes: every write holds the lock of its coffee partition (see {@link StripedLocks}) from its checks until it is
+ * submitted to the storage log, and PUT/DELETE accept an If-Match header for optimistic concurrency.
  */
 public class ReviewController {
 
-    // In-memory concurrent storage of reviews, keyed by review id.
-    private static final ConcurrentHashMap<String, Review> reviews = new ConcurrentHashMap<>();
+    // In-memory concurrent storage of reviews, keyed by review id. Chosen at startup, see setStore.
+    private static volatile ReviewStore reviews = new HashReviewStore();
+
+    // Secondary indexes: reviews of a coffee and duplicate (coffeeName, rating, comment) keys.
+    private static final ReviewIndex index = new ReviewIndex();
     
-    // Monotonic counter to generate unique string IDs.
+    // Rating aggregates of every coffee, updated with the reviews.
+    private static final RatingStats stats = new RatingStats();
+
+    // Full-text index over the comments, for the search endpoint.
+    private static final ReviewSearchIndex search = new ReviewSearchIndex();
+
+    // Monotonic counter to generate unique string IDs: the last id handed out or stored.
     private static final AtomicLong idCounter = new AtomicLong(0);
 
-    // Global "version" of the reviews dataset. Incremented on any change to invalidate caches (ETag changes).
+    // This node hands out the ids i such that (i - 1) % nodeCount == nodeId, see setNode.
+    private static volatile int nodeId = 0;
+    private static volatile int nodeCount = 1;
+
+    // Clock handing out one version per mutation.
+    private static final AtomicLong versionClock = new AtomicLong(0);
+
+    // Global "version" of the reviews dataset, published once a mutation is applied. Used by the unfiltered list.
     private static final AtomicLong dataVersion = new AtomicLong(0);
 
+    // Version of the last mutation in each coffee partition, keyed by lower-cased coffee name.
+    private static final ConcurrentHashMap<String, Long> partitionVersions = new ConcurrentHashMap<>();
+
+    // Serialized GET responses, validated against the current ETag on every hit.
+    private static final ResponseCache responses = new ResponseCache(1024, 32L * 1024 * 1024);
+
+    // Latest change of every review, by version, for the delta sync.
+    private static final ChangeIndex changes = new ChangeIndex();
+
     // Utility class pattern: no instances.
     private ReviewController() {}
 
+    /**
+     * Replaces the review storage, for instance with a {@link CompactReviewStore}. Must be called at startup, before
+     * the stored data is recovered and before the server accepts requests.
+     *
+     * @param store the empty storage to use
+     * @throws IllegalStateException if reviews are already stored
+     */
+    public static void setStore(ReviewStore store) {
+        if (reviews.size() > 0) {
+            throw new IllegalStateException("The review storage can only be replaced while empty");
+        }
+        reviews = store;
+    }
+
+    /**
+     * Sizes the review storage for a bulk load. Must be called at startup, before the stored data is recovered.
+     *
+     * @param count expected number of reviews
+     */
+    public static void reserve(long count) {
+        reviews.reserve((int) Math.min(count, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Sets the position of this node among the nodes handing out review ids. Each node hands out its own residue class
+     * of ids (node 0 of 3 hands out 1, 4, 7..., node 1 hands out 2, 5, 8...), so that two nodes never hand out the
+     * same id, even when one of them has not yet received the reviews created by the other. With a single node, ids
+     * are 1, 2, 3... Must be called at startup.
+     *
+     * @param id    position of this node, from 0 to count - 1
+     * @param count number of nodes, at least 1
+     */
+    public static void setNode(int id, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid value for node-count : " + count);
+        }
+        if (id < 0 || id >= count) {
+            throw new IllegalArgumentException("Invalid value for node-id : " + id + ", expected 0 to " + (count - 1));
+        }
+        nodeId = id;
+        nodeCount = count;
+    }
+
     /**
      * Handles GET /reviews/{id}.
      *
@@ -44,6 +136,9 @@ public class ReviewController {
      */
     public static void getReviewById(Context ctx) {
         String id = ctx.pathParam("id");
+
+        // The version is read before the data: a concurrent write can only make the ETag older, never newer.
+        long version = reviews.version(id);
         Review review = reviews.get(id);
 
         if (review == null) {
@@ -51,52 +146,251 @@ public class ReviewController {
             return;
         }
 
-        // Build an ETag that changes whenever the dataset changes (or the requested scope changes).
-        String etag = buildEtag("review:" + id);
+        // Build an ETag that changes whenever this review changes.
+        String etag = etagOf(id, version);
 
         // If the client already has the latest representation, return 304.
-        if (isNotModified(ctx, etag)) {
+        if (HttpCaching.isNotModified(ctx, etag)) {
             ctx.status(304);
             return;
         }
 
-        // Emit caching headers + response.
-        setCacheHeaders(ctx, etag);
-        ctx.status(200).json(review);
+        // Emit caching headers + response, reusing the serialized body when it is still current.
+        HttpCaching.setCacheHeaders(ctx, etag);
+        ctx.status(200);
+        String key = ResponseCache.key(ctx);
+        if (!responses.serve(ctx, key, etag)) {
+            responses.store(ctx, key, etag, review);
+        }
     }
 
     /**
      * Handles GET /reviews?coffeeName=...
      *
-     * Optional query parameter:
+     * Optional query parameters:
      * - coffeeName: filters reviews by coffee name
+     * - ratingMin, ratingMax: filters reviews on a rating range
+     * - sort: id (default) or rating, prefixed with - for the descending order (see {@link Sort})
+     * - limit, cursor: cursor pagination, in the order of the list (see {@link Page})
+     * - stream=true: streams the JSON array instead of buffering it (see {@link JsonStreaming})
      *
      * Status codes:
      * - 200 always (returns a JSON array, possibly empty)
      * - 304 if client cache is up-to-date (If-None-Match matches ETag)
+     * - 400 if the limit, a rating bound, the order or the cursor is invalid
      *
      * @param ctx Javalin request/response context
      */
     public static void getManyReviews(Context ctx) {
         String coffeeName = ctx.queryParam("coffeeName");
+        Integer ratingMin = ratingParam(ctx, "ratingMin");
+        Integer ratingMax = ratingParam(ctx, "ratingMax");
+        Sort sort = Sort.of(ctx, "id", "rating");
+        Page page = Page.of(ctx);
+        Sort.Position after = sort.by("rating") ? Sort.position(page.after()) : null;
+        JsonStreaming.Mode mode = JsonStreaming.mode(ctx);
+
+        // Scope the ETag to the filter, and version it with the only partition the query reads.
+        long version = (coffeeName == null)
+                ? dataVersion.get()
+                : partitionVersions.getOrDefault(partitionOf(coffeeName), 0L);
+        String etag = HttpCaching.buildEtag("reviews?coffeeName=" + (coffeeName == null ? "" : coffeeName)
+                + "&" + ratingMin + "-" + ratingMax + "&" + sort.scope() + "&" + page.scope() + "&" + mode, version);
+
+        if (HttpCaching.isNotModified(ctx, etag)) {
+            ctx.status(304);
+            return;
+        }
+
+        HttpCaching.setCacheHeaders(ctx, etag);
+        ctx.status(200);
+
+        // The coffee and rating indexes narrow the filters down to the matching reviews, in the order of the list.
+        // The index is case-insensitive, the filter is not, and a review may have been updated since the lookup.
+        // Large scans are resolved in parallel (see ParallelScan).
+        Stream<String> ids = sort.by("rating")
+                ? index.lookupByRating(coffeeName, ratingMin, ratingMax, after, sort.descending())
+                : index.lookup(coffeeName, ratingMin, ratingMax, page.after(), sort.descending());
+        ReviewStore store = reviews;
+        Iterator<Review> matching = ParallelScan.scan(ids.iterator(), id -> {
+            Review r = store.get(id);
+            boolean matches = r != null && (coffeeName == null || r.coffeeName().equals(coffeeName))
+                    && (ratingMin == null || r.rating() >= ratingMin)
+                    && (ratingMax == null || r.rating() <= ratingMax);
+            return matches ? r : null;
+        });
+
+        Function<Review, String> cursor = sort.by("rating") ? r -> Sort.cursor(r.rating(), r.id()) : Review::id;
+        if (mode != JsonStreaming.Mode.NONE) {
+            JsonStreaming.write(ctx, page.stream(ctx, matching, cursor), mode);
+            return;
+        }
+
+        String key = ResponseCache.key(ctx);
+        if (responses.serve(ctx, key, etag)) {
+            return;
+        }
+        List<Review> result = page.collect(ctx, matching, cursor);
+        responses.store(ctx, key, etag, result, Page.NEXT_CURSOR_HEADER);
+    }
+
+    /**
+     * Reads a rating bound of GET /reviews.
+     *
+     * @param ctx Javalin request/response context
+     * @param key name of the query parameter
+     * @return the rating, or null if the parameter is missing
+     * @throws BadRequestResponse if the rating is not an integer in [1:5]
+     */
+    private static Integer ratingParam(Context ctx, String key) {
+        String value = ctx.queryParam(key);
+        if (value == null) return null;
+        try {
+            int rating = Integer.parseInt(value);
+            if (rating >= 1 && rating <= 5) return rating;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new BadRequestResponse("Error : " + key + " should be between 1 and 5");
+    }
+
+    /**
+     * Handles GET /reviews/changes?since=...: delta sync of the reviews.
+     *
+     * Returns the reviews created or updated after the version, and the ids of the reviews deleted after it, deleted
+     * coffees included. Without since, or if the version is no longer in the history, returns every review instead
+     * (full=true). The response holds the version to send as since on the next call (see {@link ChangeIndex}).
+     *
+     * Optional query parameters:
+     * - since: the version returned by the previous call
+     *
+     * Status codes:
+     * - 200 always
+     * - 400 if since is not a number
+     *
+     * @param ctx Javalin request/response context
+     */
+    public static void getReviewChanges(Context ctx) {
+        Long since = ctx.queryParamAsClass("since", Long.class).getOrDefault(null);
+        ctx.status(200).json(changes.since(since, reviews::get, reviews::forEach, Review::id));
+    }
+
+    /**
+     * Handles GET /coffees/{id}/rating: the rating summary of a coffee (number of reviews, sum and average of the
+     * ratings, and number of reviews for each rating from 1 to 5), without listing its reviews.
+     *
+     * Status codes:
+     * - 200 if the coffee exists (with zero counts if it has no review)
+     * - 304 if client cache is up-to-date (If-None-Match matches ETag)
+     * - 404 if the coffee does not exist
+     *
+     * @param ctx Javalin request/response context
+     */
+    public static void getCoffeeRating(Context ctx) {
+        String coffeeName = ctx.pathParam("id");
 
-        // Scope the ETag to the filter, to avoid mixing cache entries.
-        String etag = buildEtag("reviews?coffeeName=" + (coffeeName == null ? "" : coffeeName));
+        // The summary only changes with the reviews of its coffee: version it with the partition.
+        long version = partitionVersions.getOrDefault(partitionOf(coffeeName), 0L);
+        if (!CoffeeController.coffeeExistsByName(coffeeName)) {
+            ctx.status(404).result("Coffee not found");
+            return;
+        }
 
-        if (isNotModified(ctx, etag)) {
+        String etag = HttpCaching.buildEtag("rating:" + partitionOf(coffeeName), version);
+        if (HttpCaching.isNotModified(ctx, etag)) {
             ctx.status(304);
             return;
         }
+        HttpCaching.setCacheHeaders(ctx, etag);
+        ctx.status(200).json(stats.of(coffeeName));
+    }
+
+    /**
+     * Handles GET /ratings/top?n=...&minCount=...: the best rated coffees, by average rating.
+     *
+     * Optional query parameters:
+     * - n: number of coffees to return (1-100, default 10)
+     * - minCount: only rank the coffees with at least that many reviews (default 1)
+     *
+     * Status codes:
+     * - 200 always (returns a JSON array of rating summaries, possibly empty)
+     * - 304 if client cache is up-to-date (If-None-Match matches ETag)
+     * - 400 if n or minCount is invalid
+     *
+     * @param ctx Javalin request/response context
+     */
+    public static void getTopRated(Context ctx) {
+        int n = ctx.queryParamAsClass("n", Integer.class).getOrDefault(10);
+        long minCount = ctx.queryParamAsClass("minCount", Long.class).getOrDefault(1L);
+        if (n < 1 || n > 100) {
+            ctx.status(400).result("Error : n should be between 1 and 100");
+            return;
+        }
+        if (minCount < 1) {
+            ctx.status(400).result("Error : minCount should be at least 1");
+            return;
+        }
+
+        long version = dataVersion.get();
+        String etag = HttpCaching.buildEtag("ratings/top?n=" + n + "&minCount=" + minCount, version);
+        if (HttpCaching.isNotModified(ctx, etag)) {
+            ctx.status(304);
+            return;
+        }
+        HttpCaching.setCacheHeaders(ctx, etag);
+        ctx.status(200).json(stats.top(n, minCount));
+    }
+
+    /**
+     * Handles GET /reviews/search?q=...: full-text search over the review comments, most relevant first.
+     *
+     * The query is split into terms like the comments (case and accents are ignored, see {@link ReviewSearchIndex}),
+     * and a review matches if its comment holds at least one of them. Reviews are ranked with BM25: a rare term counts
+     * more than a common one, and a term counts more in a short comment than in a long one.
+     *
+     * Query parameters:
+     * - q (required): the searched terms
+     * - limit: maximal number of results (1-100, default 10)
+     *
+     * Status codes:
+     * - 200 always (returns a JSON array of {review, score}, possibly empty)
+     * - 304 if client cache is up-to-date (If-None-Match matches ETag)
+     * - 400 if q is missing or holds no term, or if the limit is invalid
+     *
+     * @param ctx Javalin request/response context
+     */
+    public static void searchReviews(Context ctx) {
+        String q = ctx.queryParam("q");
+        int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(10);
+        if (q == null || ReviewSearchIndex.tokenize(q).isEmpty()) {
+            ctx.status(400).result("Error : q should contain at least one word");
+            return;
+        }
+        if (limit < 1 || limit > 100) {
+            ctx.status(400).result("Error : limit should be between 1 and 100");
+            return;
+        }
 
-        // In-memory filtering.
-        List<Review> result = new ArrayList<>();
-        for (Review r : reviews.values()) {
-            if (coffeeName != null && !r.coffeeName().equals(coffeeName)) continue;
-            result.add(r);
+        // Scores depend on every comment (document frequencies, average length): version with the whole dataset.
+        long version = dataVersion.get();
+        String etag = HttpCaching.buildEtag("reviews/search?q=" + q + "&limit=" + limit, version);
+        if (HttpCaching.isNotModified(ctx, etag)) {
+            ctx.status(304);
+            return;
         }
+        HttpCaching.setCacheHeaders(ctx, etag);
+        ctx.status(200);
 
-        setCacheHeaders(ctx, etag);
-        ctx.status(200).json(result);
+        String key = ResponseCache.key(ctx);
+        if (responses.serve(ctx, key, etag)) {
+            return;
+        }
+        List<SearchHit> hits = new ArrayList<>(limit);
+        for (ReviewSearchIndex.Hit hit : search.search(q, limit)) {
+            Review review = reviews.get(hit.id());
+            if (review != null) hits.add(new SearchHit(review, hit.score()));
+        }
+        responses.store(ctx, key, etag, hits);
     }
 
     /**
@@ -120,35 +414,39 @@ public class ReviewController {
     public static void postReview(Context ctx) {
         
         // Validate request body fields.
-        ReviewCreateRequest req = ctx.bodyValidator(ReviewCreateRequest.class)
-                .check(obj -> obj.coffeeName() != null && !obj.coffeeName().isBlank(), "Missing coffeeName")
-                .check(obj -> obj.comment() != null && !obj.comment().isBlank(), "Missing comment")
-                .check(obj -> obj.rating() >= 1 && obj.rating() <= 5, "Rating must be between 1 and 5")
-                .get();
-
-        // A review can only be created for an existing coffee.
-        if (!CoffeeController.coffeeExistsByName(req.coffeeName())) {
-            ctx.status(400).result("Error: coffee does not exist");
-            return;
+        ReviewCreateRequest req = JsonBody.read(ctx, ReviewCreateRequest.class);
+        String error = validate(req.coffeeName(), req.rating(), req.comment(), true);
+        if (error != null) {
+            throw JsonBody.invalid(error, req);
         }
 
-        // Detect duplicates according to the conflict policy.
-        for (Review r : reviews.values()) {
-            if (r.coffeeName().equalsIgnoreCase(req.coffeeName())
-                    && r.rating() == req.rating()
-                    && r.comment().equals(req.comment())) {
-                throw new ConflictResponse("Review already exists");
+        Review created;
+        CompletableFuture<Long> durable;
+        // The lock of the partition keeps the coffee from being deleted between the check and the creation.
+        StripedLocks.Held held = StripedLocks.PARTITIONS.lock(partitionOf(req.coffeeName()));
+        try {
+            // A review can only be created for an existing coffee.
+            if (!CoffeeController.coffeeExistsByName(req.coffeeName())) {
+                ctx.status(400).result("Error: coffee does not exist");
+                return;
             }
-        }
 
-        // Generate an id on the server side.
-        String id = String.valueOf(idCounter.incrementAndGet());
-        Review created = new Review(id, req.coffeeName(), req.rating(), req.comment());
+            // Detect duplicates according to the conflict policy, and persist atomically with the check.
+            created = create(req.coffeeName(), req.rating(), req.comment());
+            if (created == null) {
+                throw new ConflictResponse("Review already exists");
+            }
 
-        // Persist and invalidate caches.
-        reviews.put(id, created);
-        dataVersion.incrementAndGet();
+            // Invalidate caches, then submit the review to the log.
+            publish(created, versionClock.incrementAndGet());
+            durable = Storage.submit(List.of(Mutation.putReview(created)));
+        } finally {
+            held.close();
+        }
 
+        // Wait for the review to be durable once the lock is released.
+        durable.join();
+        ctx.header("ETag", etagOf(created.id(), reviews.version(created.id())));
         ctx.status(201).json(created);
     }
 
@@ -162,10 +460,14 @@ public class ReviewController {
      * Immutable field:
      * - coffeeName is not updated (stays the same as the existing review)
      *
+     * Optional header:
+     * - If-Match: only update the review if its current ETag matches (the ETag returned by GET or by the last write)
+     *
      * Status codes:
      * - 200 if updated
      * - 400 if validation fails
      * - 404 if not found
+     * - 412 if If-Match does not match the current ETag
      *
      * @param ctx Javalin request/response context
      */
@@ -178,17 +480,37 @@ public class ReviewController {
             return;
         }
 
-        ReviewUpdateRequest req = ctx.bodyValidator(ReviewUpdateRequest.class)
-                .check(obj -> obj.comment() != null && !obj.comment().isBlank(), "Missing comment")
-                .check(obj -> obj.rating() >= 1 && obj.rating() <= 5, "Rating must be between 1 and 5")
-                .get();
+        ReviewUpdateRequest req = JsonBody.read(ctx, ReviewUpdateRequest.class);
+        String error = validate(null, req.rating(), req.comment(), false);
+        if (error != null) {
+            throw JsonBody.invalid(error, req);
+        }
 
-        // Only rating/comment are updated. coffeeName remains unchanged.
-        Review updated = new Review(existing.id(), existing.coffeeName(), req.rating(), req.comment());
+        Review updated;
+        CompletableFuture<Long> durable;
+        // coffeeName never changes, so the partition of the review is known before locking it.
+        StripedLocks.Held held = StripedLocks.PARTITIONS.lock(partitionOf(existing.coffeeName()));
+        try {
+            if (!reviews.containsKey(id)) {
+                ctx.status(404).result("Review not found");
+                return;
+            }
+            if (HttpCaching.isPreconditionFailed(ctx, etagOf(id, reviews.version(id)))) {
+                ctx.status(412).result("Review has been modified");
+                return;
+            }
 
-        // Persist and invalidate caches.
-        reviews.put(id, updated);
-        dataVersion.incrementAndGet();
+            // Only rating/comment are updated. coffeeName remains unchanged.
+            updated = new Review(existing.id(), existing.coffeeName(), req.rating(), req.comment());
+
+            // Persist and invalidate caches.
+            storeReview(updated);
+            durable = Storage.submit(List.of(Mutation.putReview(updated)));
+            ctx.header("ETag", etagOf(id, reviews.version(id)));
+        } finally {
+            held.close();
+        }
+        durable.join();
 
         ctx.status(200).json(updated);
     }
@@ -196,64 +518,433 @@ public class ReviewController {
     /**
      * Handles DELETE /reviews/{id}.
      *
+     * Optional header:
+     * - If-Match: only delete the review if its current ETag matches
+     *
      * Status codes:
      * - 204 if deleted
      * - 404 if not found
+     * - 412 if If-Match does not match the current ETag
      *
      * @param ctx Javalin request/response context
      */
     public static void deleteReview(Context ctx) {
         String id = ctx.pathParam("id");
-        Review removed = reviews.remove(id);
-
-        // remove returns null if the key does not exist.
-        if (removed == null) {
+        Review existing = reviews.get(id);
+        if (existing == null) {
             ctx.status(404).result("Review not found");
             return;
         }
 
-        // Any mutation invalidates cached GET responses.
-        dataVersion.incrementAndGet();
+        CompletableFuture<Long> durable;
+        StripedLocks.Held held = StripedLocks.PARTITIONS.lock(partitionOf(existing.coffeeName()));
+        try {
+            // The review may have been deleted since.
+            if (!reviews.containsKey(id)) {
+                ctx.status(404).result("Review not found");
+                return;
+            }
+            if (HttpCaching.isPreconditionFailed(ctx, etagOf(id, reviews.version(id)))) {
+                ctx.status(412).result("Review has been modified");
+                return;
+            }
+            removeReview(id);
+            durable = Storage.submit(List.of(Mutation.deleteReview(id)));
+        } finally {
+            held.close();
+        }
+        durable.join();
         ctx.status(204);
     }
 
     /**
-     * Builds an ETag string for the given scope.
-     * The ETag changes whenever the global data version changes or the scope changes.
+     * Handles POST /reviews/bulk?mode=create|upsert|delete.
+     *
+     * The body holds many reviews, as a JSON array or as NDJSON:
+     * - create (default): coffeeName, rating and comment of new reviews, like POST /reviews;
+     * - upsert: reviews with an id are updated like PUT /reviews/{id}, reviews without an id are created;
+     * - delete: ids of the reviews to delete, like DELETE /reviews/{id}.
      *
-     * @param scope String representing endpoint + filter context
-     * @return quoted ETag value
+     * The whole batch is published with a single version and durably stored with a single append, under the locks of
+     * every coffee partition it writes.
+     *
+     * Status codes:
+     * - 200 with the status of every review (see {@link Bulk.Report})
+     * - 400 if the mode or the body is invalid
+     *
+     * @param ctx Javalin request/response context
      */
-    private static String buildEtag(String scope) {
-        // ETag simple: "v<version>-<scopeHash>"
-        long v = dataVersion.get();
-        int h = scope.hashCode();
-        return "\"v" + v + "-" + h + "\"";
+    public static void bulkReviews(Context ctx) {
+        Bulk.Mode mode = Bulk.mode(ctx);
+        List<Review> items = Bulk.read(ctx, Review.class);
+
+        List<Bulk.ItemResult> results = new ArrayList<>(items.size());
+        List<Mutation> mutations = new ArrayList<>(items.size());
+
+        // Partitions written by the batch: the coffee of the new reviews, the stored coffee of the existing ones.
+        List<String> partitions = new ArrayList<>(items.size());
+        for (Review item : items) {
+            if (item == null) continue;
+            Review existing = (item.id() == null) ? null : reviews.get(item.id());
+            String coffeeName = (existing != null) ? existing.coffeeName() : item.coffeeName();
+            if (coffeeName != null) partitions.add(partitionOf(coffeeName));
+        }
+
+        CompletableFuture<Long> durable = null;
+        StripedLocks.Held held = StripedLocks.PARTITIONS.lock(partitions);
+        try {
+            long version = versionClock.incrementAndGet();
+            for (int i = 0; i < items.size(); i++) {
+                Review item = items.get(i);
+                String invalid = (item == null) ? "Missing review"
+                        : (mode == Bulk.Mode.CREATE && item.id() != null) ? "Unexpected id, ids are generated"
+                        : (mode == Bulk.Mode.DELETE && item.id() == null) ? "Missing id"
+                        : null;
+                if (invalid != null) {
+                    results.add(Bulk.failed(i, 400, invalid));
+                    continue;
+                }
+                boolean create = item.id() == null;
+
+                if (mode == Bulk.Mode.DELETE) {
+                    if (!isLocked(held, item.id()) || removeReview(item.id(), version) == null) {
+                        results.add(Bulk.failed(i, 404, "Review not found"));
+                        continue;
+                    }
+                    mutations.add(Mutation.deleteReview(item.id()));
+                    results.add(Bulk.ok(i, 204, item.id()));
+                    continue;
+                }
+
+                String error = validate(item.coffeeName(), item.rating(), item.comment(), create);
+                if (error != null) {
+                    results.add(Bulk.failed(i, 400, error));
+                    continue;
+                }
+                if (create) {
+                    if (!CoffeeController.coffeeExistsByName(item.coffeeName())) {
+                        results.add(Bulk.failed(i, 400, "Error: coffee does not exist"));
+                        continue;
+                    }
+                    // Duplicates, within the batch or with stored reviews, are caught by the hashed duplicate index.
+                    Review created = create(item.coffeeName(), item.rating(), item.comment());
+                    if (created == null) {
+                        results.add(Bulk.failed(i, 409, "Review already exists"));
+                        continue;
+                    }
+                    track(created, version);
+                    mutations.add(Mutation.putReview(created));
+                    results.add(Bulk.ok(i, 201, created.id()));
+                } else {
+                    Review existing = reviews.get(item.id());
+                    if (existing == null || !isLocked(held, item.id())) {
+                        results.add(Bulk.failed(i, 404, "Review not found"));
+                        continue;
+                    }
+                    // Only rating/comment are updated. coffeeName remains unchanged.
+                    Review updated = new Review(existing.id(), existing.coffeeName(), item.rating(), item.comment());
+                    storeReview(updated, version);
+                    mutations.add(Mutation.putReview(updated));
+                    results.add(Bulk.ok(i, 200, updated.id()));
+                }
+            }
+            if (!mutations.isEmpty()) {
+                publishDataset(version);
+                durable = Storage.submit(mutations);
+            }
+        } finally {
+            held.close();
+        }
+        if (durable != null) durable.join();
+        ctx.status(200).json(Bulk.report(results));
     }
 
     /**
-     * Checks whether the client-provided If-None-Match header matches the current ETag.
+     * Checks that the partition of a stored review is locked by a batch. A review created after the batch collected
+     * its partitions may not be: it is then handled as if it did not exist yet, as when the batch started.
      *
-     * @param ctx Javalin request/response context
-     * @param etag current ETag for this representation
-     * @return true if the server should reply 304 Not Modified
+     * @param held the locks of the batch
+     * @param id   review id
+     * @return true if the review exists and its partition is locked
      */
-    private static boolean isNotModified(Context ctx, String etag) {
-        String inm = ctx.header("If-None-Match");
-        return inm != null && inm.equals(etag);
+    private static boolean isLocked(StripedLocks.Held held, String id) {
+        Review review = reviews.get(id);
+        return review != null && held.covers(partitionOf(review.coffeeName()));
     }
 
-    
     /**
-     * Sets caching headers for conditional GET support.
+     * Checks a review against the rules of POST /reviews (creation) or PUT /reviews/{id} (update), shared with the
+     * bulk requests.
      *
-     * @param ctx Javalin request/response context
-     * @param etag ETag for this representation
+     * @param coffeeName name of the reviewed coffee, only checked for a creation
+     * @param rating     rating of the review
+     * @param comment    comment of the review
+     * @param create     true if the review is to be created
+     * @return the error message, or null if the review is valid
+     */
+    private static String validate(String coffeeName, int rating, String comment, boolean create) {
+        if (create && (coffeeName == null || coffeeName.isBlank())) return "Missing coffeeName";
+        if (comment == null || comment.isBlank()) return "Missing comment";
+        if (rating < 1 || rating > 5) return "Rating must be between 1 and 5";
+        return null;
+    }
+
+    /**
+     * Creates and stores a review with a new id, unless an identical review already exists. The versions are left to
+     * the caller.
+     *
+     * @param coffeeName name of the reviewed coffee
+     * @param rating     rating of the review
+     * @param comment    comment of the review
+     * @return the created review, or null if it is a duplicate
+     */
+    private static Review create(String coffeeName, int rating, String comment) {
+        Review created = index.createIfAbsent(coffeeName, rating, comment, () -> {
+            // Generate an id on the server side.
+            String id = String.valueOf(idCounter.updateAndGet(ReviewController::nextId));
+            Review r = new Review(id, coffeeName, rating, comment);
+            reviews.put(r);
+            return r;
+        });
+        if (created != null) {
+            stats.add(created);
+            search.add(created);
+            changes.put(created.id());
+        }
+        return created;
+    }
+
+    /**
+     * Returns the first id of this node after the last handed out or stored one (see {@link #setNode}).
+     *
+     * @param last the last id
+     * @return the next id
      */
-    private static void setCacheHeaders(Context ctx, String etag) {
-        ctx.header("ETag", etag);
+    private static long nextId(long last) {
+        long id = last + 1;
+        long offset = Math.floorMod(id - 1 - nodeId, (long) nodeCount);
+        return offset == 0 ? id : id + nodeCount - offset;
+    }
 
-        // Cacheable but must revalidate, so clients can use ETag validation.
-        ctx.header("Cache-Control", "private, max-age=0, must-revalidate");
+    /**
+     * Creates or replaces a review in memory, and publishes the new version. Used by PUT (POST goes through the
+     * duplicate check of {@link ReviewIndex#createIfAbsent} instead, the replay of stored mutations through apply).
+     *
+     * @param review the new version of the review
+     */
+    private static void storeReview(Review review) {
+        long version = versionClock.incrementAndGet();
+        storeReview(review, version);
+        publishDataset(version);
+    }
+
+    /**
+     * Creates or replaces a review in memory: storage, indexes, review and partition versions.
+     * The dataset version is left to the caller, so that a batch publishes it once.
+     *
+     * @param review  the new version of the review
+     * @param version version handed out by versionClock for this mutation
+     */
+    private static void storeReview(Review review, long version) {
+        Review previous = reviews.put(review);
+        if (previous == null) {
+            index.add(review);
+            stats.add(review);
+            search.add(review);
+        } else {
+            index.update(previous, review);
+            stats.update(previous, review);
+            search.update(previous, review);
+        }
+        // Ids handed out before a restart must not be handed out again.
+        idCounter.accumulateAndGet(Long.parseLong(review.id()), Math::max);
+        track(review, version);
+        changes.put(review.id());
+    }
+
+    /**
+     * Deletes a review from memory, and publishes the new version.
+     *
+     * @param id review id
+     * @return the deleted review, or null if it did not exist
+     */
+    private static Review removeReview(String id) {
+        long version = versionClock.incrementAndGet();
+        Review removed = removeReview(id, version);
+        if (removed != null) publishDataset(version);
+        return removed;
+    }
+
+    /**
+     * Deletes a review from memory. The dataset version is left to the caller.
+     *
+     * @param id      review id
+     * @param version version handed out by versionClock for this mutation
+     * @return the deleted review, or null if it did not exist
+     */
+    private static Review removeReview(String id, long version) {
+        Review removed = reviews.remove(id);
+        if (removed == null) return null;
+        index.remove(removed);
+        stats.remove(removed);
+        search.remove(removed);
+
+        // Any mutation invalidates the cached GET responses that contain the review.
+        track(removed, version);
+        changes.delete(id);
+        return removed;
+    }
+
+    /**
+     * Applies a review mutation read back from storage.
+     *
+     * @param mutation a REVIEW_PUT, REVIEW_DELETE or REVIEW_ID_WATERMARK mutation
+     */
+    public static void apply(Mutation mutation) {
+        apply(mutation, versionClock.incrementAndGet());
+    }
+
+    /**
+     * Applies a review mutation with a given version, and publishes it. Used by the replication, with the version of
+     * the review on the leader.
+     *
+     * @param mutation a REVIEW_PUT, REVIEW_DELETE or REVIEW_ID_WATERMARK mutation
+     * @param version  the version of the mutation
+     */
+    public static void apply(Mutation mutation, long version) {
+        // The versions handed out later stay above the replicated ones.
+        versionClock.accumulateAndGet(version, Math::max);
+        switch (mutation.kind()) {
+            case REVIEW_PUT -> {
+                storeReview(mutation.review(), version);
+                publishDataset(version);
+            }
+            case REVIEW_DELETE -> {
+                if (removeReview(mutation.key(), version) != null) publishDataset(version);
+                idCounter.accumulateAndGet(Long.parseLong(mutation.key()), Math::max);
+            }
+            case REVIEW_ID_WATERMARK -> idCounter.accumulateAndGet(Long.parseLong(mutation.key()), Math::max);
+            default -> throw new IllegalArgumentException("Not a review mutation: " + mutation.kind());
+        }
+    }
+
+    /**
+     * Returns the version of the review written by a mutation, for the replication.
+     *
+     * @param mutation a review mutation, applied under the lock of the partition of the review
+     * @return the version of the review, or the current version for a deletion or a watermark
+     */
+    public static long versionOf(Mutation mutation) {
+        if (mutation.kind() != Mutation.Kind.REVIEW_PUT) return versionClock.get();
+        return reviews.version(mutation.key());
+    }
+
+    /**
+     * Emits the id counter and every stored review as mutations, for snapshots.
+     *
+     * @param sink receives the mutations
+     */
+    public static void export(Consumer<Mutation> sink) {
+        sink.accept(Mutation.reviewIdWatermark(idCounter.get()));
+        reviews.forEach(review -> sink.accept(Mutation.putReview(review)));
+    }
+
+    /**
+     * Deletes every review of a coffee. Called when the coffee itself is deleted, so that no orphan review remains.
+     *
+     * @param coffeeName name of the deleted coffee (case-insensitive)
+     * @return the number of deleted reviews
+     */
+    public static int deleteReviewsOfCoffee(String coffeeName) {
+        int count = 0;
+        stats.removeCoffee(coffeeName);
+        for (String id : index.removeCoffee(coffeeName)) {
+            Review removed = reviews.remove(id);
+            if (removed == null) continue;
+            index.removeDetached(removed);
+            search.remove(removed);
+            responses.invalidate("/reviews/" + id);
+            changes.delete(id);
+            count++;
+        }
+        if (count > 0) {
+            // The partition is now empty: it reads as version 0 again, like a coffee that never had reviews.
+            partitionVersions.remove(partitionOf(coffeeName));
+            dataVersion.accumulateAndGet(versionClock.incrementAndGet(), Math::max);
+            responses.invalidate("/reviews");
+        }
+        return count;
+    }
+
+    /**
+     * Publishes the version of a mutation on the review, on its coffee partition and on the whole dataset.
+     * Must be called after the mutation has been applied, so a reader never sees a new version with old data.
+     *
+     * @param review  the written review
+     * @param version version handed out by versionClock for this mutation
+     */
+    private static void publish(Review review, long version) {
+        track(review, version);
+        publishDataset(version);
+    }
+
+    /**
+     * Publishes the version of a mutation on the review and on its coffee partition only.
+     *
+     * @param review  the written review
+     * @param version version handed out by versionClock for this mutation
+     */
+    private static void track(Review review, long version) {
+        reviews.setVersion(review.id(), version);
+        partitionVersions.merge(partitionOf(review.coffeeName()), version, Math::max);
+        responses.invalidate("/reviews/" + review.id());
+    }
+
+    /**
+     * Publishes the version of the whole dataset, once every review of a mutation (or of a batch) is applied.
+     *
+     * @param version version handed out by versionClock for the mutation or the batch
+     */
+    private static void publishDataset(long version) {
+        dataVersion.accumulateAndGet(version, Math::max);
+        // The filtered lists are dropped lazily, when their ETag no longer matches.
+        responses.invalidate("/reviews");
+    }
+
+    /**
+     * Registers the number of reviews, the size of the indexes and the response cache in the metrics.
+     */
+    public static void registerMetrics() {
+        Metrics.gauge("brewing_store_entries", "Stored entities", "store=\"reviews\"", reviews::size);
+        for (String name : index.postingCounts().keySet()) {
+            Metrics.gauge("brewing_index_keys", "Distinct keys of the secondary indexes",
+                    "index=\"reviews_by_" + name + "\"", () -> index.postingCounts().get(name));
+        }
+        Metrics.gauge("brewing_index_keys", "Distinct keys of the secondary indexes",
+                "index=\"reviews_by_term\"", search::terms);
+        Metrics.gauge("brewing_index_keys", "Distinct keys of the secondary indexes",
+                "index=\"reviews_by_version\"", changes::size);
+        Metrics.cache("reviews", responses);
+    }
+
+    /**
+     * Builds the ETag of a review, returned by GET /reviews/{id} and expected in the If-Match header of the writes.
+     *
+     * @param id      review id
+     * @param version version of the review
+     * @return the ETag
+     */
+    private static String etagOf(String id, long version) {
+        return HttpCaching.buildEtag("review:" + id, version);
+    }
+
+    /**
+     * Returns the partition of a coffee name. Partitions are case-insensitive, like the coffee names themselves.
+     *
+     * @param coffeeName coffee name
+     * @return partition key
+     */
+    private static String partitionOf(String coffeeName) {
+        return coffeeName.toLowerCase(Locale.ROOT);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,342 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import ch.brewingstand.endpoints.Sort;
+import ch.brewingstand.endpoints.SortedMerge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Secondary indexes over the reviews.
+ *
+ * - byCoffee: coffee name (case-insensitive) -> ids of its reviews, used by GET /reviews?coffeeName= and by the
+ *   cascade when a coffee is deleted.
+ * - byKey: hashed (coffeeName, rating, comment) -> ids of the reviews sharing that content, used by the 409
+ *   duplicate check of POST /reviews. Content is almost always unique, so the ids are a small array replaced on
+ *   write rather than a set per review.
+ * - allIds: every review id, used by the unfiltered GET /reviews.
+ * - byRating and byCoffeeRating: the reviews in (rating, id) order, and in (coffee, rating, id) order, used by the
+ *   rating ranges and the rating order of GET /reviews. A range of ratings is a subset of one of them, found in
+ *   O(log N); in rating order it is read as is, in id order it is the merge of its runs of one rating each (see
+ *   {@link SortedMerge}). A page of k reviews costs O(log N + k) either way.
+ *
+ * Review ids are kept sorted in numeric order ({@link #ID_ORDER}), which gives the lists a stable order to paginate on.
+ * The lower-cased coffee names used as keys are shared by all the reviews of a coffee, and released with its last
+ * review.
+ *
+ * Thread-safety: the duplicate check and the creation of a review happen inside a single ConcurrentHashMap.compute
+ * on the duplicate key, so two identical concurrent POSTs cannot both succeed.
+ */
+public class ReviewIndex {
+
+    /**
+     * Numeric order of the review ids, without parsing them: ids are decimal numbers without leading zeros, so a
+     * shorter id is always a smaller one.
+     */
+    public static final Comparator<String> ID_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    /**
+     * Content of a review as seen by the conflict policy. Coffee names are compared case-insensitively.
+     */
+    private record ReviewKey(String coffeeName, int rating, String comment) {}
+
+    /**
+     * Position of a review in the rating orders. The coffee is the lower-cased coffee name, only compared by
+     * byCoffeeRating; an empty id is before every id of its rating, which makes it the bound of a range.
+     */
+    private record Rated(String partition, int rating, String id) {}
+
+    private static final Comparator<Rated> RATING_ORDER =
+            Comparator.comparingInt(Rated::rating).thenComparing(Rated::id, ID_ORDER);
+    private static final Comparator<Rated> COFFEE_RATING_ORDER =
+            Comparator.comparing(Rated::partition).thenComparing(RATING_ORDER);
+
+    private final ConcurrentHashMap<String, NavigableSet<String>> byCoffee = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ReviewKey, String[]> byKey = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> allIds = new ConcurrentSkipListSet<>(ID_ORDER);
+    // Both hold the same Rated instance of a review.
+    private final ConcurrentSkipListSet<Rated> byRating = new ConcurrentSkipListSet<>(RATING_ORDER);
+    private final ConcurrentSkipListSet<Rated> byCoffeeRating = new ConcurrentSkipListSet<>(COFFEE_RATING_ORDER);
+
+    // Lower-cased names of the coffees having reviews, each one the instance shared by the keys of their reviews. An
+    // entry lives as long as the posting set of byCoffee with the same key: both are added and removed together,
+    // inside a compute on byCoffee.
+    private final ConcurrentHashMap<String, String> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a review only if no review with the same content exists yet.
+     * The creator is called at most once, while the duplicate key is locked, and is expected to store the review.
+     *
+     * @param coffeeName name of the reviewed coffee
+     * @param rating     rating of the review
+     * @param comment    comment of the review
+     * @param creator    builds and stores the new review
+     * @return the created review, or null if an identical review already exists
+     */
+    public Review createIfAbsent(String coffeeName, int rating, String comment, Supplier<Review> creator) {
+        String partition = partitionOf(coffeeName);
+        Review[] created = new Review[1];
+        byKey.compute(new ReviewKey(partition, rating, comment), (k, ids) -> {
+            if (ids != null) return ids;
+            created[0] = creator.get();
+            return new String[] {created[0].id()};
+        });
+        if (created[0] != null) {
+            addToCoffee(created[0], partition);
+        }
+        return created[0];
+    }
+
+    private void addToCoffee(Review review, String partition) {
+        allIds.add(review.id());
+        byCoffee.compute(partition, (k, ids) -> {
+            if (ids == null) {
+                ids = new ConcurrentSkipListSet<>(ID_ORDER);
+                partitions.putIfAbsent(k, k);
+            }
+            ids.add(review.id());
+            return ids;
+        });
+        addRated(review);
+    }
+
+    /**
+     * Indexes a review stored without going through {@link #createIfAbsent}, e.g. replayed from storage.
+     *
+     * @param review the stored review
+     */
+    public void add(Review review) {
+        String partition = partitionOf(review.coffeeName());
+        addContent(new ReviewKey(partition, review.rating(), review.comment()), review.id());
+        addToCoffee(review, partition);
+    }
+
+    /**
+     * Moves a review to its new duplicate key, and to its new rating. The coffee of a review never changes.
+     *
+     * @param previous the review as it is currently indexed
+     * @param updated  the new version of the review
+     */
+    public void update(Review previous, Review updated) {
+        removeContent(keyOf(previous.coffeeName(), previous.rating(), previous.comment()), previous.id());
+        addContent(keyOf(updated.coffeeName(), updated.rating(), updated.comment()), updated.id());
+        if (previous.rating() != updated.rating()) {
+            removeRated(previous);
+            addRated(updated);
+        }
+    }
+
+    /**
+     * Removes a review from every index.
+     *
+     * @param review the review to remove, as it was indexed
+     */
+    public void remove(Review review) {
+        removeContent(keyOf(review.coffeeName(), review.rating(), review.comment()), review.id());
+        byCoffee.computeIfPresent(normalize(review.coffeeName()), (k, ids) -> {
+            ids.remove(review.id());
+            if (!ids.isEmpty()) return ids;
+            // last review of the coffee: its name is no longer shared
+            partitions.remove(k);
+            return null;
+        });
+        removeRated(review);
+        allIds.remove(review.id());
+    }
+
+    /**
+     * Removes a review from the other indexes, used when its coffee posting has already been dropped.
+     *
+     * @param review the review to remove
+     */
+    public void removeDetached(Review review) {
+        removeContent(keyOf(review.coffeeName(), review.rating(), review.comment()), review.id());
+        removeRated(review);
+        allIds.remove(review.id());
+    }
+
+    /**
+     * Returns the ids of the reviews, in numeric order.
+     *
+     * @param coffeeName only return the reviews of this coffee (case-insensitive), or null for every review
+     * @param ratingMin  lowest rating, or null
+     * @param ratingMax  highest rating, or null
+     * @param after      only return ids strictly after this one in the order (pagination cursor), or null
+     * @param descending true for the descending order
+     * @return the ids, sorted
+     */
+    public Stream<String> lookup(String coffeeName, Integer ratingMin, Integer ratingMax, String after,
+                                 boolean descending) {
+        if (ratingMin != null || ratingMax != null) {
+            return lookupRatings(coffeeName, ratingMin, ratingMax, after, descending);
+        }
+        NavigableSet<String> ids = (coffeeName == null) ? allIds : byCoffee.get(normalize(coffeeName));
+        if (ids == null) return Stream.empty();
+        if (descending) ids = ids.descendingSet();
+        return ((after == null) ? ids : ids.tailSet(after, false)).stream();
+    }
+
+    /**
+     * Returns the ids of the reviews of a rating range, in numeric order: the merge of the runs of each rating.
+     */
+    private Stream<String> lookupRatings(String coffeeName, Integer ratingMin, Integer ratingMax, String after,
+                                         boolean descending) {
+        String partition = (coffeeName == null) ? null : normalize(coffeeName);
+        NavigableSet<Rated> set = (coffeeName == null) ? byRating : byCoffeeRating;
+        int high = (ratingMax == null) ? Integer.MAX_VALUE : ratingMax;
+
+        List<Stream<String>> runs = new ArrayList<>();
+        Rated next = set.ceiling(new Rated(partition, (ratingMin == null) ? Integer.MIN_VALUE : ratingMin, ""));
+        while (next != null && next.rating() <= high && (partition == null || partition.equals(next.partition()))) {
+            int rating = next.rating();
+            runs.add(run(set, partition, rating, after, descending));
+            next = (rating == Integer.MAX_VALUE) ? null : set.ceiling(new Rated(partition, rating + 1, ""));
+        }
+        return SortedMerge.merge(runs, descending ? ID_ORDER.reversed() : ID_ORDER);
+    }
+
+    /**
+     * Returns the ids of the reviews of one rating, in numeric order.
+     */
+    private static Stream<String> run(NavigableSet<Rated> set, String partition, int rating, String after,
+                                      boolean descending) {
+        Rated first = new Rated(partition, rating, "");
+        Rated end = new Rated(partition, rating + 1, "");
+        NavigableSet<Rated> run;
+        if (after == null) run = set.subSet(first, true, end, false);
+        else if (descending) run = set.subSet(first, true, new Rated(partition, rating, after), false);
+        else run = set.subSet(new Rated(partition, rating, after), false, end, false);
+        return (descending ? run.descendingSet() : run).stream().map(Rated::id);
+    }
+
+    /**
+     * Returns the ids of the reviews sorted by rating, then in numeric order.
+     *
+     * @param coffeeName only return the reviews of this coffee (case-insensitive), or null for every review
+     * @param ratingMin  lowest rating, or null
+     * @param ratingMax  highest rating, or null
+     * @param after      only return ids strictly after this position in the order (pagination cursor), or null
+     * @param descending true for the descending order
+     * @return the ids, sorted
+     */
+    public Stream<String> lookupByRating(String coffeeName, Integer ratingMin, Integer ratingMax, Sort.Position after,
+                                         boolean descending) {
+        String partition = (coffeeName == null) ? null : normalize(coffeeName);
+        NavigableSet<Rated> set = (coffeeName == null) ? byRating : byCoffeeRating;
+        Comparator<? super Rated> order = set.comparator();
+        // [low, high[ with ids before every other one as bounds: rating MAX_VALUE is never stored.
+        Rated low = new Rated(partition, (ratingMin == null) ? Integer.MIN_VALUE : ratingMin, "");
+        Rated high = new Rated(partition, (ratingMax == null) ? Integer.MAX_VALUE : ratingMax + 1, "");
+        boolean lowInclusive = true;
+        if (after != null) {
+            Rated cursor = new Rated(partition, after.value(), after.key());
+            if (!descending && order.compare(cursor, low) >= 0) {
+                low = cursor;
+                lowInclusive = false;
+            } else if (descending && order.compare(cursor, high) < 0) {
+                high = cursor;
+            }
+        }
+        if (order.compare(low, high) >= 0) return Stream.empty();
+        NavigableSet<Rated> range = set.subSet(low, lowInclusive, high, false);
+        return (descending ? range.descendingSet() : range).stream().map(Rated::id);
+    }
+
+    /**
+     * Detaches the review ids of a coffee from the index.
+     *
+     * @param coffeeName the coffee name (case-insensitive)
+     * @return the ids that were indexed for this coffee, empty if none
+     */
+    public Set<String> removeCoffee(String coffeeName) {
+        List<Set<String>> removed = new ArrayList<>(1);
+        byCoffee.computeIfPresent(normalize(coffeeName), (k, ids) -> {
+            removed.add(ids);
+            partitions.remove(k);
+            return null;
+        });
+        return removed.isEmpty() ? Set.of() : removed.get(0);
+    }
+
+    /**
+     * Returns the number of keys of each index, for the metrics.
+     *
+     * @return index name -> number of posting sets
+     */
+    public Map<String, Integer> postingCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("coffee", byCoffee.size());
+        counts.put("content", byKey.size());
+        return counts;
+    }
+
+    private void addRated(Review review) {
+        Rated rated = new Rated(partitionOf(review.coffeeName()), review.rating(), review.id());
+        byRating.add(rated);
+        byCoffeeRating.add(rated);
+    }
+
+    private void removeRated(Review review) {
+        Rated rated = new Rated(normalize(review.coffeeName()), review.rating(), review.id());
+        byRating.remove(rated);
+        byCoffeeRating.remove(rated);
+    }
+
+    private static String normalize(String coffeeName) {
+        return coffeeName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Normalizes the coffee name of a stored review, sharing the result with the other reviews of the coffee.
+     */
+    private String partitionOf(String coffeeName) {
+        String partition = normalize(coffeeName);
+        String known = partitions.get(partition);
+        return (known != null) ? known : partition;
+    }
+
+    /**
+     * Builds the duplicate key of the content of a stored (or about to be stored) review.
+     */
+    private ReviewKey keyOf(String coffeeName, int rating, String comment) {
+        return new ReviewKey(partitionOf(coffeeName), rating, comment);
+    }
+
+    private void addContent(ReviewKey key, String id) {
+        byKey.compute(key, (k, ids) -> {
+            if (ids == null) return new String[] {id};
+            for (String known : ids) {
+                if (known.equals(id)) return ids;
+            }
+            String[] grown = Arrays.copyOf(ids, ids.length + 1);
+            grown[ids.length] = id;
+            return grown;
+        });
+    }
+
+    private void removeContent(ReviewKey key, String id) {
+        byKey.computeIfPresent(key, (k, ids) -> {
+            for (int i = 0; i < ids.length; i++) {
+                if (!ids[i].equals(id)) continue;
+                if (ids.length == 1) return null;
+                String[] shrunk = new String[ids.length - 1];
+                System.arraycopy(ids, 0, shrunk, 0, i);
+                System.arraycopy(ids, i + 1, shrunk, i, ids.length - i - 1);
+                return shrunk;
+            }
+            return ids;
+        });
+    }
+}
@@ -0,0 +1,298 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text index over the review comments, ranked with BM25.
+ *
+ * - postings: term -> (review id -> number of occurrences of the term in the comment). Most terms only appear in a
+ *   single comment (numbers, typos, names): their posting is a single {@link Posting} instead of a map;
+ * - lengths: review id -> number of terms of the comment, with the total used for the average length.
+ *
+ * Comments are split on anything that is not a letter or a digit, lower-cased and stripped of their accents, so that
+ * "Chocolaté" and "chocolate" are the same term.
+ *
+ * A search only reads the postings of the query terms: the reviews sharing no term with the query are never scored,
+ * and the k best ones are kept in a bounded heap instead of sorting every match. The terms are read rarest first, and
+ * the postings of the common ones are skipped once they cannot change the k best (MaxScore, see {@link #search}).
+ *
+ * Thread-safety: the maps are concurrent and updated per review. A search running during a write may see the review
+ * in some postings and not yet in others, which can only affect its score in that search.
+ */
+public class ReviewSearchIndex {
+
+    // BM25 parameters: term frequency saturation and length normalization (usual defaults).
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /**
+     * A matching review and its relevance.
+     *
+     * @param id    review id
+     * @param score BM25 score, higher is more relevant
+     */
+    public record Hit(String id, double score) {}
+
+    /**
+     * Posting of a term found in a single comment.
+     *
+     * @param id review id
+     * @param tf occurrences of the term in the comment
+     */
+    private record Posting(String id, int tf) {}
+
+    // Values are a Posting, or a ConcurrentHashMap<String, Integer> once a term is found in several comments. Both are
+    // only replaced or modified inside a compute on the term.
+    private final ConcurrentHashMap<String, Object> postings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> lengths = new ConcurrentHashMap<>();
+    private final AtomicLong totalLength = new AtomicLong();
+
+    /**
+     * Indexes the comment of a review.
+     *
+     * @param review the review
+     */
+    public void add(Review review) {
+        Map<String, Integer> terms = termFrequencies(review.comment());
+        int length = 0;
+        for (Map.Entry<String, Integer> term : terms.entrySet()) {
+            int tf = term.getValue();
+            postings.compute(term.getKey(), (t, posting) -> {
+                if (posting == null) return new Posting(review.id(), tf);
+                if (posting instanceof Posting single) {
+                    if (single.id().equals(review.id())) return new Posting(review.id(), tf);
+                    ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>(4);
+                    ids.put(single.id(), single.tf());
+                    posting = ids;
+                }
+                ids(posting).put(review.id(), tf);
+                return posting;
+            });
+            length += tf;
+        }
+        Integer previous = lengths.put(review.id(), length);
+        totalLength.addAndGet(length - (previous == null ? 0 : previous));
+    }
+
+    /**
+     * Removes the comment of a review from the index.
+     *
+     * @param review the review, as it was indexed
+     */
+    public void remove(Review review) {
+        for (String term : termFrequencies(review.comment()).keySet()) {
+            postings.computeIfPresent(term, (t, posting) -> {
+                if (posting instanceof Posting single) return single.id().equals(review.id()) ? null : single;
+                ConcurrentHashMap<String, Integer> ids = ids(posting);
+                ids.remove(review.id());
+                if (ids.size() != 1) return ids.isEmpty() ? null : ids;
+                // back to a single comment
+                Map.Entry<String, Integer> last = ids.entrySet().iterator().next();
+                return new Posting(last.getKey(), last.getValue());
+            });
+        }
+        Integer length = lengths.remove(review.id());
+        if (length != null) totalLength.addAndGet(-length);
+    }
+
+    /**
+     * Re-indexes a review whose comment may have changed.
+     *
+     * @param previous the review as it was indexed
+     * @param updated  the new version of the review
+     */
+    public void update(Review previous, Review updated) {
+        if (previous.comment().equals(updated.comment())) return;
+        remove(previous);
+        add(updated);
+    }
+
+    /**
+     * Returns the reviews best matching a query. A review matches if its comment holds at least one term of the query.
+     *
+     * @param query the query, tokenized like the comments
+     * @param k     maximal number of results
+     * @return the matching reviews, most relevant first (ties by id), empty if the query holds no term
+     */
+    public List<Hit> search(String query, int k) {
+        long documents = lengths.size();
+        if (documents == 0) return List.of();
+        double averageLength = Math.max(1.0, (double) totalLength.get() / documents);
+
+        // Rarest terms first: they have the highest upper bounds, and usually the shortest postings.
+        List<Term> terms = new ArrayList<>();
+        for (String term : tokenize(query)) {
+            Object posting = postings.get(term);
+            if (posting != null) terms.add(new Term(posting, idf(documents, df(posting))));
+        }
+        terms.sort(Comparator.comparingDouble(Term::bound).reversed());
+        // remaining[i]: the most the terms i and after can add to a score.
+        double[] remaining = new double[terms.size() + 1];
+        for (int i = terms.size() - 1; i >= 0; i--) remaining[i] = remaining[i + 1] + terms.get(i).bound();
+
+        // Term at a time, with MaxScore pruning. The scores accumulated so far only grow, so the k-th best one is a
+        // lower bound of the final k-th best score. Once the terms left cannot lift a review absent from the scores
+        // above it, their postings are no longer walked: only the reviews already scored are probed, and dropped when
+        // even the terms left cannot lift them above it.
+        Map<String, Double> scores = new HashMap<>();
+        double threshold = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            Term term = terms.get(i);
+            if (scores.size() >= k && remaining[i] < threshold) {
+                Iterator<Map.Entry<String, Double>> candidates = scores.entrySet().iterator();
+                while (candidates.hasNext()) {
+                    Map.Entry<String, Double> candidate = candidates.next();
+                    if (candidate.getValue() + remaining[i] < threshold) {
+                        candidates.remove();
+                        continue;
+                    }
+                    int tf = term.tf(candidate.getKey());
+                    if (tf > 0) {
+                        candidate.setValue(candidate.getValue()
+                                + weight(candidate.getKey(), tf, term.idf(), averageLength));
+                    }
+                }
+            } else if (term.posting() instanceof Posting single) {
+                score(scores, single.id(), single.tf(), term.idf(), averageLength);
+            } else {
+                for (Map.Entry<String, Integer> entry : ids(term.posting()).entrySet()) {
+                    score(scores, entry.getKey(), entry.getValue(), term.idf(), averageLength);
+                }
+            }
+            if (scores.size() >= k) threshold = kthBest(scores, k);
+        }
+
+        // Keep the k best in a min-heap, whose head is the weakest of the current best.
+        Comparator<Hit> order = Comparator.comparingDouble(Hit::score)
+                .thenComparing(Hit::id, Collections.reverseOrder(ReviewIndex.ID_ORDER));
+        PriorityQueue<Hit> best = new PriorityQueue<>(Math.min(k, Math.max(1, scores.size())), order);
+        for (Map.Entry<String, Double> score : scores.entrySet()) {
+            Hit hit = new Hit(score.getKey(), score.getValue());
+            if (best.size() < k) {
+                best.add(hit);
+            } else if (order.compare(hit, best.peek()) > 0) {
+                best.poll();
+                best.add(hit);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(order.reversed());
+        return hits;
+    }
+
+    /**
+     * A term of a query.
+     *
+     * @param posting its posting, a {@link Posting} or a map
+     * @param idf     its inverse document frequency
+     */
+    private record Term(Object posting, double idf) {
+
+        /**
+         * @return the most the term can add to the score of a review: its weight tends to idf * (K1 + 1) as the
+         * number of occurrences grows
+         */
+        double bound() {
+            return idf * (K1 + 1);
+        }
+
+        /**
+         * @param id a review id
+         * @return occurrences of the term in the comment of the review, 0 if none
+         */
+        int tf(String id) {
+            if (posting instanceof Posting single) return single.id().equals(id) ? single.tf() : 0;
+            Integer tf = ids(posting).get(id);
+            return tf == null ? 0 : tf;
+        }
+    }
+
+    private static int df(Object posting) {
+        return posting instanceof Posting ? 1 : ids(posting).size();
+    }
+
+    /**
+     * @return the k-th best score, scores holding at least k of them
+     */
+    private static double kthBest(Map<String, Double> scores, int k) {
+        PriorityQueue<Double> best = new PriorityQueue<>(k);
+        for (double score : scores.values()) {
+            if (best.size() < k) {
+                best.add(score);
+            } else if (score > best.peek()) {
+                best.poll();
+                best.add(score);
+            }
+        }
+        return best.peek();
+    }
+
+    private static double idf(long documents, int df) {
+        return Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+    }
+
+    private void score(Map<String, Double> scores, String id, int tf, double idf, double averageLength) {
+        double weight = weight(id, tf, idf, averageLength);
+        if (weight > 0) scores.merge(id, weight, Double::sum);
+    }
+
+    /**
+     * @return the BM25 weight of a term in the comment of a review, 0 if the review was removed since
+     */
+    private double weight(String id, int tf, double idf, double averageLength) {
+        Integer length = lengths.get(id);
+        if (length == null) return 0;
+        double norm = tf + K1 * (1 - B + B * length / averageLength);
+        return idf * tf * (K1 + 1) / norm;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<String, Integer> ids(Object posting) {
+        return (ConcurrentHashMap<String, Integer>) posting;
+    }
+
+    /**
+     * @return the number of distinct terms in the index
+     */
+    public int terms() {
+        return postings.size();
+    }
+
+    /**
+     * Splits a text into its distinct terms.
+     *
+     * @param text the text
+     * @return the terms, in order of first occurrence
+     */
+    public static Set<String> tokenize(String text) {
+        return termFrequencies(text).keySet();
+    }
+
+    private static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        if (text == null) return terms;
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        for (String token : SEPARATORS.split(folded)) {
+            if (!token.isEmpty()) terms.merge(token, 1, Integer::sum);
+        }
+        return terms;
+    }
+}
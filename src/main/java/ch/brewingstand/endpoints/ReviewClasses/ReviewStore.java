@@ -0,0 +1,75 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import java.util.function.Consumer;
+
+/**
+ * Primary storage of the reviews and of their versions, keyed by review id.
+ *
+ * - {@link HashReviewStore}: a ConcurrentHashMap, the default;
+ * - {@link CompactReviewStore}: long-keyed open addressing, for catalogs of millions of reviews.
+ *
+ * Implementations are thread-safe. Lookups must not allocate: they are on the path of every read.
+ */
+public interface ReviewStore {
+
+    /**
+     * @param id review id
+     * @return the review, or null if there is none with this id
+     */
+    Review get(String id);
+
+    /**
+     * @param id review id
+     * @return true if a review has this id
+     */
+    boolean containsKey(String id);
+
+    /**
+     * Creates or replaces a review.
+     *
+     * @param review the review, whose id is a server-generated decimal number
+     * @return the replaced review, or null if there was none
+     */
+    Review put(Review review);
+
+    /**
+     * @param id review id
+     * @return the removed review, or null if there was none
+     */
+    Review remove(String id);
+
+    /**
+     * @param id review id
+     * @return the version of the last mutation of the review, or 0 if there is no review with this id
+     */
+    long version(String id);
+
+    /**
+     * Records the version of the last mutation of a stored review. Does nothing if no review has this id: the version
+     * of a review goes with it. The writes of a review are serialized by the caller (lock of its coffee partition).
+     *
+     * @param id      review id
+     * @param version version of the mutation
+     */
+    void setVersion(String id, long version);
+
+    /**
+     * Sizes the storage for a number of reviews, so that loading them does not grow it step by step. Called at startup,
+     * before the stored data is recovered.
+     *
+     * @param reviews expected number of reviews
+     */
+    void reserve(int reviews);
+
+    /**
+     * @return the number of reviews
+     */
+    int size();
+
+    /**
+     * Visits every review. Weakly consistent: reviews written during the visit may or may not be visited.
+     *
+     * @param visitor receives the reviews
+     */
+    void forEach(Consumer<Review> visitor);
+}
@@ -0,0 +1,9 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+/**
+ * A result of the review search (GET /reviews/search).
+ *
+ * @param review The matching review.
+ * @param score  Relevance of the review for the query (BM25), higher is more relevant.
+ */
+public record SearchHit(Review review, double score) {}
@@ -0,0 +1,92 @@
+package ch.brewingstand.endpoints;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Sort parameter of the list endpoints: sort=field for the ascending order, sort=-field for the descending one.
+ *
+ * Lists sorted on their key (coffee name, review id) keep the key as their cursor (see {@link Page}). Lists sorted on
+ * another field are sorted on that field, then on the key: their cursor is the position of the last item of the
+ * page, "value:key" (for instance "4:1287" for the review 1287 rated 4), see {@link #cursor} and {@link #position}.
+ * The descending order is the ascending one reversed, ties included.
+ *
+ * @param field      sorted field
+ * @param descending true for the descending order
+ */
+public record Sort(String field, boolean descending) {
+
+    /**
+     * Position of an item in a list sorted on a field other than its key.
+     *
+     * @param value value of the sorted field
+     * @param key   key of the item
+     */
+    public record Position(int value, String key) {}
+
+    /**
+     * Reads the sort query parameter.
+     *
+     * @param ctx    Javalin request/response context
+     * @param fields the fields the list can be sorted on, the first one being its key and the default order
+     * @return the requested order
+     * @throws BadRequestResponse if the field is not one of the given ones
+     */
+    public static Sort of(Context ctx, String... fields) {
+        String sort = ctx.queryParam("sort");
+        if (sort == null || sort.isEmpty()) return new Sort(fields[0], false);
+        boolean descending = sort.charAt(0) == '-';
+        String field = descending ? sort.substring(1) : sort;
+        for (String known : fields) {
+            if (known.equals(field)) return new Sort(known, descending);
+        }
+        throw new BadRequestResponse("Error : sort should be one of " + String.join(", ", fields)
+                + ", optionally prefixed with -");
+    }
+
+    /**
+     * @param field a field
+     * @return true if the list is sorted on this field
+     */
+    public boolean by(String field) {
+        return this.field.equals(field);
+    }
+
+    /**
+     * Identifies the order in ETag scopes.
+     *
+     * @return the sort parameter, as sent by the client
+     */
+    public String scope() {
+        return descending ? "-" + field : field;
+    }
+
+    /**
+     * Builds the cursor of an item in a list sorted on a field other than its key.
+     *
+     * @param value value of the sorted field
+     * @param key   key of the item
+     * @return the cursor, "value:key"
+     */
+    public static String cursor(int value, String key) {
+        return value + ":" + key;
+    }
+
+    /**
+     * Reads a cursor built by {@link #cursor}.
+     *
+     * @param cursor the cursor, or null for the first page
+     * @return the position after which the page starts, or null for the first page
+     * @throws BadRequestResponse if the cursor is not of the form "value:key"
+     */
+    public static Position position(String cursor) {
+        if (cursor == null) return null;
+        int colon = cursor.indexOf(':');
+        try {
+            if (colon > 0) return new Position(Integer.parseInt(cursor, 0, colon, 10), cursor.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new BadRequestResponse("Error : the cursor of a sorted list should be of the form value:key");
+    }
+}
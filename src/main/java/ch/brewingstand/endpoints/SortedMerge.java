@@ -0,0 +1,82 @@
+package ch.brewingstand.endpoints;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy merge of sorted runs into a single sorted stream.
+ *
+ * The ordered indexes keep one run per value of a field (the coffees of an intensity, the reviews of a rating), each
+ * sorted on the key. A range of values sorted on the key is the merge of its runs: each item costs a comparison with
+ * the heads of the other runs, and only the items actually consumed (a page) are read from the runs.
+ */
+public final class SortedMerge {
+
+    // Utility class pattern: no instances.
+    private SortedMerge() {}
+
+    /**
+     * Merges sorted runs.
+     *
+     * @param runs  the runs, each sorted in the given order
+     * @param order order of the runs and of the result
+     * @param <T>   item type
+     * @return the items of every run, in the given order
+     */
+    public static <T> Stream<T> merge(List<Stream<T>> runs, Comparator<? super T> order) {
+        if (runs.isEmpty()) return Stream.empty();
+        if (runs.size() == 1) return runs.get(0);
+        Iterator<T> merged = new Merged<>(runs, order);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * Head of a run, ordered by its item.
+     */
+    private static final class Head<T> {
+        final Iterator<T> run;
+        T item;
+
+        Head(Iterator<T> run) {
+            this.run = run;
+            this.item = run.next();
+        }
+    }
+
+    private static final class Merged<T> implements Iterator<T> {
+
+        private final PriorityQueue<Head<T>> heads;
+
+        Merged(List<Stream<T>> runs, Comparator<? super T> order) {
+            heads = new PriorityQueue<>(runs.size(), (a, b) -> order.compare(a.item, b.item));
+            for (Stream<T> run : runs) {
+                Iterator<T> items = run.iterator();
+                if (items.hasNext()) heads.add(new Head<>(items));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) throw new NoSuchElementException();
+            T item = head.item;
+            if (head.run.hasNext()) {
+                head.item = head.run.next();
+                heads.add(head);
+            }
+            return item;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ch.brewingstand.endpoints;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, each key being guarded by the lock of its stripe (the key hash modulo the number of stripes).
+ * Writers of unrelated keys rarely wait for each other, without a lock per key to create and reclaim.
+ *
+ * The controllers lock the partition of a coffee (its lower-cased name, see {@link #PARTITIONS}) around every compound
+ * update of the coffee or of its reviews: the checks, the in-memory update and the submission to the storage log run
+ * as one step, so that two writers of the same coffee can neither interleave nor reach the log in a different order
+ * than they reached memory. Waiting for the log to be durable happens after the lock is released.
+ *
+ * Locks are ReentrantLocks rather than monitors, so that a virtual thread waiting for one does not pin its carrier.
+ */
+public final class StripedLocks {
+
+    /**
+     * Locks of the coffee partitions, shared by the coffee and review controllers: a coffee and its reviews are
+     * guarded by the same stripe, so a review cannot be added to a coffee being deleted.
+     */
+    public static final StripedLocks PARTITIONS = new StripedLocks(256);
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * @param stripes number of stripes, a power of two
+     */
+    public StripedLocks(int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes should be a power of two : " + stripes);
+        }
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Acquires the lock of a key.
+     *
+     * @param key the key, already normalized by the caller
+     * @return the held lock, to release with {@link Held#close()} in a finally block
+     */
+    public Held lock(String key) {
+        int stripe = stripeOf(key);
+        locks[stripe].lock();
+        return new Held(new int[] {stripe});
+    }
+
+    /**
+     * Acquires the locks of many keys, in stripe order so that two batches cannot deadlock.
+     *
+     * @param keys the keys, already normalized by the caller
+     * @return the held locks, to release with {@link Held#close()} in a finally block
+     */
+    public Held lock(Collection<String> keys) {
+        boolean[] needed = new boolean[locks.length];
+        int count = 0;
+        for (String key : keys) {
+            int stripe = stripeOf(key);
+            if (!needed[stripe]) {
+                needed[stripe] = true;
+                count++;
+            }
+        }
+        int[] stripes = new int[count];
+        for (int i = 0, j = 0; i < needed.length; i++) {
+            if (needed[i]) stripes[j++] = i;
+        }
+        int acquired = 0;
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                acquired++;
+            }
+        } finally {
+            // only reached early if lock() throws: release what was taken
+            if (acquired < stripes.length) {
+                for (int i = acquired - 1; i >= 0; i--) locks[stripes[i]].unlock();
+            }
+        }
+        return new Held(stripes);
+    }
+
+    private int stripeOf(String key) {
+        int h = key.hashCode();
+        // spread the high bits, the stripe only uses the low ones
+        return (h ^ (h >>> 16)) & (locks.length - 1);
+    }
+
+    /**
+     * Locks acquired by {@link #lock}, released when closed.
+     */
+    public final class Held implements AutoCloseable {
+        private final int[] stripes;
+
+        private Held(int[] stripes) {
+            this.stripes = stripes;
+        }
+
+        /**
+         * @param key a key, normalized like the locked keys
+         * @return true if the lock of the key is held
+         */
+        public boolean covers(String key) {
+            int stripe = stripeOf(key);
+            for (int held : stripes) {
+                if (held == stripe) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Releases the locks, in reverse order of acquisition.
+         */
+        @Override
+        public void close() {
+            for (int i = stripes.length - 1; i >= 0; i--) locks[stripes[i]].unlock();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package ch.brewingstand.feed;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One event of the change feed (GET /changes).
+ *
+ * @param seq    Position in the feed, increasing by one with every event.
+ * @param entity "coffee" or "review".
+ * @param op     "put" (created or updated) or "delete". Deleting a coffee also deletes its reviews, without an event
+ *               for each of them.
+ * @param id     Name of the coffee, or id of the review.
+ * @param value  The new coffee or review for a put, absent for a delete.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChangeEvent(long seq, String entity, String op, String id, Object value) {
+
+    /**
+     * @return the key of the changed entity, shared by all its events
+     */
+    String key() {
+        return entity + ':' + id;
+    }
+}
@@ -0,0 +1,292 @@
+package ch.brewingstand.feed;
+
+import ch.brewingstand.metrics.Metrics;
+import ch.brewingstand.storage.Mutation;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import io.javalin.http.sse.SseHandler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Change feed: GET /changes streams the creations, updates and deletions of coffees and reviews as Server-Sent Events,
+ * so that clients can follow the dataset instead of polling the lists.
+ *
+ * - Every mutation submitted to the storage layer becomes an event (see {@link ch.brewingstand.storage.Storage}), once
+ *   it is visible to the readers. The events of a coffee or a review are in the order of its changes. Events are
+ *   numbered by a sequence increasing by one.
+ * - The last events are kept in a bounded ring buffer. A client resumes after the last event it received with the
+ *   Last-Event-ID header (sent by EventSource when it reconnects) or the since query parameter. If that event is no
+ *   longer in the buffer, or was sent before the server restarted, the client first receives a "reset" event: it must
+ *   reload the lists, then apply the events that follow.
+ * - Each client is served by its own virtual thread, reading the buffer from its own position, so a slow client never
+ *   delays the writers nor the other clients. When a client falls behind by more than a few hundred events, the pending
+ *   events are coalesced: only the last event of each coffee and review is sent (coffee deletions are always kept, as
+ *   they also delete reviews). The state is consistent again once the coalesced batch is applied.
+ * - A comment is sent every 15 seconds without events, so that idle connections are not closed.
+ *
+ * Event format: "id: &lt;epoch&gt;-&lt;seq&gt;", "event: change", and the {@link ChangeEvent} as JSON data. The epoch
+ * identifies the server process, as sequences start over with it.
+ */
+public final class ChangeFeed {
+
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    // Number of pending events from which a client is considered late, and its events coalesced.
+    private static final int COALESCE_THRESHOLD = 256;
+    // Prefix of the event ids, unique per server process.
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    private static final SseHandler SSE = new SseHandler(ChangeFeed::subscribe);
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition appended = lock.newCondition();
+    // Event of sequence s is at ring[s & (ring.length - 1)]. Guarded by lock.
+    private static ChangeEvent[] ring = new ChangeEvent[1 << 17];
+    // Sequence of the next event. Guarded by lock.
+    private static long next = 1;
+
+    private static final AtomicInteger subscribers = new AtomicInteger();
+    private static final LongAdder published = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder resets = new LongAdder();
+
+    // Utility class pattern: no instances.
+    private ChangeFeed() {}
+
+    /**
+     * Sets the number of events kept for resuming clients. Must be called at startup, before any event is published.
+     *
+     * @param capacity number of events, a power of two
+     */
+    public static void setCapacity(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Invalid value for feed-buffer : " + capacity
+                    + ", expected a power of two");
+        }
+        lock.lock();
+        try {
+            ring = new ChangeEvent[capacity];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes submitted mutations as events. Called by the storage layer.
+     *
+     * @param mutations the mutations, already applied in memory
+     */
+    public static void publish(List<Mutation> mutations) {
+        lock.lock();
+        try {
+            for (Mutation mutation : mutations) {
+                ChangeEvent event = switch (mutation.kind()) {
+                    case COFFEE_PUT -> new ChangeEvent(next, "coffee", "put", mutation.key(), mutation.coffee());
+                    case COFFEE_DELETE -> new ChangeEvent(next, "coffee", "delete", mutation.key(), null);
+                    case REVIEW_PUT -> new ChangeEvent(next, "review", "put", mutation.key(), mutation.review());
+                    case REVIEW_DELETE -> new ChangeEvent(next, "review", "delete", mutation.key(), null);
+                    case REVIEW_ID_WATERMARK -> null;
+                };
+                if (event == null) continue;
+                ring[(int) (next & (ring.length - 1))] = event;
+                next++;
+                published.increment();
+            }
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles GET /changes: subscribes the client to the feed.
+     *
+     * Optional parameters:
+     * - Last-Event-ID header or since query parameter: id of the last event received, the feed resumes after it.
+     *   Without them, the feed starts with the next event.
+     * - entity: only stream the events of "coffee" or of "review"
+     *
+     * Status codes:
+     * - 200 with the stream of events
+     * - 400 if a parameter is invalid
+     *
+     * @param ctx Javalin request/response context
+     */
+    public static void handle(Context ctx) throws Exception {
+        String entity = ctx.queryParam("entity");
+        if (entity != null && !entity.equals("coffee") && !entity.equals("review")) {
+            ctx.status(400).result("Error : entity should be coffee or review");
+            return;
+        }
+        String resume = ctx.header("Last-Event-ID");
+        if (resume == null) resume = ctx.queryParam("since");
+        long after;
+        if (resume == null) {
+            after = last();
+        } else {
+            int dash = resume.lastIndexOf('-');
+            try {
+                long seq = Long.parseLong(resume.substring(dash + 1).trim());
+                // from another server process, or ahead of this one: the client has to start over
+                boolean current = dash > 0 && resume.substring(0, dash).trim().equals(EPOCH) && seq <= last();
+                after = current ? seq : -1;
+            } catch (NumberFormatException e) {
+                ctx.status(400).result("Error : since should be the id of an event");
+                return;
+            }
+        }
+        ctx.attribute("feed.after", after);
+        SSE.handle(ctx);
+    }
+
+    private static void subscribe(SseClient client) {
+        long after = client.ctx().attribute("feed.after");
+        String entity = client.ctx().queryParam("entity");
+        client.keepAlive();
+        Thread sender = Thread.ofVirtual().name("change-feed").unstarted(() -> stream(client, after, entity));
+        client.onClose(sender::interrupt);
+        sender.start();
+    }
+
+    /**
+     * Sends the events to a client until it disconnects.
+     *
+     * @param after sequence of the last event the client has, -1 if it has to start over
+     */
+    private static void stream(SseClient client, long after, String entity) {
+        subscribers.incrementAndGet();
+        long cursor = after;
+        try {
+            if (cursor < 0) cursor = reset(client);
+            while (!client.terminated()) {
+                if (!await(cursor)) {
+                    client.sendComment("keep-alive");
+                    continue;
+                }
+                List<ChangeEvent> events = readAfter(cursor);
+                if (events == null) {
+                    // The client is further behind than the buffer: it has to start over from the current state.
+                    cursor = reset(client);
+                    continue;
+                }
+                cursor = events.get(events.size() - 1).seq();
+                if (events.size() > COALESCE_THRESHOLD) {
+                    int pending = events.size();
+                    events = coalesce(events);
+                    coalesced.add(pending - events.size());
+                }
+                for (ChangeEvent event : events) {
+                    if (entity != null && !entity.equals(event.entity())) continue;
+                    client.sendEvent("change", event, EPOCH + "-" + event.seq());
+                    if (client.terminated()) break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the client disconnected
+        } finally {
+            subscribers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Tells a client to reload the data, and to apply the events from the current one.
+     *
+     * @return the sequence of the current event, where the client starts over
+     */
+    private static long reset(SseClient client) {
+        resets.increment();
+        long seq = last();
+        client.sendEvent("reset", Map.of("seq", seq), EPOCH + "-" + seq);
+        return seq;
+    }
+
+    /**
+     * @return the sequence of the last published event, 0 if there is none
+     */
+    private static long last() {
+        lock.lock();
+        try {
+            return next - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for an event after a sequence, for at most the heartbeat period.
+     *
+     * @return true if there is one
+     */
+    private static boolean await(long after) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS);
+        lock.lock();
+        try {
+            while (next - 1 <= after) {
+                if (nanos <= 0) return false;
+                nanos = appended.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the events after a sequence.
+     *
+     * @return the events, or null if some of them are no longer in the buffer
+     */
+    private static List<ChangeEvent> readAfter(long after) {
+        lock.lock();
+        try {
+            long oldest = Math.max(1, next - ring.length);
+            if (after + 1 < oldest) return null;
+            List<ChangeEvent> events = new ArrayList<>((int) (next - after - 1));
+            for (long seq = after + 1; seq < next; seq++) {
+                events.add(ring[(int) (seq & (ring.length - 1))]);
+            }
+            return events;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the last event of each entity, in sequence order. Coffee deletions are all kept, in place: they also delete
+     * the reviews of the coffee, which a later event of the same name must not undo.
+     */
+    private static List<ChangeEvent> coalesce(List<ChangeEvent> events) {
+        Map<String, ChangeEvent> latest = new HashMap<>();
+        List<ChangeEvent> kept = new ArrayList<>();
+        for (ChangeEvent event : events) {
+            if (event.entity().equals("coffee") && event.op().equals("delete")) {
+                kept.add(event);
+            } else {
+                latest.put(event.key(), event);
+            }
+        }
+        kept.addAll(latest.values());
+        kept.sort(Comparator.comparingLong(ChangeEvent::seq));
+        return kept;
+    }
+
+    /**
+     * Registers the number of clients and the number of published, coalesced and lost events in the metrics.
+     */
+    public static void registerMetrics() {
+        Metrics.gauge("brewing_feed_subscribers", "Clients connected to the change feed", "", subscribers::get);
+        Metrics.counter("brewing_feed_events_total", "Events published to the change feed", "", published::sum);
+        Metrics.counter("brewing_feed_coalesced_events_total",
+                "Events not sent to late clients, superseded by a later event of the same entity", "", coalesced::sum);
+        Metrics.counter("brewing_feed_resets_total",
+                "Clients told to reload the data, their position being no longer in the buffer", "", resets::sum);
+    }
+}
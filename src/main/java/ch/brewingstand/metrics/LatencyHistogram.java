@@ -0,0 +1,66 @@
+package ch.brewingstand.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, in the Prometheus format (cumulative buckets, sum and count).
+ *
+ * Recording is a walk over the bucket bounds and two LongAdder increments: no allocation and no lock, so it can sit
+ * on every request without skewing the latencies it measures.
+ */
+public final class LatencyHistogram {
+
+    // Upper bounds of the buckets, in seconds: the Prometheus client defaults, refined below 5 ms.
+    private static final double[] BOUNDS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1,
+            0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+    private static final String[] LABELS = new String[BOUNDS.length + 1];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS[i] * 1e9);
+            LABELS[i] = Double.toString(BOUNDS[i]);
+        }
+        LABELS[BOUNDS.length] = "+Inf";
+    }
+
+    // One more bucket than bounds, for the latencies above the last bound.
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) i++;
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Writes the _bucket, _sum and _count samples of the histogram.
+     *
+     * @param out    the exposition being written
+     * @param name   metric name, without suffix
+     * @param labels labels of the histogram, without braces, possibly empty
+     */
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(LABELS[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,248 @@
+package ch.brewingstand.metrics;
+
+import ch.brewingstand.endpoints.ResponseCache;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import org.eclipse.jetty.server.Request;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of the server, exposed on GET /metrics in the Prometheus text format.
+ *
+ * - Requests: an after handler records the latency, the status code and the outcome of conditional requests in the
+ *   metrics of the matched route. It is allocation-free: the latency is measured from the time Jetty began the
+ *   request (kept by the request itself, so nothing is stored per request or per thread), the route metrics are found
+ *   with the path of the route (an existing string), and all counters are LongAdders.
+ * - Gauges and counters owned by other components (store and index sizes, cache outcomes) are registered as suppliers
+ *   and only read when the metrics are scraped.
+ * - JVM: heap and direct memory, GC collections and time, allocated bytes, threads.
+ */
+public final class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Route metrics by method then by route path. The method maps are all created upfront, so lookups never write.
+    private static final Map<HandlerType, ConcurrentHashMap<String, RouteMetrics>> routes =
+            new EnumMap<>(HandlerType.class);
+
+    static {
+        for (HandlerType type : HandlerType.values()) routes.put(type, new ConcurrentHashMap<>());
+    }
+
+    private record Sample(String labels, DoubleSupplier value) {}
+
+    private record Family(String help, String type, List<Sample> samples) {}
+
+    // Registered gauges and counters, by metric name, in registration order. Guarded by the map.
+    private static final Map<String, Family> families = new LinkedHashMap<>();
+
+    // Utility class pattern: no instances.
+    private Metrics() {}
+
+    /**
+     * Registers the request instrumentation, the JVM metrics and the GET /metrics endpoint.
+     *
+     * @param app Javalin application
+     */
+    public static void install(Javalin app) {
+        app.after(Metrics::stop);
+        app.get("/metrics", Metrics::scrape);
+        registerJvm();
+    }
+
+    /**
+     * Registers a gauge, a value that can go up and down.
+     *
+     * @param name   metric name
+     * @param help   description of the metric
+     * @param labels labels of this sample, as name="value" pairs separated by commas, possibly empty
+     * @param value  reads the current value
+     */
+    public static void gauge(String name, String help, String labels, DoubleSupplier value) {
+        register(name, help, "gauge", labels, value);
+    }
+
+    /**
+     * Registers a counter maintained by another component, a value that only goes up.
+     *
+     * @param name   metric name, ending with _total
+     * @param help   description of the metric
+     * @param labels labels of this sample, as name="value" pairs separated by commas, possibly empty
+     * @param value  reads the current value
+     */
+    public static void counter(String name, String help, String labels, DoubleSupplier value) {
+        register(name, help, "counter", labels, value);
+    }
+
+    /**
+     * Registers the outcomes and the size of a response cache.
+     *
+     * @param name  name of the cache, used as label
+     * @param cache the cache
+     */
+    public static void cache(String name, ResponseCache cache) {
+        String label = "cache=\"" + name + "\"";
+        String lookups = "brewing_response_cache_lookups_total";
+        String help = "Lookups of the response cache, by result";
+        counter(lookups, help, label + ",result=\"hit\"", cache::hits);
+        counter(lookups, help, label + ",result=\"miss\"", cache::misses);
+        counter(lookups, help, label + ",result=\"stale\"", cache::stale);
+        counter("brewing_response_cache_evictions_total", "Entries evicted from the response cache", label,
+                cache::evictions);
+        gauge("brewing_response_cache_entries", "Entries of the response cache", label, cache::size);
+        gauge("brewing_response_cache_bytes", "Size of the bodies held by the response cache", label, cache::bytes);
+    }
+
+    private static void stop(Context ctx) {
+        Request request = Request.getBaseRequest(ctx.req());
+        // Javalin always runs on Jetty, whose requests know when they began.
+        if (request == null) return;
+        long nanos = System.nanoTime() - request.getBeginNanoTime();
+        String route = route(ctx);
+        RouteMetrics metrics = routes.get(ctx.method()).get(route);
+        if (metrics == null) {
+            metrics = routes.get(ctx.method()).computeIfAbsent(route, r -> new RouteMetrics());
+        }
+        metrics.record(ctx.statusCode(), nanos, ctx.header("If-None-Match") != null,
+                ctx.header("If-Modified-Since") != null);
+    }
+
+    /**
+     * Returns the path of the route that handled the request. Requests matching no route share a single entry, so
+     * that arbitrary paths cannot grow the metrics.
+     */
+    private static String route(Context ctx) {
+        // Without a matching route, Javalin reports a description instead of a path.
+        String path = ctx.endpointHandlerPath();
+        return path.startsWith("/") ? path : "unmatched";
+    }
+
+    /**
+     * Handles GET /metrics.
+     *
+     * @param ctx Javalin request/response context
+     */
+    public static void scrape(Context ctx) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        writeRoutes(out);
+        List<Map.Entry<String, Family>> registered = new ArrayList<>();
+        synchronized (families) {
+            families.forEach((name, family) -> registered.add(Map.entry(name,
+                    new Family(family.help(), family.type(), List.copyOf(family.samples())))));
+        }
+        for (Map.Entry<String, Family> family : registered) {
+            header(out, family.getKey(), family.getValue().help(), family.getValue().type());
+            for (Sample sample : family.getValue().samples()) {
+                out.append(family.getKey());
+                if (!sample.labels().isEmpty()) out.append('{').append(sample.labels()).append('}');
+                out.append(' ').append(format(sample.value().getAsDouble())).append('\n');
+            }
+        }
+        ctx.contentType(CONTENT_TYPE).result(out.toString());
+    }
+
+    private static void writeRoutes(StringBuilder out) {
+        header(out, "http_server_requests_total", "HTTP responses, by route and status code", "counter");
+        forEachRoute((labels, metrics) -> metrics.forEachStatus((status, count) ->
+                out.append("http_server_requests_total{").append(labels).append(",status=\"").append(status)
+                        .append("\"} ").append(count).append('\n')));
+
+        header(out, "http_server_request_duration_seconds", "Time spent handling HTTP requests", "histogram");
+        forEachRoute((labels, metrics) -> metrics.latency.write(out, "http_server_request_duration_seconds", labels));
+
+        header(out, "http_server_conditional_requests_total",
+                "Conditional requests answered 304 (not_modified) or 200 (modified), by validator", "counter");
+        forEachRoute((labels, metrics) -> {
+            if (metrics.etagNotModified.sum() + metrics.etagModified.sum() + metrics.dateNotModified.sum()
+                    + metrics.dateModified.sum() == 0) return;
+            conditional(out, labels, "etag", "not_modified", metrics.etagNotModified.sum());
+            conditional(out, labels, "etag", "modified", metrics.etagModified.sum());
+            conditional(out, labels, "if_modified_since", "not_modified", metrics.dateNotModified.sum());
+            conditional(out, labels, "if_modified_since", "modified", metrics.dateModified.sum());
+        });
+    }
+
+    private static void conditional(StringBuilder out, String labels, String validator, String result, long count) {
+        out.append("http_server_conditional_requests_total{").append(labels).append(",validator=\"").append(validator)
+                .append("\",result=\"").append(result).append("\"} ").append(count).append('\n');
+    }
+
+    private interface RouteVisitor {
+        void visit(String labels, RouteMetrics metrics);
+    }
+
+    private static void forEachRoute(RouteVisitor visitor) {
+        for (Map.Entry<HandlerType, ConcurrentHashMap<String, RouteMetrics>> method : routes.entrySet()) {
+            for (Map.Entry<String, RouteMetrics> route : method.getValue().entrySet()) {
+                visitor.visit("method=\"" + method.getKey() + "\",route=\"" + escape(route.getKey()) + "\"",
+                        route.getValue());
+            }
+        }
+    }
+
+    private static void registerJvm() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        gauge("jvm_memory_used_bytes", "Used memory, by area", "area=\"heap\"",
+                () -> memory.getHeapMemoryUsage().getUsed());
+        gauge("jvm_memory_used_bytes", "Used memory, by area", "area=\"nonheap\"",
+                () -> memory.getNonHeapMemoryUsage().getUsed());
+        gauge("jvm_memory_committed_bytes", "Committed memory, by area", "area=\"heap\"",
+                () -> memory.getHeapMemoryUsage().getCommitted());
+        gauge("jvm_memory_max_bytes", "Maximal heap size", "area=\"heap\"",
+                () -> memory.getHeapMemoryUsage().getMax());
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            gauge("jvm_buffer_used_bytes", "Memory used by the direct and mapped buffers",
+                    "pool=\"" + escape(pool.getName()) + "\"", pool::getMemoryUsed);
+        }
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String label = "gc=\"" + escape(gc.getName()) + "\"";
+            counter("jvm_gc_collections_total", "Garbage collections, by collector", label,
+                    () -> Math.max(0, gc.getCollectionCount()));
+            counter("jvm_gc_collection_seconds_total", "Time spent in garbage collections, by collector", label,
+                    () -> Math.max(0, gc.getCollectionTime()) / 1000.0);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean hotspot && hotspot.isThreadAllocatedMemorySupported()) {
+            // Only counts the live platform threads: an approximation, meant to follow the allocation rate.
+            counter("jvm_allocated_bytes_total", "Bytes allocated by the live threads", "",
+                    hotspot::getTotalThreadAllocatedBytes);
+        }
+        gauge("jvm_threads_live", "Live platform threads", "", threads::getThreadCount);
+    }
+
+    private static void register(String name, String help, String type, String labels, DoubleSupplier value) {
+        synchronized (families) {
+            families.computeIfAbsent(name, n -> new Family(help, type, new ArrayList<>()))
+                    .samples().add(new Sample(labels, value));
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value)
+                : Double.toString(value);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,64 @@
+package ch.brewingstand.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Metrics of one route (method + path): latency histogram, responses by status code, and outcome of the conditional
+ * requests.
+ */
+final class RouteMetrics {
+
+    private static final int MAX_STATUS = 600;
+
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    // Counter of each status code, created on its first response.
+    private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS);
+
+    // Conditional GETs answered 304 (the client copy is current) or 200 (a new representation), by validator.
+    final LongAdder etagNotModified = new LongAdder();
+    final LongAdder etagModified = new LongAdder();
+    final LongAdder dateNotModified = new LongAdder();
+    final LongAdder dateModified = new LongAdder();
+
+    /**
+     * Records a response.
+     *
+     * @param status           response status code
+     * @param nanos            time spent on the request
+     * @param ifNoneMatch      true if the request carried If-None-Match
+     * @param ifModifiedSince  true if the request carried If-Modified-Since
+     */
+    void record(int status, long nanos, boolean ifNoneMatch, boolean ifModifiedSince) {
+        latency.record(nanos);
+        if (status >= 0 && status < MAX_STATUS) {
+            LongAdder counter = statuses.get(status);
+            if (counter == null) {
+                statuses.compareAndSet(status, null, new LongAdder());
+                counter = statuses.get(status);
+            }
+            counter.increment();
+        }
+        if (status != 304 && status != 200) return;
+        // If-None-Match takes precedence over If-Modified-Since (RFC 9110, 13.2.2).
+        if (ifNoneMatch) {
+            (status == 304 ? etagNotModified : etagModified).increment();
+        } else if (ifModifiedSince) {
+            (status == 304 ? dateNotModified : dateModified).increment();
+        }
+    }
+
+    /**
+     * Passes the count of every status code seen so far.
+     *
+     * @param sink receives the status code and its count
+     */
+    void forEachStatus(ObjLongConsumer<Integer> sink) {
+        for (int status = 0; status < MAX_STATUS; status++) {
+            LongAdder counter = statuses.get(status);
+            if (counter != null) sink.accept(status, counter.sum());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ch.brewingstand.metrics;
+
+import io.javalin.Javalin;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timeline of the startup: the time spent in each phase of the boot (loading the data, warming up...), and the time
+ * from the start of the JVM to the first request served, the latency a client sees after a deploy.
+ *
+ * The phases are logged and exposed as brewing_startup_seconds{phase=...}, the first request as
+ * brewing_startup_first_request_seconds (NaN until a request is served).
+ */
+public final class Startup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Startup.class);
+
+    // Time of the JVM start, in ms since the epoch.
+    private static final long JVM_START = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    // Duration of each phase, in ms, in boot order. Guarded by the map.
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+    // End of the last phase, in ms since the epoch. Guarded by phases.
+    private static long last = JVM_START;
+
+    private static final AtomicBoolean served = new AtomicBoolean();
+    private static volatile double firstRequestSeconds = Double.NaN;
+
+    // Utility class pattern: no instances.
+    private Startup() {}
+
+    /**
+     * Ends a phase of the boot, started at the end of the previous one (or at the start of the JVM).
+     *
+     * @param name name of the phase
+     */
+    public static void phase(String name) {
+        long now = System.currentTimeMillis();
+        synchronized (phases) {
+            phases.merge(name, now - last, Long::sum);
+            last = now;
+        }
+    }
+
+    /**
+     * Registers the metrics of the startup, and reports the first request served by the application.
+     *
+     * @param app Javalin application
+     */
+    public static void install(Javalin app) {
+        app.after(ctx -> {
+            if (!served.get() && served.compareAndSet(false, true)) {
+                long elapsed = System.currentTimeMillis() - JVM_START;
+                firstRequestSeconds = elapsed / 1000.0;
+                LOG.info("First request served " + elapsed + " ms after the start of the JVM");
+            }
+        });
+
+        Metrics.gauge("brewing_startup_first_request_seconds",
+                "Time from the start of the JVM to the first request served", "", () -> firstRequestSeconds);
+    }
+
+    /**
+     * Ends the boot, once the server accepts requests: logs the timeline, and registers the duration of every phase.
+     */
+    public static void started() {
+        phase("listen");
+        StringBuilder timeline = new StringBuilder();
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                double seconds = phase.getValue() / 1000.0;
+                Metrics.gauge("brewing_startup_seconds", "Time spent in each phase of the startup",
+                        "phase=\"" + phase.getKey() + "\"", () -> seconds);
+                if (!timeline.isEmpty()) timeline.append(", ");
+                timeline.append(phase.getKey()).append(' ').append(phase.getValue()).append(" ms");
+            }
+        }
+        LOG.info("Started in " + (System.currentTimeMillis() - JVM_START) + " ms: " + timeline);
+    }
+}
@@ -0,0 +1,390 @@
+package ch.brewingstand.replication;
+
+import ch.brewingstand.admission.Admission;
+import ch.brewingstand.admission.RouteClass;
+import ch.brewingstand.metrics.Metrics;
+import ch.brewingstand.storage.Dataset;
+import ch.brewingstand.storage.Mutation;
+import ch.brewingstand.storage.Storage;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follower side of the replication: serves the reads from its own copy of the dataset, kept up to date by the stream
+ * of the leader (see {@link ReplicationLeader}), and forwards the writes to the leader.
+ *
+ * - The mutations are applied by a single receiver thread, with the version their entity has on the leader, so that
+ *   the follower and the leader give the same ETags to the same coffee or review: a client can read from a follower
+ *   and write with If-Match through another node. They are then submitted to the storage layer, like the mutations of
+ *   a request: the change feed of the follower streams them, and a follower with a durable storage keeps them.
+ * - On a snapshot, the follower first deletes the entities the snapshot does not hold, then applies it.
+ * - A forwarded write is answered once the follower has applied it, so a client sees its own writes on the node it
+ *   wrote through. Reads on the other nodes may lag behind by the replication delay.
+ * - A forwarded write carries the address of its client in X-Forwarded-For, and is rate-limited by the leader only,
+ *   which must list the followers in its trusted proxies to charge each client rather than the follower.
+ * - When the connection is lost, the receiver reconnects every second and resumes from its position.
+ */
+public final class ReplicationFollower implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private static final long RETRY_MILLIS = 1_000;
+    // Largest number of mutations submitted to the storage layer at once.
+    private static final int MAX_BATCH = 4096;
+
+    // Request headers passed to the leader. The others (Host, Accept-Encoding, Connection...) are set by the client,
+    // and X-Forwarded-For is extended with the address of the client (see forward).
+    private static final List<String> FORWARDED_HEADERS = List.of("Content-Type", "Accept", "If-Match");
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+    // Response headers of the leader not passed to the client: they describe the connection to the leader.
+    private static final Set<String> HOP_HEADERS = Set.of("connection", "content-length", "content-encoding",
+            "date", "keep-alive", "server", "transfer-encoding");
+
+    private final String leaderHost;
+    private final int leaderPort;
+    private final String leaderUrl;
+    private final Dataset dataset;
+    private final Duration timeout;
+    private final HttpClient http;
+
+    // Guards the position, signalled when it moves. A lock rather than a monitor: the request threads waiting for a
+    // position may be virtual threads, which a monitor wait would pin to their carrier.
+    private final ReentrantLock progress = new ReentrantLock();
+    private final Condition moved = progress.newCondition();
+    // Epoch of the leader process whose log is applied, 0 before the first sync.
+    private volatile long epoch;
+    // Position of the last applied mutation in that log.
+    private volatile long applied;
+    // Position of the last mutation of the leader, as of its last message.
+    private volatile long leaderLast;
+
+    private final CountDownLatch synced = new CountDownLatch(1);
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder unavailable = new LongAdder();
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    /**
+     * @param leader        replication address of the leader, as host:port
+     * @param leaderUrl     base URL of the HTTP server of the leader, such as http://leader:8080
+     * @param dataset       the dataset to keep up to date
+     * @param timeoutMillis timeout of the connections to the leader and of the forwarded writes
+     */
+    public ReplicationFollower(String leader, String leaderUrl, Dataset dataset, long timeoutMillis) {
+        int colon = (leader == null) ? -1 : leader.lastIndexOf(':');
+        try {
+            if (colon <= 0) throw new NumberFormatException();
+            this.leaderHost = leader.substring(0, colon);
+            this.leaderPort = Integer.parseInt(leader.substring(colon + 1));
+            if (leaderPort <= 0 || leaderPort > 65535) throw new NumberFormatException();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for leader : " + leader + ", expected host:port");
+        }
+        if (leaderUrl == null || !(leaderUrl.startsWith("http://") || leaderUrl.startsWith("https://"))) {
+            throw new IllegalArgumentException("Invalid value for leader-url : " + leaderUrl
+                    + ", expected an http:// URL");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid value for replication-timeout : " + timeoutMillis);
+        }
+        this.leaderUrl = leaderUrl.endsWith("/") ? leaderUrl.substring(0, leaderUrl.length() - 1) : leaderUrl;
+        this.dataset = dataset;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    /**
+     * Starts receiving the log of the leader.
+     */
+    public void start() {
+        Thread.ofPlatform().name("replication-receiver").daemon().start(this::receiveLoop);
+    }
+
+    /**
+     * Waits until the snapshot of the leader is loaded, so that the follower does not serve partial data.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitSync() throws InterruptedException {
+        LOG.info("Waiting for the snapshot of the leader " + leaderHost + ":" + leaderPort);
+        synced.await();
+    }
+
+    /**
+     * Forwards the writes to the leader, and registers the metrics of the replication. Must be called before the
+     * routes of the application are registered: a request is served by the first matching endpoint.
+     *
+     * @param app Javalin application
+     */
+    public void install(Javalin app) {
+        // Capped like the writes of the leader, so that a burst does not pile up on the connections to the leader. The
+        // leader charges their client: a rate limit here would charge it twice.
+        app.post("/*/bulk", Admission.guardConcurrency(RouteClass.BULK, this::forward));
+        Handler forward = Admission.guardConcurrency(RouteClass.WRITE, this::forward);
+        app.post("/*", forward);
+        app.put("/*", forward);
+        app.patch("/*", forward);
+        app.delete("/*", forward);
+        Metrics.gauge("brewing_replication_position", "Position of the last mutation in the replication log",
+                "role=\"follower\"", () -> applied);
+        Metrics.gauge("brewing_replication_lag", "Mutations of the leader not yet applied by the follower", "",
+                () -> Math.max(0, leaderLast - applied));
+        Metrics.counter("brewing_replication_forwarded_total", "Writes forwarded to the leader", "",
+                forwarded::sum);
+        Metrics.counter("brewing_replication_unavailable_total",
+                "Writes rejected because the leader could not be reached", "", unavailable::sum);
+    }
+
+    /**
+     * Stops receiving the log.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Socket current = socket;
+        if (current == null) return;
+        try {
+            current.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Handles every write (POST, PUT, PATCH, DELETE): serves it with the leader, and answers with its response.
+     *
+     * Status codes, besides the ones of the leader:
+     * - 503 if the leader cannot be reached
+     *
+     * @param ctx Javalin request/response context
+     */
+    private void forward(Context ctx) {
+        forwarded.increment();
+
+        String query = ctx.queryString();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(leaderUrl + ctx.path()
+                        + (query == null ? "" : "?" + query)))
+                .timeout(timeout)
+                .method(ctx.method().name(), HttpRequest.BodyPublishers.ofByteArray(ctx.bodyAsBytes()));
+        for (String header : FORWARDED_HEADERS) {
+            String value = ctx.header(header);
+            if (value != null) request.header(header, value);
+        }
+        // Like any reverse proxy: the hops received, then the address the request came from.
+        StringBuilder hops = new StringBuilder();
+        Enumeration<String> received = ctx.req().getHeaders(FORWARDED_FOR);
+        while (received != null && received.hasMoreElements()) hops.append(received.nextElement()).append(", ");
+        request.header(FORWARDED_FOR, hops.append(ctx.ip()).toString());
+
+        HttpResponse<byte[]> response;
+        try {
+            response = http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            unavailable.increment();
+            ctx.status(503).result("Error : the leader cannot be reached");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unavailable.increment();
+            ctx.status(503).result("Error : the leader cannot be reached");
+            return;
+        }
+
+        response.headers().map().forEach((name, values) -> {
+            if (HOP_HEADERS.contains(name.toLowerCase(Locale.ROOT))) return;
+            for (String value : values) ctx.res().addHeader(name, value);
+        });
+        response.headers().firstValue(ReplicationProtocol.POSITION_HEADER).ifPresent(this::awaitPosition);
+        ctx.status(response.statusCode()).result(response.body());
+    }
+
+    /**
+     * Waits until the follower has applied a position of the leader, for at most the timeout. Positions of another
+     * leader process are ignored: the follower gets its data with its next snapshot.
+     *
+     * @param position the position, as &lt;epoch&gt;-&lt;seq&gt;
+     */
+    private void awaitPosition(String position) {
+        int dash = position.indexOf('-');
+        long seq;
+        try {
+            if (Long.parseLong(position.substring(0, dash)) != epoch) return;
+            seq = Long.parseLong(position.substring(dash + 1));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return;
+        }
+        long nanos = timeout.toNanos();
+        progress.lock();
+        try {
+            while (applied < seq) {
+                if (nanos <= 0) return;
+                nanos = moved.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            progress.unlock();
+        }
+    }
+
+    private void receiveLoop() {
+        while (!closed) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(leaderHost, leaderPort), (int) timeout.toMillis());
+                connection.setTcpNoDelay(true);
+                // The leader sends a heartbeat when idle: silence means it is gone.
+                connection.setSoTimeout((int) (3 * ReplicationProtocol.HEARTBEAT_MILLIS));
+                receive(connection);
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.warn("Replication from " + leaderHost + ":" + leaderPort + " interrupted: " + e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the stream of the leader until the connection is lost.
+     */
+    private void receive(Socket connection) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(ReplicationProtocol.MAGIC);
+        out.writeInt(ReplicationProtocol.VERSION);
+        out.writeLong(epoch);
+        out.writeLong(applied);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+        if (in.readInt() != ReplicationProtocol.MAGIC) throw new IOException("Not a replication leader");
+        long leaderEpoch = in.readLong();
+        byte mode = in.readByte();
+        if (mode == ReplicationProtocol.SNAPSHOT) {
+            loadSnapshot(in, leaderEpoch);
+        } else if (mode != ReplicationProtocol.RESUME || leaderEpoch != epoch) {
+            throw new IOException("Unexpected start of the replication stream");
+        }
+
+        List<Mutation> batch = new ArrayList<>();
+        long position = applied;
+        while (true) {
+            byte type = in.readByte();
+            if (type == ReplicationProtocol.RECORD) {
+                long version = in.readLong();
+                Mutation mutation = ReplicationProtocol.readRecord(in);
+                dataset.apply(mutation, version);
+                batch.add(mutation);
+                position = mutation.seq();
+            } else if (type == ReplicationProtocol.HEARTBEAT) {
+                leaderLast = in.readLong();
+            } else {
+                throw new IOException("Unexpected replication message " + type);
+            }
+            // Publish once the received messages are applied, before waiting for the next ones.
+            if (in.available() == 0 || batch.size() >= MAX_BATCH) {
+                advance(batch, position);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Replaces the data of the follower with a snapshot of the leader.
+     */
+    private void loadSnapshot(DataInputStream in, long leaderEpoch) throws IOException {
+        List<Mutation> snapshot = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        while (true) {
+            byte type = in.readByte();
+            if (type == ReplicationProtocol.SNAPSHOT_END) break;
+            if (type != ReplicationProtocol.RECORD) throw new IOException("Unexpected snapshot message " + type);
+            versions.add(in.readLong());
+            snapshot.add(ReplicationProtocol.readRecord(in));
+        }
+        long covered = in.readLong();
+
+        // The entities of the follower missing from the snapshot were deleted on the leader. They are deleted before
+        // the snapshot is applied: a coffee deletion also deletes the reviews of its partition.
+        Set<String> kept = new HashSet<>();
+        for (Mutation mutation : snapshot) kept.add(mutation.kind() + ":" + mutation.key());
+        List<Mutation> deletions = new ArrayList<>();
+        dataset.export(mutation -> {
+            if (kept.contains(mutation.kind() + ":" + mutation.key())) return;
+            switch (mutation.kind()) {
+                case COFFEE_PUT -> deletions.add(Mutation.deleteCoffee(mutation.key()));
+                case REVIEW_PUT -> deletions.add(Mutation.deleteReview(mutation.key()));
+                default -> { }
+            }
+        });
+        for (Mutation deletion : deletions) dataset.apply(deletion);
+        for (int i = 0; i < snapshot.size(); i++) dataset.apply(snapshot.get(i), versions.get(i));
+
+        List<Mutation> changed = new ArrayList<>(deletions);
+        changed.addAll(snapshot);
+        for (int from = 0; from < changed.size(); from += MAX_BATCH) {
+            Storage.submit(List.copyOf(changed.subList(from, Math.min(changed.size(), from + MAX_BATCH))));
+        }
+        progress.lock();
+        try {
+            epoch = leaderEpoch;
+            applied = covered;
+            leaderLast = covered;
+            moved.signalAll();
+        } finally {
+            progress.unlock();
+        }
+        synced.countDown();
+        LOG.info("Loaded the snapshot of the leader at position " + covered + " (" + snapshot.size()
+                + " records, " + deletions.size() + " deletions)");
+    }
+
+    /**
+     * Submits applied mutations to the storage layer, and moves the position.
+     */
+    private void advance(List<Mutation> batch, long position) {
+        if (!batch.isEmpty()) Storage.submit(batch);
+        progress.lock();
+        try {
+            applied = position;
+            leaderLast = Math.max(leaderLast, position);
+            moved.signalAll();
+        } finally {
+            progress.unlock();
+        }
+    }
+}
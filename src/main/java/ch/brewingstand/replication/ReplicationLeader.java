@@ -0,0 +1,296 @@
+package ch.brewingstand.replication;
+
+import ch.brewingstand.metrics.Metrics;
+import ch.brewingstand.storage.Dataset;
+import ch.brewingstand.storage.Mutation;
+import io.javalin.Javalin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leader side of the replication: serves the writes, and streams its mutations to the followers over TCP (see
+ * {@link ReplicationProtocol} for the format).
+ *
+ * - Every mutation submitted to the storage layer is numbered and kept in a bounded ring buffer, with the version of
+ *   its entity. Mutations are numbered under the lock of their partition, so the mutations of a coffee and its reviews
+ *   are numbered in the order they were applied.
+ * - Each follower is served by its own virtual thread, reading the buffer from its own position: a slow follower never
+ *   delays the writers nor the other followers.
+ * - A follower connecting for the first time, after a restart of the leader, or further behind than the buffer, first
+ *   receives a snapshot: the dataset is exported while writes keep going, and the mutations after the position read
+ *   before the export are streamed after it. Mutations carry the full state of their entity, so replaying one already
+ *   in the export is harmless (the same reasoning as the snapshots of {@link ch.brewingstand.storage.LogBackend}).
+ *
+ * Positions are numbered from 1 by each leader process, identified by its epoch.
+ */
+public final class ReplicationLeader implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    // Largest number of mutations sent to a follower between two flushes.
+    private static final int MAX_BATCH = 4096;
+
+    private record Entry(Mutation mutation, long version) {}
+
+    private final int port;
+    private final Dataset dataset;
+    private final long epoch = System.currentTimeMillis();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    // Entry of position p is at ring[p & (ring.length - 1)]. Guarded by lock.
+    private final Entry[] ring;
+    // Position of the last mutation. Guarded by lock.
+    private long last;
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger followers = new AtomicInteger();
+    private final LongAdder snapshots = new LongAdder();
+    private ServerSocket server;
+
+    /**
+     * @param port     port the followers connect to
+     * @param capacity number of mutations kept for the followers resuming after a disconnection, a power of two
+     * @param dataset  the dataset, exported for the snapshots
+     */
+    public ReplicationLeader(int port, int capacity, Dataset dataset) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Invalid value for replication-buffer : " + capacity
+                    + ", expected a power of two");
+        }
+        this.port = port;
+        this.dataset = dataset;
+        this.ring = new Entry[capacity];
+    }
+
+    /**
+     * Starts accepting followers. Must be called before the server accepts requests, with the leader registered as a
+     * listener of the storage layer.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        server = new ServerSocket(port);
+        Thread.ofPlatform().name("replication-accept").daemon().start(this::acceptLoop);
+        LOG.info("Replication leader listening on port " + server.getLocalPort());
+    }
+
+    /**
+     * Adds submitted mutations to the log streamed to the followers. Called by the storage layer, under the lock of the
+     * partition of the mutations.
+     *
+     * @param mutations the mutations, already applied in memory
+     */
+    public void append(List<Mutation> mutations) {
+        lock.lock();
+        try {
+            for (Mutation mutation : mutations) {
+                last++;
+                ring[(int) (last & (ring.length - 1))] =
+                        new Entry(mutation.withSeq(last), dataset.versionOf(mutation));
+            }
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the position header to the responses of the writes, and registers the metrics of the replication.
+     *
+     * @param app Javalin application
+     */
+    public void install(Javalin app) {
+        app.after(ctx -> {
+            if (ReplicationProtocol.isWrite(ctx.method())) {
+                ctx.header(ReplicationProtocol.POSITION_HEADER, epoch + "-" + last());
+            }
+        });
+        Metrics.gauge("brewing_replication_followers", "Followers connected to the leader", "", followers::get);
+        Metrics.gauge("brewing_replication_position", "Position of the last mutation in the replication log",
+                "role=\"leader\"", this::last);
+        Metrics.counter("brewing_replication_snapshots_total",
+                "Snapshots sent to followers, which were new or further behind than the buffer", "", snapshots::sum);
+    }
+
+    /**
+     * Stops accepting followers and disconnects the connected ones.
+     */
+    @Override
+    public void close() {
+        try {
+            if (server != null) server.close();
+        } catch (IOException e) {
+            LOG.warn("Closing the replication port failed", e);
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread.ofVirtual().name("replication-sender").start(() -> serve(socket));
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                LOG.warn("Accepting a follower failed", e);
+            }
+        }
+    }
+
+    /**
+     * Streams the log to a follower until it disconnects.
+     */
+    private void serve(Socket socket) {
+        connections.add(socket);
+        followers.incrementAndGet();
+        String follower = socket.getRemoteSocketAddress().toString();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != ReplicationProtocol.MAGIC || in.readInt() != ReplicationProtocol.VERSION) {
+                throw new IOException("Not a follower of this version");
+            }
+            long theirEpoch = in.readLong();
+            long theirSeq = in.readLong();
+
+            out.writeInt(ReplicationProtocol.MAGIC);
+            out.writeLong(epoch);
+            long cursor;
+            if (theirEpoch == epoch && canResume(theirSeq)) {
+                out.writeByte(ReplicationProtocol.RESUME);
+                cursor = theirSeq;
+                LOG.info("Follower " + follower + " resumes at position " + cursor);
+            } else {
+                out.writeByte(ReplicationProtocol.SNAPSHOT);
+                cursor = sendSnapshot(out);
+                LOG.info("Follower " + follower + " received a snapshot at position " + cursor);
+            }
+            out.flush();
+
+            while (true) {
+                List<Entry> entries = await(cursor);
+                if (entries == null) {
+                    // Further behind than the buffer: it reconnects and gets a snapshot.
+                    LOG.warn("Follower " + follower + " fell behind the replication buffer, disconnecting it");
+                    return;
+                }
+                if (entries.isEmpty()) {
+                    out.writeByte(ReplicationProtocol.HEARTBEAT);
+                    out.writeLong(cursor);
+                } else {
+                    for (Entry entry : entries) {
+                        ReplicationProtocol.writeRecord(out, entry.mutation(), entry.version());
+                    }
+                    cursor = entries.get(entries.size() - 1).mutation().seq();
+                }
+                out.flush();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOG.info("Follower " + follower + " disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.decrementAndGet();
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Sends the whole dataset.
+     *
+     * @return the position the snapshot covers
+     */
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        snapshots.increment();
+        // Read before the export: every mutation up to it is applied, so it is in the export.
+        long covered = last();
+        dataset.export(m -> {
+            try {
+                ReplicationProtocol.writeRecord(out, m, dataset.versionOf(m));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        out.writeByte(ReplicationProtocol.SNAPSHOT_END);
+        out.writeLong(covered);
+        return covered;
+    }
+
+    /**
+     * @return true if the mutations after a position are all in the buffer
+     */
+    private boolean canResume(long seq) {
+        lock.lock();
+        try {
+            return seq <= last && seq >= last - ring.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the position of the last mutation, 0 if there is none
+     */
+    private long last() {
+        lock.lock();
+        try {
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for mutations after a position, for at most the heartbeat period, and copies them.
+     *
+     * @return the mutations, empty if there is none, or null if some of them are no longer in the buffer
+     */
+    private List<Entry> await(long after) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(ReplicationProtocol.HEARTBEAT_MILLIS);
+        lock.lock();
+        try {
+            while (last <= after) {
+                if (nanos <= 0) return List.of();
+                nanos = appended.awaitNanos(nanos);
+            }
+            if (after < last - ring.length) return null;
+            long end = Math.min(last, after + MAX_BATCH);
+            List<Entry> entries = new ArrayList<>((int) (end - after));
+            for (long seq = after + 1; seq <= end; seq++) {
+                entries.add(ring[(int) (seq & (ring.length - 1))]);
+            }
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ch.brewingstand.replication;
+
+import ch.brewingstand.storage.Mutation;
+import ch.brewingstand.storage.MutationCodec;
+import io.javalin.http.HandlerType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of the replication stream, between a follower and the leader (one TCP connection per follower).
+ *
+ * 1. The follower sends [int MAGIC][int VERSION][long epoch][long seq]: the position of the last mutation it applied,
+ *    in the log of the leader process identified by epoch (0 before its first sync).
+ * 2. The leader answers [int MAGIC][long epoch][byte RESUME or SNAPSHOT]. With SNAPSHOT, the whole dataset follows as
+ *    RECORD messages, then [byte SNAPSHOT_END][long seq]: the snapshot holds every mutation up to seq, the follower
+ *    replaces its data with it. With RESUME, the stream continues after the position of the follower.
+ * 3. The leader then sends the mutations after that position, as they are submitted:
+ *    - [byte RECORD][long version][record]: a mutation, encoded by {@link MutationCodec} with its position as seq, and
+ *      the version of its entity on the leader;
+ *    - [byte HEARTBEAT][long seq]: sent when there is nothing to send, with the position of the last mutation.
+ */
+final class ReplicationProtocol {
+
+    static final int MAGIC = 0x42525050; // "BRPP"
+    static final int VERSION = 1;
+
+    static final byte RESUME = 1;
+    static final byte SNAPSHOT = 2;
+
+    static final byte RECORD = 1;
+    static final byte SNAPSHOT_END = 2;
+    static final byte HEARTBEAT = 3;
+
+    static final long HEARTBEAT_MILLIS = 5_000;
+
+    /**
+     * Response header of the writes on the leader: the position of the log once the write is submitted,
+     * as &lt;epoch&gt;-&lt;seq&gt;. A follower forwarding the write waits until it has applied that position.
+     */
+    static final String POSITION_HEADER = "Replication-Position";
+
+    // Largest record accepted, well above any valid mutation.
+    private static final int MAX_RECORD = 64 << 20;
+
+    // Utility class pattern: no instances.
+    private ReplicationProtocol() {}
+
+    /**
+     * @param method method of a request
+     * @return true if the request may change the data: it is served by the leader
+     */
+    static boolean isWrite(HandlerType method) {
+        return method != HandlerType.GET && method != HandlerType.HEAD && method != HandlerType.OPTIONS;
+    }
+
+    static void writeRecord(DataOutputStream out, Mutation mutation, long version) throws IOException {
+        out.writeByte(RECORD);
+        out.writeLong(version);
+        out.write(MutationCodec.encode(mutation));
+    }
+
+    /**
+     * Reads the mutation of a RECORD message, after its version.
+     *
+     * @throws IOException if the stream is closed or the record is corrupted
+     */
+    static Mutation readRecord(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        int crc = in.readInt();
+        if (length <= 0 || length > MAX_RECORD) throw new IOException("Invalid replication record length " + length);
+        byte[] frame = new byte[8 + length];
+        ByteBuffer.wrap(frame).putInt(length).putInt(crc);
+        in.readFully(frame, 8, length);
+        Mutation[] decoded = new Mutation[1];
+        MutationCodec.Decoded result = MutationCodec.decodeAll(ByteBuffer.wrap(frame), m -> decoded[0] = m);
+        if (result.records() != 1 || !result.complete()) {
+            throw new IOException("Corrupted replication record");
+        }
+        return decoded[0];
+    }
+}
@@ -0,0 +1,51 @@
+package ch.brewingstand.storage;
+
+import java.util.function.Consumer;
+
+/**
+ * The in-memory dataset served by the controllers, as seen by the storage layer.
+ */
+public interface Dataset {
+
+    /**
+     * Applies a mutation read back from storage (recovery, replication), through the same code path as a request.
+     * Mutations of different entities may be applied concurrently.
+     *
+     * @param mutation the mutation to apply
+     */
+    void apply(Mutation mutation);
+
+    /**
+     * Prepares the empty dataset for a bulk load, so that its structures are sized once instead of growing step by
+     * step.
+     *
+     * @param entities expected number of coffees and reviews
+     */
+    void reserve(long entities);
+
+    /**
+     * Applies a mutation replicated from another node, giving the entity the version it has on that node, so that
+     * both nodes build the same ETags for it.
+     *
+     * @param mutation the mutation to apply
+     * @param version  the version of the entity on the other node (see {@link #versionOf})
+     */
+    void apply(Mutation mutation, long version);
+
+    /**
+     * Returns the version of the entity written by a mutation, to replicate it with the mutation. Must be called under
+     * the lock the mutation was applied under: the version is then the one of the mutation, or of a later one.
+     *
+     * @param mutation an applied mutation
+     * @return the version of its entity, or the current version of the dataset for a deletion
+     */
+    long versionOf(Mutation mutation);
+
+    /**
+     * Emits the current state as a sequence of mutations which, applied to an empty dataset, rebuild it.
+     * Used to write snapshots; the dataset may keep changing during the export.
+     *
+     * @param sink receives the mutations
+     */
+    void export(Consumer<Mutation> sink);
+}
@@ -0,0 +1,433 @@
+package ch.brewingstand.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable backend: an append-only write-ahead log, compacted by periodic snapshots.
+ *
+ * Files, in the data directory:
+ * - wal-&lt;firstSeq&gt;.log: log segments, each one holding the records from firstSeq up to the next segment;
+ * - snapshot.bin: the whole dataset as of a sequence number, written to a temporary file then atomically renamed.
+ *
+ * Group commit: appends are queued and a single writer thread drains the queue, writes every queued record and
+ * forces the segment to disk once for the whole batch, then completes the callers' futures. Under load, one fsync is
+ * shared by many requests.
+ *
+ * Snapshots are "fuzzy": the writer first rolls to a new segment at sequence S, then the dataset is exported while
+ * writes keep going. Every mutation up to S was applied in memory before being appended, so it is in the export; later
+ * mutations may or may not be, and are replayed from the log, which is harmless since mutations are idempotent.
+ * Segments that only hold records up to S are then deleted.
+ *
+ * Recovery memory-maps the snapshot and loads it in parallel: the snapshot holds each entity once, so its records
+ * can be applied in any order. The file is cut into ranges of whole records, decoded and applied by loadThreads
+ * threads, into a dataset sized upfront from the record count of the header. Only the records of the log tail after S
+ * are then replayed, one by one in log order. A snapshot record that cannot be decoded fails the recovery: only the
+ * last records of the log may be torn, by a crash while they were being written.
+ */
+public class LogBackend implements StorageBackend {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogBackend.class);
+
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x42534E50; // "BSNP"
+    // Format 1: [magic][format][covered seq], then the records. Format 2 adds [record count] to the header.
+    private static final int SNAPSHOT_FORMAT = 2;
+    private static final int SNAPSHOT_HEADER = 24;
+    // Ranges of the snapshot loaded by each thread, so that a thread slowed down by a range does not hold the others.
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int MAX_BATCH = 4096;
+
+    private sealed interface Request permits Append, Roll, Stop {}
+    private record Append(List<Mutation> mutations, CompletableFuture<Long> done) implements Request {}
+    private record Roll(CompletableFuture<Long> done) implements Request {}
+    private record Stop() implements Request {}
+
+    private final Path dir;
+    private final boolean fsync;
+    private final long snapshotEvery;
+    private final int loadThreads;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "storage-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean(false);
+
+    // Owned by the writer thread once started.
+    private FileChannel segment;
+    private long lastSeq;
+    private volatile long sinceSnapshot;
+
+    private Dataset dataset;
+    private Thread writer;
+
+    /**
+     * @param dir           data directory, created if needed
+     * @param fsync         force the log to disk before acknowledging an append
+     * @param snapshotEvery number of appended records after which a snapshot is taken
+     * @param loadThreads   number of threads loading the snapshot on recovery
+     */
+    public LogBackend(Path dir, boolean fsync, long snapshotEvery, int loadThreads) {
+        if (loadThreads <= 0) throw new IllegalArgumentException("Invalid value for load-threads : " + loadThreads);
+        this.dir = dir;
+        this.fsync = fsync;
+        this.snapshotEvery = snapshotEvery;
+        this.loadThreads = loadThreads;
+    }
+
+    @Override
+    public void recover(Dataset dataset) throws IOException {
+        Files.createDirectories(dir);
+
+        long covered = 0;
+        Path snapshot = dir.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            MappedByteBuffer buffer = map(snapshot);
+            int format = buffer.remaining() >= 16 && buffer.getInt() == SNAPSHOT_MAGIC ? buffer.getInt() : -1;
+            if ((format != 1 && format != SNAPSHOT_FORMAT) || buffer.remaining() < (format == 1 ? 8 : 16)) {
+                throw new IOException("Invalid snapshot file " + snapshot);
+            }
+            covered = buffer.getLong();
+            if (format == SNAPSHOT_FORMAT) dataset.reserve(buffer.getLong());
+            long start = System.nanoTime();
+            long count = loadSnapshot(snapshot, buffer, dataset);
+            LOG.info("Loaded snapshot at sequence " + covered + " (" + count + " records in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+        }
+
+        long last = covered;
+        long replayed = 0;
+        for (Path path : segments()) {
+            long[] max = {last};
+            long[] applied = {0};
+            long after = covered;
+            MappedByteBuffer records = map(path);
+            MutationCodec.Decoded decoded = MutationCodec.decodeAll(records, m -> {
+                if (m.seq() <= after) return;
+                dataset.apply(m);
+                max[0] = Math.max(max[0], m.seq());
+                applied[0]++;
+            });
+            // A record torn by a crash: it was never acknowledged, the log ends before it.
+            if (!decoded.complete()) {
+                LOG.warn("Log segment " + path + " ends with a torn record at offset " + records.position()
+                        + ", ignored");
+            }
+            last = max[0];
+            replayed += applied[0];
+        }
+        lastSeq = last;
+        LOG.info("Replayed " + replayed + " log records, last sequence is " + lastSeq);
+    }
+
+    /**
+     * Applies the records of a snapshot, in parallel. The snapshot was renamed into place once complete: unlike the
+     * tail of the log, any record that cannot be decoded means the file is corrupted.
+     *
+     * @param snapshot the snapshot file, for the error messages
+     * @param buffer   the records, up to the end of the file
+     * @param dataset  the dataset to load them into
+     * @return the number of records applied
+     * @throws IOException if a record of the snapshot is corrupted
+     */
+    private long loadSnapshot(Path snapshot, ByteBuffer buffer, Dataset dataset) throws IOException {
+        List<ByteBuffer> ranges = split(snapshot, buffer, loadThreads * RANGES_PER_THREAD);
+        if (loadThreads == 1 || ranges.size() <= 1) {
+            long count = 0;
+            for (ByteBuffer range : ranges) {
+                count += requireComplete(snapshot, range, MutationCodec.decodeAll(range, dataset::apply));
+            }
+            return count;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(loadThreads, r -> {
+            Thread t = new Thread(r, "storage-load");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Long>> loaded = new ArrayList<>(ranges.size());
+            for (ByteBuffer range : ranges) {
+                loaded.add(pool.submit(() ->
+                        requireComplete(snapshot, range, MutationCodec.decodeAll(range, dataset::apply))));
+            }
+            long count = 0;
+            for (Future<Long> range : loaded) count += range.get();
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading the snapshot");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException corrupted) throw corrupted;
+            throw new IOException("Loading the snapshot failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of records decoded from a range of the snapshot
+     * @throws IOException if decoding stopped before the end of the range
+     */
+    private static long requireComplete(Path snapshot, ByteBuffer range, MutationCodec.Decoded decoded)
+            throws IOException {
+        if (!decoded.complete()) {
+            throw new IOException("Corrupted snapshot file " + snapshot + " : invalid record after "
+                    + decoded.records() + " records of a range, at offset " + range.position() + " of the range");
+        }
+        return decoded.records();
+    }
+
+    /**
+     * Cuts records into ranges of whole records, of about the same size. Only the frame lengths are read here, the
+     * checksums are verified when the ranges are decoded.
+     *
+     * @param snapshot the snapshot file, for the error messages
+     * @param buffer   the records
+     * @param count    number of ranges wanted
+     * @return the ranges, in file order
+     * @throws IOException if a record length is invalid, or the last record is incomplete
+     */
+    private static List<ByteBuffer> split(Path snapshot, ByteBuffer buffer, int count) throws IOException {
+        List<ByteBuffer> ranges = new ArrayList<>(count);
+        int target = Math.max(1, buffer.remaining() / count);
+        int start = buffer.position();
+        int position = start;
+        int end = buffer.limit();
+        while (position < end) {
+            int length = end - position >= 8 ? buffer.getInt(position) : -1;
+            if (length <= 0 || length > end - position - 8) {
+                throw new IOException("Corrupted snapshot file " + snapshot + " : invalid record at offset "
+                        + position);
+            }
+            position += 8 + length;
+            if (position - start >= target) {
+                ranges.add(buffer.slice(start, position - start));
+                start = position;
+            }
+        }
+        if (position > start) ranges.add(buffer.slice(start, position - start));
+        return ranges;
+    }
+
+    @Override
+    public void start(Dataset dataset) throws IOException {
+        this.dataset = dataset;
+        openSegment();
+        writer = new Thread(this::writeLoop, "storage-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public CompletableFuture<Long> append(List<Mutation> mutations) {
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        queue.add(new Append(mutations, done));
+        return done;
+    }
+
+    /**
+     * Takes a snapshot of the dataset and deletes the log segments it covers.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot() throws IOException {
+        CompletableFuture<Long> rolled = new CompletableFuture<>();
+        queue.add(new Roll(rolled));
+        long covered = rolled.join();
+
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        long[] count = {0};
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(SNAPSHOT_MAGIC);
+            header.writeInt(SNAPSHOT_FORMAT);
+            header.writeLong(covered);
+            header.writeLong(0); // record count, written once known
+            dataset.export(m -> {
+                try {
+                    out.write(MutationCodec.encode(m));
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+            channel.write(ByteBuffer.allocate(8).putLong(0, count[0]), SNAPSHOT_HEADER - 8);
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (Path path : segments()) {
+            if (firstSeqOf(path) <= covered) Files.deleteIfExists(path);
+        }
+        LOG.info("Snapshot written at sequence " + covered + " (" + count[0] + " records)");
+    }
+
+    @Override
+    public void close() {
+        if (writer == null) return;
+        try {
+            if (sinceSnapshot > 0) snapshot();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Final snapshot failed, the log will be replayed on next start", e);
+        }
+        queue.add(new Stop());
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotter.shutdown();
+        writer = null;
+    }
+
+    /**
+     * Writer thread: drains the queue in batches and forces the log once per batch.
+     */
+    private void writeLoop() {
+        List<Request> batch = new ArrayList<>();
+        List<Append> pending = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            for (Request request : batch) {
+                if (request instanceof Append append) {
+                    for (Mutation m : append.mutations()) {
+                        buffer.writeBytes(MutationCodec.encode(m.withSeq(++lastSeq)));
+                    }
+                    pending.add(append);
+                    continue;
+                }
+                flush(buffer, pending);
+                if (request instanceof Roll roll) {
+                    try {
+                        segment.close();
+                        openSegment();
+                        roll.done().complete(lastSeq);
+                    } catch (IOException e) {
+                        roll.done().completeExceptionally(e);
+                    }
+                } else {
+                    closeQuietly();
+                    return;
+                }
+            }
+            flush(buffer, pending);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the buffered records, forces them to disk and acknowledges the pending appends.
+     */
+    private void flush(ByteArrayOutputStream buffer, List<Append> pending) {
+        if (pending.isEmpty()) return;
+        long records = 0;
+        for (Append append : pending) records += append.mutations().size();
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) segment.write(bytes);
+            if (fsync) segment.force(false);
+            for (Append append : pending) append.done().complete(lastSeq);
+        } catch (IOException e) {
+            LOG.error("Log append failed", e);
+            for (Append append : pending) append.done().completeExceptionally(e);
+        }
+        buffer.reset();
+        pending.clear();
+
+        sinceSnapshot += records;
+        if (sinceSnapshot >= snapshotEvery && snapshotRunning.compareAndSet(false, true)) {
+            sinceSnapshot = 0;
+            snapshotter.execute(() -> {
+                try {
+                    snapshot();
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Snapshot failed", e);
+                } finally {
+                    snapshotRunning.set(false);
+                }
+            });
+        }
+    }
+
+    private void openSegment() throws IOException {
+        Path path = dir.resolve(SEGMENT_PREFIX + String.format("%020d", lastSeq + 1) + SEGMENT_SUFFIX);
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void closeQuietly() {
+        try {
+            if (fsync) segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            LOG.warn("Closing the log segment failed", e);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(firstSeqOf(a), firstSeqOf(b)))
+                    .toList();
+        }
+    }
+
+    private static long firstSeqOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
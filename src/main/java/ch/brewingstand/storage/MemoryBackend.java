@@ -0,0 +1,28 @@
+package ch.brewingstand.storage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backend keeping nothing: the dataset only lives in memory and is lost on restart. Mutations still get a sequence
+ * number, so the rest of the application does not depend on the backend in use.
+ */
+public class MemoryBackend implements StorageBackend {
+
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    @Override
+    public void recover(Dataset dataset) {}
+
+    @Override
+    public void start(Dataset dataset) {}
+
+    @Override
+    public CompletableFuture<Long> append(List<Mutation> mutations) {
+        return CompletableFuture.completedFuture(sequence.addAndGet(mutations.size()));
+    }
+
+    @Override
+    public void close() {}
+}
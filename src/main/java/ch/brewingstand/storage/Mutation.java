@@ -0,0 +1,57 @@
+package ch.brewingstand.storage;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+
+/**
+ * One change of the dataset, as written to the storage log.
+ *
+ * Mutations carry the full new state of the entity (or its key for a delete), so replaying a mutation twice gives the
+ * same result as replaying it once. This is what allows snapshots to be taken while writes keep going.
+ *
+ * @param kind   what changed
+ * @param key    coffee name or review id (for REVIEW_ID_WATERMARK, the last handed out review id)
+ * @param coffee the new coffee for COFFEE_PUT, null otherwise
+ * @param review the new review for REVIEW_PUT, null otherwise
+ * @param seq    position in the log, assigned when the mutation is appended (0 before that)
+ */
+public record Mutation(Kind kind, String key, Coffee coffee, Review review, long seq) {
+
+    public enum Kind {
+        COFFEE_PUT,
+        // Deleting a coffee also deletes its reviews, replaying it cascades the same way.
+        COFFEE_DELETE,
+        REVIEW_PUT,
+        REVIEW_DELETE,
+        // Only written in snapshots: keeps the review id counter from going back after a restart.
+        REVIEW_ID_WATERMARK
+    }
+
+    public static Mutation putCoffee(Coffee coffee) {
+        return new Mutation(Kind.COFFEE_PUT, coffee.name(), coffee, null, 0);
+    }
+
+    public static Mutation deleteCoffee(String name) {
+        return new Mutation(Kind.COFFEE_DELETE, name, null, null, 0);
+    }
+
+    public static Mutation putReview(Review review) {
+        return new Mutation(Kind.REVIEW_PUT, review.id(), null, review, 0);
+    }
+
+    public static Mutation deleteReview(String id) {
+        return new Mutation(Kind.REVIEW_DELETE, id, null, null, 0);
+    }
+
+    public static Mutation reviewIdWatermark(long lastId) {
+        return new Mutation(Kind.REVIEW_ID_WATERMARK, String.valueOf(lastId), null, null, 0);
+    }
+
+    /**
+     * @param seq position in the log
+     * @return the same mutation, positioned in the log
+     */
+    public Mutation withSeq(long seq) {
+        return new Mutation(kind, key, coffee, review, seq);
+    }
+}
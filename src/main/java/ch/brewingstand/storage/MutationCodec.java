@@ -0,0 +1,154 @@
+package ch.brewingstand.storage;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of the mutations, shared by the log segments and the snapshots.
+ *
+ * A record is framed as [int length][int crc32][payload], the payload being
+ * [byte kind][long seq][string key] followed by the entity fields. Strings are written as [int byteLength][UTF-8
+ * bytes], -1 standing for null. The frame lets a reader stop cleanly on a record torn by a crash.
+ */
+public final class MutationCodec {
+
+    private static final Mutation.Kind[] KINDS = Mutation.Kind.values();
+
+    // Utility class pattern: no instances.
+    private MutationCodec() {}
+
+    /**
+     * Encodes a framed record.
+     *
+     * @param mutation the mutation to encode
+     * @return the framed record bytes
+     */
+    public static byte[] encode(Mutation mutation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // length, patched below
+            out.writeInt(0); // crc, patched below
+            out.writeByte(mutation.kind().ordinal());
+            out.writeLong(mutation.seq());
+            writeString(out, mutation.key());
+            switch (mutation.kind()) {
+                case COFFEE_PUT -> {
+                    Coffee c = mutation.coffee();
+                    writeString(out, c.name());
+                    writeString(out, c.origin());
+                    out.writeInt(c.intensity());
+                    writeString(out, c.aroma());
+                    writeString(out, c.type());
+                }
+                case REVIEW_PUT -> {
+                    Review r = mutation.review();
+                    writeString(out, r.id());
+                    writeString(out, r.coffeeName());
+                    out.writeInt(r.rating());
+                    writeString(out, r.comment());
+                }
+                default -> { }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, length);
+        ByteBuffer.wrap(record).putInt(length).putInt((int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Outcome of {@link #decodeAll}.
+     *
+     * @param records  number of decoded records
+     * @param complete true if decoding reached the end of the buffer, false if it stopped at a torn or corrupted record
+     */
+    public record Decoded(long records, boolean complete) {}
+
+    /**
+     * Decodes every complete record of a buffer, from its position to its limit. Decoding stops at the first torn or
+     * corrupted record, and the buffer is left positioned on it. Only the tail of a log written during a crash may end
+     * that way: the callers reading anything else must check that decoding was complete.
+     *
+     * @param buffer buffer holding framed records
+     * @param sink   receives the decoded mutations, in order
+     * @return the number of decoded records, and whether the whole buffer was decoded
+     */
+    public static Decoded decodeAll(ByteBuffer buffer, Consumer<Mutation> sink) {
+        long count = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expected) {
+                buffer.position(start);
+                break;
+            }
+            try {
+                sink.accept(decodePayload(payload));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                buffer.position(start);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            count++;
+        }
+        return new Decoded(count, !buffer.hasRemaining());
+    }
+
+    private static Mutation decodePayload(ByteBuffer in) {
+        int ordinal = in.get();
+        if (ordinal < 0 || ordinal >= KINDS.length) throw new IllegalArgumentException("Unknown kind " + ordinal);
+        Mutation.Kind kind = KINDS[ordinal];
+        long seq = in.getLong();
+        String key = readString(in);
+        return switch (kind) {
+            case COFFEE_PUT -> new Mutation(kind, key,
+                    new Coffee(readString(in), readString(in), in.getInt(), readString(in), readString(in)), null, seq);
+            case REVIEW_PUT -> new Mutation(kind, key, null,
+                    new Review(readString(in), readString(in), in.getInt(), readString(in)), seq);
+            default -> new Mutation(kind, key, null, null, seq);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
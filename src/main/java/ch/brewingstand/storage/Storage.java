@@ -0,0 +1,84 @@
+package ch.brewingstand.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Entry point of the storage layer used by the controllers.
+ *
+ * The controllers apply a mutation to their in-memory structures first, then record it here; the request is answered
+ * once the backend reports the mutation as durable. Reads never touch the storage layer.
+ *
+ * The backend defaults to {@link MemoryBackend} until {@link #open} is called.
+ *
+ * Listeners (such as the change feed) receive every submitted batch. The controllers submit a mutation under the lock
+ * of its partition, so the mutations of an entity reach the listeners in the order they were applied; batches of
+ * different partitions may reach them in another order than the log.
+ */
+public final class Storage {
+
+    private static volatile StorageBackend backend = new MemoryBackend();
+
+    private static final List<Consumer<List<Mutation>>> listeners = new CopyOnWriteArrayList<>();
+
+    // Utility class pattern: no instances.
+    private Storage() {}
+
+    /**
+     * Recovers the dataset from a backend, then routes every later mutation to it.
+     * Must be called before the server accepts requests.
+     *
+     * @param storage the backend to use
+     * @param dataset the empty dataset to recover into
+     * @throws IOException if the stored data cannot be read
+     */
+    public static void open(StorageBackend storage, Dataset dataset) throws IOException {
+        storage.recover(dataset);
+        storage.start(dataset);
+        backend = storage;
+    }
+
+    /**
+     * Appends mutations without waiting for them to be durable.
+     *
+     * @param mutations the mutations, already applied in memory, in the order they were applied
+     * @return a future completed with the sequence number of the last mutation once they are durable
+     */
+    public static CompletableFuture<Long> submit(List<Mutation> mutations) {
+        CompletableFuture<Long> durable = backend.append(mutations);
+        for (Consumer<List<Mutation>> listener : listeners) listener.accept(mutations);
+        return durable;
+    }
+
+    /**
+     * Registers a listener of the submitted mutations. Mutations replayed when the storage is opened are not passed to
+     * the listeners.
+     *
+     * @param listener receives each submitted batch, already applied in memory, without waiting for it to be durable
+     */
+    public static void addListener(Consumer<List<Mutation>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Appends a mutation and waits until it is durable.
+     *
+     * @param mutation the mutation, already applied in memory
+     * @return the sequence number of the mutation
+     */
+    public static long record(Mutation mutation) {
+        return submit(List.of(mutation)).join();
+    }
+
+    /**
+     * Flushes and closes the backend. Later mutations only live in memory.
+     */
+    public static void close() {
+        StorageBackend closing = backend;
+        backend = new MemoryBackend();
+        closing.close();
+    }
+}
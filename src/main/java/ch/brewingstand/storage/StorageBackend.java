@@ -0,0 +1,45 @@
+package ch.brewingstand.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where the mutations of the dataset are persisted.
+ *
+ * Life cycle: {@link #recover} replays the stored mutations into the empty dataset, then {@link #start} opens the
+ * backend for appends, and {@link #close} flushes everything that has been appended.
+ */
+public interface StorageBackend extends AutoCloseable {
+
+    /**
+     * Replays the persisted state into the empty dataset. The mutations of a snapshot, which hold each entity once, may
+     * be applied by several threads at once; the mutations of the log are applied one by one, in log order.
+     *
+     * @param dataset the empty dataset
+     * @throws IOException if the stored data cannot be read
+     */
+    void recover(Dataset dataset) throws IOException;
+
+    /**
+     * Opens the backend for appends.
+     *
+     * @param dataset the live dataset, exported when a snapshot is taken
+     * @throws IOException if the backend cannot be opened
+     */
+    void start(Dataset dataset) throws IOException;
+
+    /**
+     * Appends mutations to the log. The mutations must already be applied to the in-memory dataset.
+     *
+     * @param mutations the mutations, in the order they were applied
+     * @return a future completed with the sequence number of the last mutation once they are all durable
+     */
+    CompletableFuture<Long> append(List<Mutation> mutations);
+
+    /**
+     * Flushes pending appends and releases the resources.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,260 @@
+package ch.brewingstand;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import io.javalin.json.JavalinJackson;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test of the concurrent writes: starts the application in this JVM on an ephemeral port, runs scenarios where
+ * many clients write the same entities at once over HTTP, and checks after each one an invariant that only holds if
+ * the compound updates are atomic (see StripedLocks and the If-Match support of the controllers):
+ *
+ * - compare-and-set: clients increment a counter held in the comment of a review by reading it with its ETag and
+ *   writing it back with If-Match, retrying on 412. The final value must equal the number of successful writes: no
+ *   increment is lost, and no stale write is accepted.
+ * - read-modify-write: each client updates a single attribute of the same coffee with unconditional PUTs. Every
+ *   attribute must end with the last value written by its client: no update overwrites another with stale attributes.
+ * - create race: clients create the same coffee name in different cases. Exactly one creation must succeed.
+ * - delete race: clients create reviews of a coffee while another client deletes it. No review may survive its coffee.
+ *
+ * The interleavings explored depend on the real parallelism: on a machine with many cores, raise the load with the
+ * stress.clients, stress.increments, stress.updates and stress.rounds system properties (see the README).
+ */
+class ConcurrentWritesTest {
+
+    private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+    private static final int CLIENTS = Integer.getInteger("stress.clients", 16);
+    private static final int INCREMENTS = Integer.getInteger("stress.increments", 10);
+    private static final int UPDATES = Integer.getInteger("stress.updates", 200);
+    private static final int ROUNDS = Integer.getInteger("stress.rounds", 20);
+
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private static Javalin app;
+    private static String base;
+
+    @BeforeAll
+    static void start() throws IOException {
+        // Without admission control: the scenarios send bursts of writes on purpose, none of them may be shed.
+        app = Main.start(ServerConfig.load("--port=0", "--admission=false"));
+        base = "http://localhost:" + app.port();
+    }
+
+    @AfterAll
+    static void stop() {
+        app.stop();
+    }
+
+    /**
+     * Clients increment the comment of a single review with If-Match, retrying on 412.
+     */
+    @Test
+    void compareAndSetLosesNoIncrement() throws Exception {
+        send(post("/coffees", coffee("cas")), 201);
+        String id = json(send(post("/reviews", Map.of("coffeeName", "cas", "rating", 1, "comment", "0")), 201))
+                .get("id").asText();
+
+        List<Integer> done = parallel(CLIENTS, client -> {
+            for (int i = 0; i < INCREMENTS; i++) {
+                while (true) {
+                    HttpResponse<String> read = send(get("/reviews/" + id), 200);
+                    String etag = read.headers().firstValue("ETag").orElseThrow();
+                    long value = Long.parseLong(json(read).get("comment").asText());
+                    HttpResponse<String> write = client(put("/reviews/" + id,
+                            Map.of("rating", 1, "comment", String.valueOf(value + 1)), etag));
+                    if (write.statusCode() == 200) break;
+                    if (write.statusCode() != 412) throw unexpected(write);
+                }
+            }
+            return INCREMENTS;
+        });
+
+        long expected = done.stream().mapToLong(Integer::longValue).sum();
+        long actual = Long.parseLong(json(send(get("/reviews/" + id), 200)).get("comment").asText());
+        assertEquals(expected, actual, "counter after " + expected + " successful increments");
+    }
+
+    /**
+     * Each client updates one attribute of the same coffee with unconditional PUTs.
+     */
+    @Test
+    void readModifyWriteKeepsEveryAttribute() throws Exception {
+        send(post("/coffees", coffee("rmw")), 201);
+        String[] attributes = {"origin", "aroma", "type", "intensity"};
+
+        parallel(attributes.length, client -> {
+            for (int i = 1; i <= UPDATES; i++) {
+                String value = attributes[client].equals("intensity") ? String.valueOf(1 + i % 10)
+                        : attributes[client] + "-" + i;
+                send(putQuery("/coffees/rmw?" + attributes[client] + "=" + value), 200);
+            }
+            return null;
+        });
+
+        JsonNode coffee = json(send(get("/coffees/rmw"), 200));
+        for (String attribute : attributes) {
+            String expected = attribute.equals("intensity") ? String.valueOf(1 + UPDATES % 10)
+                    : attribute + "-" + UPDATES;
+            assertEquals(expected, coffee.get(attribute).asText(), attribute + " after the last write");
+        }
+    }
+
+    /**
+     * Clients create the same coffee name, in different cases.
+     */
+    @Test
+    void createRaceCreatesOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            String name = "race" + round;
+            List<Integer> statuses = parallel(CLIENTS, client -> {
+                String cased = (client % 2 == 0) ? name : name.toUpperCase(Locale.ROOT);
+                HttpResponse<String> response = client(post("/coffees", coffee(cased)));
+                if (response.statusCode() != 201 && response.statusCode() != 409) throw unexpected(response);
+                return response.statusCode();
+            });
+            long created = statuses.stream().filter(s -> s == 201).count();
+            assertEquals(1, created, "creations of " + name);
+        }
+    }
+
+    /**
+     * Clients create reviews of a coffee while one of them deletes the coffee.
+     */
+    @Test
+    void deleteRaceLeavesNoOrphanReview() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            String name = "doomed" + round;
+            send(post("/coffees", coffee(name)), 201);
+            Queue<String> created = new ConcurrentLinkedQueue<>();
+            AtomicInteger comments = new AtomicInteger();
+
+            parallel(CLIENTS, client -> {
+                if (client == 0) {
+                    send(delete("/coffees/" + name), 204);
+                    return null;
+                }
+                // keep creating until the coffee is gone
+                while (true) {
+                    HttpResponse<String> response = client(post("/reviews", Map.of("coffeeName", name,
+                            "rating", 1 + client % 5, "comment", "c" + comments.incrementAndGet())));
+                    if (response.statusCode() == 400) return null;
+                    if (response.statusCode() != 201) throw unexpected(response);
+                    created.add(json(response).get("id").asText());
+                }
+            });
+
+            JsonNode remaining = json(send(get("/reviews?coffeeName=" + name), 200));
+            assertTrue(remaining.isEmpty(), remaining.size() + " review(s) of deleted coffee " + name);
+            for (String id : created) {
+                assertEquals(404, client(get("/reviews/" + id)).statusCode(),
+                        "review " + id + " of deleted coffee " + name);
+            }
+        }
+    }
+
+    private interface Client<T> {
+        T run(int client) throws Exception;
+    }
+
+    /**
+     * Runs the clients at once, released together by a barrier, and returns their results.
+     */
+    private static <T> List<T> parallel(int clients, Client<T> body) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(clients);
+        List<Future<T>> futures = new ArrayList<>(clients);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                futures.add(executor.submit((Callable<T>) () -> {
+                    barrier.await();
+                    return body.run(client);
+                }));
+            }
+        }
+        List<T> results = new ArrayList<>(clients);
+        for (Future<T> future : futures) results.add(future.get());
+        return results;
+    }
+
+    private static Map<String, Object> coffee(String name) {
+        return Map.of("name", name, "origin", "Kenya", "intensity", 5, "aroma", "Fruity", "type", "Arabica");
+    }
+
+    private static HttpResponse<String> client(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> send(HttpRequest request, int expected)
+            throws IOException, InterruptedException {
+        HttpResponse<String> response = client(request);
+        if (response.statusCode() != expected) throw unexpected(response);
+        return response;
+    }
+
+    private static IllegalStateException unexpected(HttpResponse<String> response) {
+        return new IllegalStateException(response.request().method() + " " + response.request().uri() + " : "
+                + response.statusCode() + " " + response.body());
+    }
+
+    private static JsonNode json(HttpResponse<String> response) throws JsonProcessingException {
+        return MAPPER.readTree(response.body());
+    }
+
+    private static HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path)).GET().build();
+    }
+
+    private static HttpRequest delete(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path)).DELETE().build();
+    }
+
+    private static HttpRequest putQuery(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path)).PUT(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    private static HttpRequest put(String path, Object body, String ifMatch) throws JsonProcessingException {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Content-Type", "application/json")
+                .header("If-Match", ifMatch)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)))
+                .build();
+    }
+
+    private static HttpRequest post(String path, Object body) throws JsonProcessingException {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)))
+                .build();
+    }
+}
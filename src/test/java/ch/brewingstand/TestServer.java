@@ -0,0 +1,166 @@
+package ch.brewingstand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The application started in the test JVM on an ephemeral port, with an HTTP client to call it.
+ *
+ * The stores of the application are static: the test classes run in their own JVM (see the surefire configuration),
+ * and the tests of a class use distinct coffee names.
+ */
+public final class TestServer implements AutoCloseable {
+
+    public static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+    private final Javalin app;
+    private final String base;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private TestServer(Javalin app) {
+        this.app = app;
+        this.base = "http://localhost:" + app.port();
+    }
+
+    /**
+     * Starts the application, without admission control so that no test request is shed.
+     *
+     * @param settings more settings, as --key=value
+     * @return the started server
+     */
+    public static TestServer start(String... settings) throws IOException {
+        List<String> args = new ArrayList<>(List.of("--port=0", "--admission=false"));
+        args.addAll(List.of(settings));
+        return new TestServer(Main.start(ServerConfig.load(args.toArray(String[]::new))));
+    }
+
+    /**
+     * @param path    path and query of the request
+     * @param headers request headers, as name, value pairs
+     * @return the response
+     */
+    public HttpResponse<String> get(String path, String... headers) {
+        return send("GET", path, null, headers);
+    }
+
+    /**
+     * @param path    path and query of the request
+     * @param headers request headers, as name, value pairs
+     * @return the response, with its body as bytes
+     */
+    public HttpResponse<byte[]> getBytes(String path, String... headers) {
+        return call(request("GET", path, null, headers), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Sends a request and checks its status.
+     *
+     * @param expected expected status
+     */
+    public HttpResponse<String> send(String method, String path, Object body, int expected, String... headers) {
+        HttpResponse<String> response = send(method, path, body, headers);
+        assertEquals(expected, response.statusCode(), method + " " + path + " : " + response.body());
+        return response;
+    }
+
+    /**
+     * @param method  HTTP method
+     * @param path    path and query of the request
+     * @param body    JSON body, either a String sent as is or an object to serialize, null for none
+     * @param headers request headers, as name, value pairs
+     * @return the response
+     */
+    public HttpResponse<String> send(String method, String path, Object body, String... headers) {
+        return call(request(method, path, body, headers), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Creates a coffee.
+     *
+     * @return the response, checked to be a 201
+     */
+    public HttpResponse<String> postCoffee(String name, String origin, int intensity, String aroma, String type) {
+        return send("POST", "/coffees", Map.of("name", name, "origin", origin, "intensity", intensity,
+                "aroma", aroma, "type", type), 201);
+    }
+
+    /**
+     * Creates a review.
+     *
+     * @return the id of the review
+     */
+    public String postReview(String coffeeName, int rating, String comment) {
+        HttpResponse<String> response = send("POST", "/reviews", Map.of("coffeeName", coffeeName, "rating", rating,
+                "comment", comment), 201);
+        return json(response).get("id").asText();
+    }
+
+    /**
+     * @return the parsed body of a response
+     */
+    public static JsonNode json(HttpResponse<String> response) {
+        try {
+            return MAPPER.readTree(response.body());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param name   name of the metric
+     * @param labels labels of the sample, as written in the exposition (e.g. cache="coffees",result="hit"), empty for
+     *               a metric without labels
+     * @return the value of the sample
+     */
+    public double metric(String name, String labels) {
+        String prefix = labels.isEmpty() ? name + " " : name + "{" + labels + "} ";
+        for (String line : get("/metrics").body().split("\n")) {
+            if (line.startsWith(prefix)) return Double.parseDouble(line.substring(prefix.length()).trim());
+        }
+        throw new AssertionError("No metric " + prefix);
+    }
+
+    @Override
+    public void close() {
+        app.stop();
+    }
+
+    private HttpRequest request(String method, String path, Object body, String... headers) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(base + path));
+        for (int i = 0; i < headers.length; i += 2) request.header(headers[i], headers[i + 1]);
+        if (body == null) return request.method(method, HttpRequest.BodyPublishers.noBody()).build();
+        try {
+            String json = body instanceof String raw ? raw : MAPPER.writeValueAsString(body);
+            return request.header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(json))
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> HttpResponse<T> call(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        try {
+            return client.send(request, handler);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ch.brewingstand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Warm-up: a training run goes through every write it seeds, and the warm-up of a server changes none of its data.
+ */
+class WarmupTest {
+
+    @Test
+    void trainingRunSeedsAndUpdates() throws IOException {
+        Main.train(ServerConfig.load("--warmup-requests=100"));
+        try (TestServer server = TestServer.start()) {
+            JsonNode coffee = server.json(server.get("/coffees/Warm-up%200"));
+            assertEquals("Blend", coffee.path("type").asText());
+        }
+    }
+
+    @Test
+    void warmupChangesNoData() throws IOException {
+        String[] paths = {"/coffees", "/reviews", "/coffees/changes", "/reviews/changes"};
+        String[] before = new String[paths.length];
+        try (TestServer server = TestServer.start()) {
+            for (int i = 0; i < 5; i++) {
+                server.postCoffee("Kept " + i, "Origin " + i, 1 + i, "Aroma", "Arabica");
+                server.postReview("Kept " + i, 1 + i, "kept review " + i);
+            }
+            for (int i = 0; i < paths.length; i++) before[i] = server.get(paths[i]).body();
+        }
+        // The stores are static: the next server warms up on the same data.
+        try (TestServer server = TestServer.start("--warmup-requests=300")) {
+            for (int i = 0; i < paths.length; i++) assertEquals(before[i], server.get(paths[i]).body(), paths[i]);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ch.brewingstand.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Token buckets: a client gets its burst at once then its rate, clients do not share their tokens, and the number of
+ * buckets stays bounded whatever the number of clients.
+ */
+class RateLimiterTest {
+
+    @Test
+    void burstThenRefusal() {
+        RateLimiter limiter = new RateLimiter(1, 20);
+        for (int i = 0; i < 10; i++) assertEquals(0, limiter.take("a", RouteClass.WRITE.cost), "write " + i);
+        long wait = limiter.take("a", RouteClass.WRITE.cost);
+        // Two tokens short, earned at one per second.
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(1_900) && wait <= TimeUnit.SECONDS.toNanos(2), wait + " ns");
+        assertTrue(limiter.take("a", RouteClass.CHEAP.cost) > 0, "no token left");
+        // A refused request takes nothing.
+        assertEquals(wait, limiter.take("a", RouteClass.WRITE.cost), TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(0, limiter.take("b", RouteClass.BULK.cost), "another client has its own bucket");
+        assertTrue(limiter.take("b", RouteClass.CHEAP.cost) > 0);
+    }
+
+    @Test
+    void tokensAreEarnedBack() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100, 20);
+        assertEquals(0, limiter.take("a", 20));
+        assertTrue(limiter.take("a", 5) > 0);
+        Thread.sleep(80);
+        assertEquals(0, limiter.take("a", 5), "5 tokens earned in 50 ms");
+    }
+
+    @Test
+    void idleClientsAreForgotten() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1_000, 20, 1_000);
+        for (int i = 0; i < 1_000; i++) limiter.take("idle" + i, 1);
+        assertEquals(1_000, limiter.clients());
+        // Full again after 1 ms.
+        Thread.sleep(20);
+        limiter.take("new", 1);
+        assertEquals(1, limiter.clients());
+    }
+
+    @Test
+    void busyClientsStayBounded() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1, 20, 1_000);
+        // A client owing many tokens, then a flood of clients owing few: none is idle.
+        assertEquals(0, limiter.take("heavy", 20));
+        for (int i = 0; i < 100_000; i++) {
+            limiter.take("flood" + i, 1);
+            assertTrue(limiter.clients() <= 1_000, limiter.clients() + " clients");
+            if (i % 10_000 == 0) Thread.sleep(110);
+        }
+        // The clients owing the most keep their bucket: about 2 tokens earned back since, not 5.
+        assertTrue(limiter.take("heavy", 5) > 0, "still limited");
+    }
+
+    @Test
+    void newClientsShareABucketUntilThereIsRoom() {
+        RateLimiter limiter = new RateLimiter(1, 20, 100);
+        // Each pass keeps 75 buckets, and the next may only run 100 ms later.
+        for (int i = 0; i < 100; i++) limiter.take("first" + i, 1);
+        assertEquals(0, limiter.take("second0", 1));
+        for (int i = 1; i < 25; i++) limiter.take("second" + i, 1);
+        assertEquals(100, limiter.clients());
+        for (int i = 0; i < 20; i++) limiter.take("overflow" + i, 1);
+        assertTrue(limiter.take("overflow20", 1) > 0, "the overflow bucket is shared and empty");
+        assertEquals(100, limiter.clients());
+    }
+}
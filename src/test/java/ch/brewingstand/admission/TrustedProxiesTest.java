@@ -0,0 +1,50 @@
+package ch.brewingstand.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Client of a request behind reverse proxies: the rightmost forwarded address that is not a trusted proxy, and only
+ * for requests coming from a trusted proxy.
+ */
+class TrustedProxiesTest {
+
+    private static final TrustedProxies PROXIES = TrustedProxies.of(List.of("10.0.0.1", " 10.0.0.2 ", "::1",
+            "[2001:db8::7]"));
+
+    @Test
+    void untrustedPeerIsTheClient() {
+        assertEquals("198.51.100.9", PROXIES.client("198.51.100.9", List.of("203.0.113.5")));
+        assertEquals("10.0.0.1", TrustedProxies.of(List.of()).client("10.0.0.1", List.of("203.0.113.5")));
+    }
+
+    @Test
+    void rightmostUntrustedHopIsTheClient() {
+        assertEquals("203.0.113.5", PROXIES.client("10.0.0.1", List.of("203.0.113.5")));
+        // Hops written by the client itself, left of the one a proxy appended, are ignored.
+        assertEquals("203.0.113.5", PROXIES.client("10.0.0.1", List.of("1.2.3.4, 203.0.113.5, 10.0.0.2")));
+        assertEquals("203.0.113.5", PROXIES.client("10.0.0.1", List.of("spoofed, 203.0.113.5,10.0.0.2 ")));
+        // Header lines are read in order, the last one being the latest proxy.
+        assertEquals("203.0.113.5", PROXIES.client("10.0.0.1", List.of("1.2.3.4", "203.0.113.5", "10.0.0.2")));
+        // IPv6, in any notation.
+        assertEquals("2001:db8::1", PROXIES.client("0:0:0:0:0:0:0:1", List.of("2001:db8::1, 2001:db8:0:0:0:0:0:7")));
+    }
+
+    @Test
+    void onlyProxiesMeansTheFurthestOne() {
+        assertEquals("10.0.0.2", PROXIES.client("10.0.0.1", List.of("10.0.0.2")));
+        assertEquals("10.0.0.1", PROXIES.client("10.0.0.1", List.of()));
+        assertEquals("10.0.0.1", PROXIES.client("10.0.0.1", List.of(" , ")));
+    }
+
+    @Test
+    void proxiesMustBeAddresses() {
+        for (String invalid : new String[]{"localhost", "proxy.example.com", "10.0.0.0/8", "", "12"}) {
+            assertThrows(IllegalArgumentException.class, () -> TrustedProxies.of(List.of(invalid)), invalid);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.TestServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Delta sync: a client applying the deltas to its copy ends up with the data of the server, and falls back to a full
+ * snapshot when its version is out of the history kept by the server.
+ */
+class ChangeIndexTest {
+
+    private static final int RETENTION = 40;
+
+    private static TestServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = TestServer.start("--changes-retention=" + RETENTION);
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Test
+    void firstSyncIsASnapshot() {
+        server.postCoffee("first", "Kenya", 5, "Fruity", "Arabica");
+        JsonNode delta = TestServer.json(server.get("/coffees/changes"));
+        assertTrue(delta.get("full").asBoolean());
+        assertEquals(byId(server.get("/coffees?limit=1000"), "name"), copy(new HashMap<>(), delta));
+    }
+
+    @Test
+    void copyFollowsTheDeltas() {
+        Random random = new Random(3);
+        Map<String, JsonNode> coffees = new HashMap<>();
+        Map<String, JsonNode> reviews = new HashMap<>();
+        long coffeesVersion = sync("/coffees/changes", null, coffees, true);
+        long reviewsVersion = sync("/reviews/changes", null, reviews, true);
+
+        List<String> live = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            // Fewer writes per round than the history holds: every sync is a delta.
+            for (int write = 0; write < 10; write++) {
+                int kind = random.nextInt(4);
+                if (kind == 0 || live.isEmpty()) {
+                    String name = "synced" + round + "-" + write;
+                    server.postCoffee(name, "Syncland", 1 + random.nextInt(10), "Nutty", "Arabica");
+                    live.add(name);
+                } else if (kind == 1) {
+                    String name = live.get(random.nextInt(live.size()));
+                    server.send("PUT", "/coffees/" + name + "?intensity=" + (1 + random.nextInt(10)), null, 200);
+                } else if (kind == 2) {
+                    server.postReview(live.get(random.nextInt(live.size())), 1 + random.nextInt(5),
+                            "round " + round + " write " + write);
+                } else {
+                    // Deleting a coffee deletes its reviews: their tombstones must reach the copy too.
+                    String name = live.remove(random.nextInt(live.size()));
+                    server.send("DELETE", "/coffees/" + name, null, 204);
+                }
+            }
+            coffeesVersion = sync("/coffees/changes", coffeesVersion, coffees, false);
+            reviewsVersion = sync("/reviews/changes", reviewsVersion, reviews, false);
+
+            assertEquals(byId(server.get("/coffees?limit=1000"), "name"), coffees, "round " + round);
+            assertEquals(byId(server.get("/reviews?limit=1000"), "id"), reviews, "round " + round);
+        }
+    }
+
+    @Test
+    void oldVersionGetsASnapshot() {
+        Map<String, JsonNode> coffees = new HashMap<>();
+        long version = sync("/coffees/changes", null, coffees, true);
+        // More changes than the history holds: the ones the client misses are gone.
+        for (int i = 0; i < RETENTION + 5; i++) server.postCoffee("behind" + i, "Lagland", 3, "Woody", "Robusta");
+        server.send("DELETE", "/coffees/behind0", null, 204);
+
+        sync("/coffees/changes", version, coffees, true);
+        assertEquals(byId(server.get("/coffees?limit=1000"), "name"), coffees);
+        assertFalse(coffees.containsKey("behind0"));
+    }
+
+    @Test
+    void unknownVersionGetsASnapshot() {
+        server.postCoffee("unknown", "Kenya", 5, "Fruity", "Arabica");
+        long current = TestServer.json(server.get("/coffees/changes")).get("version").asLong();
+        // Handed out by a previous process, or never handed out.
+        assertTrue(TestServer.json(server.get("/coffees/changes?since=1")).get("full").asBoolean());
+        assertTrue(TestServer.json(server.get("/coffees/changes?since=" + (current + 1000))).get("full").asBoolean());
+
+        JsonNode upToDate = TestServer.json(server.get("/coffees/changes?since=" + current));
+        assertFalse(upToDate.get("full").asBoolean());
+        assertEquals(0, upToDate.get("changes").size());
+        assertEquals(current, upToDate.get("version").asLong());
+    }
+
+    /**
+     * Syncs a copy.
+     *
+     * @param full whether the response must be a snapshot rather than a delta
+     * @return the version to send on the next sync
+     */
+    private static long sync(String path, Long since, Map<String, JsonNode> copy, boolean full) {
+        JsonNode delta = TestServer.json(server.get(path + (since == null ? "" : "?since=" + since)));
+        assertEquals(full, delta.get("full").asBoolean(), path + " since " + since);
+        copy(copy, delta);
+        return delta.get("version").asLong();
+    }
+
+    /**
+     * Applies a delta to a copy, as a client does.
+     */
+    private static Map<String, JsonNode> copy(Map<String, JsonNode> copy, JsonNode delta) {
+        if (delta.get("full").asBoolean()) copy.clear();
+        for (JsonNode change : delta.get("changes")) {
+            if (change.get("op").asText().equals("delete")) {
+                copy.remove(change.get("id").asText());
+            } else {
+                copy.put(change.get("id").asText(), change.get("value"));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return the entities of a list, by id
+     */
+    private static Map<String, JsonNode> byId(HttpResponse<String> response, String id) {
+        Map<String, JsonNode> entities = new HashMap<>();
+        for (JsonNode entity : TestServer.json(response)) entities.put(entity.get(id).asText(), entity);
+        return entities;
+    }
+}
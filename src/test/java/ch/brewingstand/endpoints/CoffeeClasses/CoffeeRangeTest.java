@@ -0,0 +1,143 @@
+package ch.brewingstand.endpoints.CoffeeClasses;
+
+import ch.brewingstand.TestServer;
+import ch.brewingstand.endpoints.Page;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Ranges of intensities, answered from the ordered intensity index: the same coffees in the same order as a filter and
+ * a sort of the whole catalog, page after page, and a new ETag whenever a coffee enters or leaves the range.
+ */
+class CoffeeRangeTest {
+
+    private static TestServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = TestServer.start();
+        Random random = new Random(3);
+        for (int i = 0; i < 80; i++) {
+            // Intensities 1 to 8 only: 9 and 10 are left to the ETag tests.
+            server.postCoffee("ranged" + random.nextInt(1_000_000) + "-" + i, i % 3 == 0 ? "Rangeland" : "Elsewhere",
+                    1 + random.nextInt(8), "Woody", "Arabica");
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Test
+    void rangesMatchAScanOfTheCatalog() {
+        List<JsonNode> catalog = new ArrayList<>();
+        TestServer.json(server.get("/coffees")).forEach(catalog::add);
+        Integer[][] ranges = {{1, 8}, {3, 5}, {4, 4}, {6, null}, {null, 2}, {7, 3}, {1, 10}};
+        for (Integer[] range : ranges) {
+            for (String origin : new String[]{null, "Rangeland"}) {
+                for (String sort : new String[]{"name", "-name", "intensity", "-intensity"}) {
+                    String path = "/coffees?sort=" + sort + (range[0] == null ? "" : "&intensityMin=" + range[0])
+                            + (range[1] == null ? "" : "&intensityMax=" + range[1])
+                            + (origin == null ? "" : "&origin=" + origin);
+                    List<String> expected = expected(catalog, range[0], range[1], origin, sort);
+                    assertEquals(expected, names(server.get(path)), path);
+                    for (int limit : new int[]{1, 7, 100}) assertEquals(expected, walk(path, limit), path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rangeETagChangesWhenACoffeeLeaves() {
+        server.postCoffee("etagB", "Etagland", 9, "Woody", "Arabica");
+        for (String path : new String[]{"/coffees?intensityMin=9", "/coffees?intensityMin=9&sort=-intensity",
+                "/coffees?intensityMax=10&origin=Etagland"}) {
+            server.postCoffee("etagA", "Etagland", 10, "Woody", "Arabica");
+            // Changed after etagA: the postings of intensity 9 carry the highest version of the range.
+            server.send("PUT", "/coffees/etagB?aroma=Nutty", null, 200);
+            HttpResponse<String> before = server.get(path);
+            String etag = before.headers().firstValue("ETag").orElseThrow();
+            assertEquals(List.of("etagA", "etagB"), sorted(names(before)), path);
+
+            // The last coffee of intensity 10 leaves: the range keeps intensity 9 alone, which did not change.
+            server.send("DELETE", "/coffees/etagA", null, 204);
+            HttpResponse<String> after = server.get(path, "If-None-Match", etag);
+            assertEquals(200, after.statusCode(), path);
+            assertNotEquals(etag, after.headers().firstValue("ETag").orElseThrow(), path);
+            assertFalse(names(after).contains("etagA"), path);
+            assertEquals(List.of("etagB"), names(server.get(path)), path);
+        }
+    }
+
+    @Test
+    void singleIntensityETagChangesWhenItsLastCoffeeLeaves() {
+        server.postCoffee("single", "Singleland", 10, "Woody", "Arabica");
+        HttpResponse<String> before = server.get("/coffees?intensity=10");
+        String etag = before.headers().firstValue("ETag").orElseThrow();
+        server.send("DELETE", "/coffees/single", null, 204);
+        HttpResponse<String> after = server.get("/coffees?intensity=10", "If-None-Match", etag);
+        assertEquals(200, after.statusCode());
+        assertEquals(List.of(), names(after));
+    }
+
+    /**
+     * Filters and sorts the catalog like the query should.
+     */
+    private static List<String> expected(List<JsonNode> catalog, Integer min, Integer max, String origin,
+                                         String sort) {
+        Comparator<JsonNode> byName = Comparator.comparing(coffee -> coffee.get("name").asText());
+        Comparator<JsonNode> order = sort.endsWith("intensity")
+                ? Comparator.<JsonNode>comparingInt(coffee -> coffee.get("intensity").asInt()).thenComparing(byName)
+                : byName;
+        if (sort.startsWith("-")) order = order.reversed();
+        return catalog.stream()
+                .filter(coffee -> min == null || coffee.get("intensity").asInt() >= min)
+                .filter(coffee -> max == null || coffee.get("intensity").asInt() <= max)
+                .filter(coffee -> origin == null || origin.equals(coffee.get("origin").asText()))
+                .sorted(order)
+                .map(coffee -> coffee.get("name").asText())
+                .toList();
+    }
+
+    /**
+     * Reads every page of a list.
+     */
+    private static List<String> walk(String path, int limit) {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            HttpResponse<String> response = server.get(path + "&limit=" + limit
+                    + (cursor == null ? "" : "&cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8)));
+            assertEquals(200, response.statusCode(), response.body());
+            names.addAll(names(response));
+            cursor = response.headers().firstValue(Page.NEXT_CURSOR_HEADER).orElse(null);
+        } while (cursor != null);
+        return names;
+    }
+
+    private static List<String> names(HttpResponse<String> response) {
+        List<String> names = new ArrayList<>();
+        for (JsonNode coffee : TestServer.json(response)) names.add(coffee.get("name").asText());
+        return names;
+    }
+
+    private static List<String> sorted(List<String> names) {
+        return names.stream().sorted().toList();
+    }
+}
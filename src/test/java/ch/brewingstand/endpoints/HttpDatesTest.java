@@ -0,0 +1,61 @@
+package ch.brewingstand.endpoints;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * HTTP dates: the cached parsing and formatting agree with java.time, on cache hits as on misses.
+ */
+class HttpDatesTest {
+
+    @Test
+    void parsesRfc1123Dates() {
+        assertEquals(784111777, HttpDates.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(784111777, HttpDates.parse("Sun, 6 Nov 1994 08:49:37 GMT"));
+        assertEquals(784111777, HttpDates.parse(" Sun, 06 Nov 1994 08:49:37 GMT "));
+        assertEquals(784111777, HttpDates.parse("Sun, 06 Nov 1994 09:49:37 +0100"));
+        assertEquals(0, HttpDates.parse("Thu, 01 Jan 1970 00:00:00 GMT"));
+    }
+
+    @Test
+    void invalidDatesAreIgnored() {
+        for (String text : new String[]{"", "yesterday", "Sunday, 06-Nov-94 08:49:37 GMT", "Sun Nov  6 08:49:37 1994",
+                "Mon, 06 Nov 1994 08:49:37 GMT", "Sun, 31 Feb 1994 08:49:37 GMT", "Sun, 06 Nov 1994 25:49:37 GMT"}) {
+            // twice: the second call is answered by the cache
+            assertEquals(-1, HttpDates.parse(text), text);
+            assertEquals(-1, HttpDates.parse(text), text);
+        }
+    }
+
+    @Test
+    void formatsImfFixdates() {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDates.format(784111777));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDates.format(0));
+    }
+
+    @Test
+    void cachedValuesMatchJavaTime() {
+        Random random = new Random(11);
+        // Far more dates than the cache holds slots, each read several times: hits, misses and replaced slots.
+        long[] dates = new long[2_000];
+        for (int i = 0; i < dates.length; i++) dates[i] = random.nextLong(4_102_444_800L);
+        for (int round = 0; round < 3; round++) {
+            for (long seconds : dates) {
+                String expected = DateTimeFormatter.RFC_1123_DATE_TIME
+                        .format(ZonedDateTime.ofInstant(Instant.ofEpochSecond(seconds), ZoneOffset.UTC));
+                String text = HttpDates.format(seconds);
+                // RFC_1123_DATE_TIME writes a one-digit day, IMF-fixdate two
+                assertEquals(expected, text.startsWith("0", 5) ? text.substring(0, 5) + text.substring(6) : text);
+                assertEquals(seconds, HttpDates.parse(text));
+                assertEquals(seconds, HttpDates.parse(expected));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewCreateRequest;
+import ch.brewingstand.endpoints.ReviewClasses.ReviewUpdateRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The hand-written codecs read and write the coffees, the reviews and the review requests exactly like the generic
+ * record codecs of the default mapper: same bytes out, same values in, and the same inputs rejected.
+ */
+class JsonCodecsTest {
+
+    private static final ObjectMapper DEFAULT = JavalinJackson.defaultMapper();
+
+    @Test
+    void writesLikeTheDefaultMapper() throws JsonProcessingException {
+        List<Object> values = List.of(
+                new Coffee("Café crème", "Brésil", 7, "Noisette", "Arabica"),
+                new Coffee("nulls", null, 0, null, null),
+                new Coffee("\"quoted\" \\ \n\t\u0001 ☕ 😀", "</script>", -3, "", " "),
+                new Review("42", "Café crème", 5, "très bon ☕"),
+                new Review(null, null, Integer.MAX_VALUE, null),
+                List.of(new Review("1", "a", 1, "x"), new Review("2", "b", 2, "y")));
+        for (Object value : values) {
+            assertEquals(DEFAULT.writeValueAsString(value), JsonCodecs.MAPPER.writeValueAsString(value));
+            if (value instanceof Record) {
+                assertEquals(value, JsonCodecs.MAPPER.readValue(JsonCodecs.MAPPER.writeValueAsString(value),
+                        value.getClass()));
+            }
+        }
+    }
+
+    @Test
+    void readsLikeTheDefaultMapper() {
+        List<String> coffees = List.of(
+                "{\"name\":\"a\",\"origin\":\"b\",\"intensity\":5,\"aroma\":\"c\",\"type\":\"d\"}",
+                "{\"type\":\"d\",\"intensity\":5,\"name\":\"a\"}",
+                "{}",
+                "{\"name\":null,\"intensity\":null}",
+                "{\"intensity\":\"7\"}",
+                "{\"intensity\":7.0}",
+                "{\"intensity\":7.5}",
+                "{\"intensity\":\"seven\"}",
+                "{\"intensity\":99999999999}",
+                "{\"intensity\":true}",
+                "{\"intensity\":[7]}",
+                "{\"name\":12}",
+                "{\"name\":1.5}",
+                "{\"name\":true}",
+                "{\"name\":{\"nested\":1}}",
+                "{\"name\":[\"a\"]}",
+                "{\"name\":\"a\",\"unknown\":1}",
+                "{\"name\":\"a\",\"name\":\"b\"}",
+                "[]",
+                "\"a\"",
+                "12",
+                "null",
+                "{\"name\":\"a\"");
+        for (String json : coffees) assertSameRead(json, Coffee.class);
+
+        List<String> reviews = List.of(
+                "{\"id\":\"1\",\"coffeeName\":\"a\",\"rating\":3,\"comment\":\"ok\"}",
+                "{\"id\":1,\"rating\":\"3\"}",
+                "{\"rating\":3.0,\"comment\":null}",
+                "{\"rating\":-1}",
+                "{\"rating\":{}}",
+                "{\"other\":\"x\"}",
+                "[]");
+        for (String json : reviews) {
+            assertSameRead(json, Review.class);
+            assertSameRead(json.replace("\"id\"", "\"coffeeName\"").replace("\"coffeeName\":\"a\",", ""),
+                    ReviewCreateRequest.class);
+            assertSameRead(json.replace("\"id\":\"1\",\"coffeeName\":\"a\",", "").replace("\"id\":1,", ""),
+                    ReviewUpdateRequest.class);
+        }
+        assertSameRead("{\"coffeeName\":\"a\",\"rating\":4,\"comment\":\"c\"}", ReviewCreateRequest.class);
+        assertSameRead("{\"rating\":4,\"comment\":\"c\",\"coffeeName\":\"a\"}", ReviewUpdateRequest.class);
+    }
+
+    /**
+     * Reads a document with both mappers: they must give equal values, or both reject it.
+     */
+    private static void assertSameRead(String json, Class<?> type) {
+        assertEquals(read(DEFAULT, json, type), read(JsonCodecs.MAPPER, json, type), type.getSimpleName() + " " + json);
+    }
+
+    private static Object read(ObjectMapper mapper, String json, Class<?> type) {
+        try {
+            return mapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            return "rejected";
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.TestServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cursor pagination of the lists: the pages put together give the whole list, in its order, and a page never skips
+ * nor repeats an item when the data changes between two requests.
+ */
+class PageTest {
+
+    private static TestServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = TestServer.start();
+        for (int i = 0; i < 57; i++) {
+            server.postCoffee(String.format("paged%02d", i), "Pageland", 1 + i % 10, "Woody", "Arabica");
+        }
+        for (int i = 0; i < 23; i++) server.postReview("paged" + String.format("%02d", i % 5), 1 + i % 5, "r" + i);
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Test
+    void pagesMakeUpTheWholeList() {
+        List<String> whole = names(server.get("/coffees?origin=Pageland"));
+        assertEquals(57, whole.size());
+        for (int limit : new int[]{1, 10, 57, 100}) {
+            assertEquals(whole, walk("/coffees?origin=Pageland", limit), "limit " + limit);
+        }
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        HttpResponse<String> page = server.get("/coffees?origin=Pageland&limit=57");
+        assertEquals(57, TestServer.json(page).size());
+        assertTrue(page.headers().firstValue(Page.NEXT_CURSOR_HEADER).isEmpty());
+    }
+
+    @Test
+    void pagesSurviveConcurrentWrites() {
+        String path = "/coffees?origin=Churnland";
+        for (int i = 0; i < 30; i++) server.postCoffee(String.format("churn%02d", i), "Churnland", 5, "Woody", "Arabica");
+
+        Set<String> seen = new HashSet<>();
+        List<String> order = new ArrayList<>();
+        String cursor = null;
+        int page = 0;
+        do {
+            HttpResponse<String> response = server.get(path + "&limit=7" + (cursor == null ? "" : "&cursor=" + cursor));
+            for (String name : names(response)) {
+                assertTrue(seen.add(name), "repeated " + name);
+                order.add(name);
+            }
+            cursor = response.headers().firstValue(Page.NEXT_CURSOR_HEADER).orElse(null);
+            // Between the pages: delete an item already read and one not read yet, and insert before and after.
+            server.send("DELETE", String.format("/coffees/churn%02d", page), null, 204);
+            server.send("DELETE", String.format("/coffees/churn%02d", 29 - page), null, 204);
+            server.postCoffee("churn" + page + "a", "Churnland", 5, "Woody", "Arabica");
+            page++;
+        } while (cursor != null);
+
+        // Every coffee present from the first page to the last is read exactly once, in order.
+        for (int i = page; i < 30 - page; i++) assertTrue(seen.contains(String.format("churn%02d", i)));
+        List<String> sorted = new ArrayList<>(order);
+        sorted.sort(String::compareTo);
+        assertEquals(sorted, order);
+    }
+
+    @Test
+    void streamedPagesMatchBufferedOnes() {
+        List<String> buffered = walk("/coffees?origin=Pageland", 20);
+        List<String> streamed = new ArrayList<>();
+        String cursor = null;
+        do {
+            HttpResponse<String> response = server.get("/coffees?origin=Pageland&limit=20"
+                    + (cursor == null ? "" : "&cursor=" + cursor), "Accept", "application/x-ndjson");
+            for (String line : response.body().split("\n")) {
+                if (!line.isBlank()) streamed.add(parse(line).get("name").asText());
+            }
+            cursor = response.headers().firstValue(Page.NEXT_CURSOR_HEADER).orElse(null);
+        } while (cursor != null);
+        assertEquals(buffered, streamed);
+    }
+
+    @Test
+    void reviewPagesMakeUpTheWholeList() {
+        List<String> whole = ids(server.get("/reviews"));
+        assertEquals(23, whole.size());
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            HttpResponse<String> response = server.get("/reviews?limit=4" + (cursor == null ? "" : "&cursor=" + cursor));
+            paged.addAll(ids(response));
+            cursor = response.headers().firstValue(Page.NEXT_CURSOR_HEADER).orElse(null);
+        } while (cursor != null);
+        assertEquals(whole, paged);
+    }
+
+    @Test
+    void invalidLimitIsRejected() {
+        for (String limit : new String[]{"0", "-1", "1001", "ten"}) {
+            assertEquals(400, server.get("/coffees?limit=" + limit).statusCode(), "limit " + limit);
+            assertEquals(400, server.get("/reviews?limit=" + limit).statusCode(), "limit " + limit);
+        }
+        assertEquals(200, server.get("/coffees?limit=1000").statusCode());
+    }
+
+    /**
+     * Reads every page of a list.
+     */
+    private static List<String> walk(String path, int limit) {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            HttpResponse<String> response = server.get(path + "&limit=" + limit
+                    + (cursor == null ? "" : "&cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8)));
+            assertEquals(200, response.statusCode(), response.body());
+            names.addAll(names(response));
+            cursor = response.headers().firstValue(Page.NEXT_CURSOR_HEADER).orElse(null);
+        } while (cursor != null);
+        return names;
+    }
+
+    private static List<String> names(HttpResponse<String> response) {
+        List<String> names = new ArrayList<>();
+        for (JsonNode coffee : TestServer.json(response)) names.add(coffee.get("name").asText());
+        return names;
+    }
+
+    private static List<String> ids(HttpResponse<String> response) {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode review : TestServer.json(response)) ids.add(review.get("id").asText());
+        return ids;
+    }
+
+    private static JsonNode parse(String line) {
+        try {
+            return TestServer.MAPPER.readTree(line);
+        } catch (IOException e) {
+            throw new AssertionError(line, e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.TestServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The lists scanned in parallel, from their 100th entry on: each one holds the items a sequential filter and sort of
+ * the data would give, in the same order, whole and page by page.
+ */
+class ParallelListsTest {
+
+    private static final int COFFEES = 6_000;
+    private static final int REVIEWS = 8_000;
+
+    private static TestServer server;
+    private static final List<JsonNode> coffees = new ArrayList<>();
+    private static final List<JsonNode> reviews = new ArrayList<>();
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = TestServer.start("--scan-threads=4", "--scan-parallelism=4", "--scan-threshold=100");
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < COFFEES; i++) {
+            // Names out of creation order, so that the name order owes nothing to it.
+            body.append(TestServer.MAPPER.writeValueAsString(TestServer.MAPPER.createObjectNode()
+                    .put("name", String.format("scan%05d", (i * 7919) % COFFEES))
+                    .put("origin", "Origin " + i % 3)
+                    .put("intensity", 1 + i % 10)
+                    .put("aroma", "Aroma " + i % 5)
+                    .put("type", "Type " + i % 2))).append('\n');
+        }
+        JsonNode created = TestServer.json(server.send("POST", "/coffees/bulk", body.toString(), 200));
+        assertEquals(0, created.get("failed").asInt());
+        TestServer.json(server.get("/coffees")).forEach(coffees::add);
+        assertEquals(COFFEES, coffees.size());
+
+        body.setLength(0);
+        for (int i = 0; i < REVIEWS; i++) {
+            body.append(TestServer.MAPPER.writeValueAsString(TestServer.MAPPER.createObjectNode()
+                    .put("coffeeName", String.format("scan%05d", i % 40))
+                    .put("rating", 1 + (i * 3) % 5)
+                    .put("comment", "review " + i))).append('\n');
+        }
+        JsonNode report = TestServer.json(server.send("POST", "/reviews/bulk", body.toString(), 200));
+        assertEquals(0, report.get("failed").asInt());
+        for (int i = 0; i < REVIEWS; i++) {
+            reviews.add(TestServer.MAPPER.createObjectNode()
+                    .put("id", report.get("results").get(i).get("id").asText())
+                    .put("coffeeName", String.format("scan%05d", i % 40))
+                    .put("rating", 1 + (i * 3) % 5));
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Test
+    void coffeeListsKeepTheirOrder() {
+        Comparator<JsonNode> byName = Comparator.comparing(coffee -> coffee.get("name").asText());
+        Comparator<JsonNode> byIntensity = Comparator.<JsonNode>comparingInt(coffee -> coffee.get("intensity").asInt())
+                .thenComparing(byName);
+        check("/coffees?origin=Origin%201&aroma=Aroma%202", coffees, byName,
+                coffee -> is(coffee, "origin", "Origin 1") && is(coffee, "aroma", "Aroma 2"));
+        check("/coffees?origin=Origin%200&type=Type%201&aroma=Aroma%204&sort=-name", coffees, byName.reversed(),
+                coffee -> is(coffee, "origin", "Origin 0") && is(coffee, "type", "Type 1")
+                        && is(coffee, "aroma", "Aroma 4"));
+        check("/coffees?type=Type%200&sort=intensity", coffees, byIntensity, coffee -> is(coffee, "type", "Type 0"));
+        check("/coffees?intensityMin=3&intensityMax=8&aroma=Aroma%201&sort=-intensity", coffees,
+                byIntensity.reversed(), coffee -> coffee.get("intensity").asInt() >= 3
+                        && coffee.get("intensity").asInt() <= 8 && is(coffee, "aroma", "Aroma 1"));
+        check("/coffees?sort=-name", coffees, byName.reversed(), coffee -> true);
+    }
+
+    @Test
+    void reviewListsKeepTheirOrder() {
+        Comparator<JsonNode> byId = Comparator.comparingLong(review -> review.get("id").asLong());
+        Comparator<JsonNode> byRating = Comparator.<JsonNode>comparingInt(review -> review.get("rating").asInt())
+                .thenComparing(byId);
+        check("/reviews?", reviews, byId, review -> true);
+        check("/reviews?sort=-id", reviews, byId.reversed(), review -> true);
+        check("/reviews?ratingMin=2&ratingMax=4", reviews, byId,
+                review -> review.get("rating").asInt() >= 2 && review.get("rating").asInt() <= 4);
+        check("/reviews?sort=-rating&ratingMax=3", reviews, byRating.reversed(),
+                review -> review.get("rating").asInt() <= 3);
+        check("/reviews?coffeeName=scan00007&sort=rating", reviews, byRating,
+                review -> is(review, "coffeeName", "scan00007"));
+    }
+
+    @Test
+    void scansWentParallel() {
+        server.get("/reviews?sort=-id&limit=1000");
+        assertTrue(server.metric("brewing_scan_parallel_total", "") > 0);
+        assertTrue(server.metric("brewing_scan_pooled_chunks_total", "") > 0);
+    }
+
+    /**
+     * Checks a list, whole and paged, against the filter and sort of the data.
+     */
+    private static void check(String path, List<JsonNode> data, Comparator<JsonNode> order,
+                              Predicate<JsonNode> filter) {
+        String key = path.startsWith("/coffees") ? "name" : "id";
+        List<String> expected = data.stream().filter(filter).sorted(order).map(item -> item.get(key).asText())
+                .toList();
+        assertTrue(expected.size() >= 200, path + " matches " + expected.size());
+        assertEquals(expected, keys(server.get(path), key), path);
+        for (int limit : new int[]{150, 1000}) assertEquals(expected, walk(path, limit, key), path + " by " + limit);
+    }
+
+    /**
+     * Reads every page of a list.
+     */
+    private static List<String> walk(String path, int limit, String key) {
+        List<String> keys = new ArrayList<>();
+        String separator = path.endsWith("?") ? "" : "&";
+        String cursor = null;
+        do {
+            HttpResponse<String> response = server.get(path + separator + "limit=" + limit
+                    + (cursor == null ? "" : "&cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8)));
+            assertEquals(200, response.statusCode(), response.body());
+            keys.addAll(keys(response, key));
+            cursor = response.headers().firstValue(Page.NEXT_CURSOR_HEADER).orElse(null);
+        } while (cursor != null);
+        return keys;
+    }
+
+    private static List<String> keys(HttpResponse<String> response, String key) {
+        List<String> keys = new ArrayList<>();
+        for (JsonNode item : TestServer.json(response)) keys.add(item.get(key).asText());
+        return keys;
+    }
+
+    private static boolean is(JsonNode item, String field, String value) {
+        return value.equals(item.get(field).asText());
+    }
+}
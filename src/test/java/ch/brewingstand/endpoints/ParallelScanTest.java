@@ -0,0 +1,88 @@
+package ch.brewingstand.endpoints;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Parallel scans: the same items in the same order as a sequential scan, whatever the threshold, the width and the
+ * time each chunk takes, and no more keys resolved than the items consumed need.
+ */
+class ParallelScanTest {
+
+    @AfterEach
+    void sequential() {
+        ParallelScan.configure(1, 1, 10_000);
+    }
+
+    @Test
+    void ordersLikeASequentialScan() {
+        List<Integer> keys = IntStream.range(0, 50_000).boxed().toList();
+        List<Integer> expected = keys.stream().filter(ParallelScanTest::matches).toList();
+        for (int threshold : new int[]{0, 100, 5_000, 100_000}) {
+            for (int parallelism : new int[]{2, 4, 8}) {
+                ParallelScan.configure(4, parallelism, threshold);
+                Set<String> threads = ConcurrentHashMap.newKeySet();
+                List<Integer> scanned = collect(ParallelScan.scan(keys.iterator(), key -> {
+                    threads.add(Thread.currentThread().getName());
+                    // The first chunks are slow: the later ones of a wave complete first.
+                    if (key % 2048 == 0 && key < 20_000) sleep();
+                    return matches(key) ? key : null;
+                }));
+                String run = "threshold " + threshold + ", parallelism " + parallelism;
+                assertEquals(expected, scanned, run);
+                boolean pooled = threads.stream().anyMatch(name -> name.startsWith("scan-"));
+                assertEquals(threshold < keys.size(), pooled, run + ", threads " + threads);
+            }
+        }
+    }
+
+    @Test
+    void stopsWithinAWave() {
+        ParallelScan.configure(4, 4, 100);
+        AtomicInteger resolved = new AtomicInteger();
+        Iterator<Integer> scan = ParallelScan.scan(IntStream.range(0, 1_000_000).iterator(), key -> {
+            resolved.incrementAndGet();
+            return key;
+        });
+        for (int i = 0; i < 5_000; i++) assertEquals(i, scan.next());
+        // The first 100 keys, then whole waves of 4 chunks of 2048 keys.
+        assertTrue(resolved.get() <= 100 + 4 * 2048, resolved.get() + " keys resolved");
+    }
+
+    @Test
+    void invalidSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ParallelScan.configure(0, 2, 100));
+        assertThrows(IllegalArgumentException.class, () -> ParallelScan.configure(2, 0, 100));
+        assertThrows(IllegalArgumentException.class, () -> ParallelScan.configure(2, 2, -1));
+    }
+
+    private static boolean matches(int key) {
+        return key % 7 != 3 && key % 11 != 0;
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> List<T> collect(Iterator<T> items) {
+        List<T> list = new ArrayList<>();
+        items.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,128 @@
+package ch.brewingstand.endpoints;
+
+import ch.brewingstand.TestServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Conditional GETs and the server-side response cache: a representation keeps its ETag (and is served from the cache)
+ * until a write touches the data it was built from, and never outlives that write.
+ */
+class ResponseCacheTest {
+
+    private static TestServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = TestServer.start();
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Test
+    void entityEtagChangesWithTheEntity() {
+        server.postCoffee("etagged", "Kenya", 5, "Fruity", "Arabica");
+        HttpResponse<String> first = server.get("/coffees/etagged");
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        assertEquals(304, server.get("/coffees/etagged", "If-None-Match", etag).statusCode());
+        assertEquals(304, server.get("/coffees/etagged", "If-None-Match", "\"other\", W/" + etag).statusCode());
+
+        server.send("PUT", "/coffees/etagged?origin=Peru", null, 200);
+        HttpResponse<String> updated = server.get("/coffees/etagged", "If-None-Match", etag);
+        assertEquals(200, updated.statusCode());
+        assertEquals("Peru", TestServer.json(updated).get("origin").asText());
+        assertNotEquals(etag, updated.headers().firstValue("ETag").orElseThrow());
+    }
+
+    @Test
+    void filteredListOnlyChangesWithItsPartition() {
+        server.postCoffee("scoped1", "Scopeland", 5, "Nutty", "Arabica");
+        String path = "/coffees?origin=Scopeland";
+        HttpResponse<String> first = server.get(path);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        // A write outside the filter leaves the representation, and its cached bytes, valid.
+        server.postCoffee("elsewhere", "Otherland", 5, "Nutty", "Arabica");
+        double hits = hits("coffees");
+        HttpResponse<String> again = server.get(path);
+        assertEquals(etag, again.headers().firstValue("ETag").orElseThrow());
+        assertEquals(first.body(), again.body());
+        assertEquals(hits + 1, hits("coffees"), "served from the cache");
+        assertEquals(304, server.get(path, "If-None-Match", etag).statusCode());
+
+        // A write inside the filter replaces it.
+        server.postCoffee("scoped2", "Scopeland", 5, "Nutty", "Arabica");
+        HttpResponse<String> changed = server.get(path, "If-None-Match", etag);
+        assertEquals(200, changed.statusCode());
+        assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+        assertEquals(2, TestServer.json(changed).size());
+
+        // And so does a deletion: the deleted coffee is never served from the cache.
+        server.send("DELETE", "/coffees/scoped1", null, 204);
+        JsonNode remaining = TestServer.json(server.get(path));
+        assertEquals(1, remaining.size());
+        assertEquals("scoped2", remaining.get(0).get("name").asText());
+    }
+
+    @Test
+    void reviewListsFollowTheReviewsOfTheirCoffee() {
+        server.postCoffee("reviewed", "Kenya", 5, "Fruity", "Arabica");
+        String id = server.postReview("reviewed", 3, "fine");
+        String path = "/reviews?coffeeName=reviewed";
+        String etag = server.get(path).headers().firstValue("ETag").orElseThrow();
+        assertEquals(304, server.get(path, "If-None-Match", etag).statusCode());
+
+        server.send("PUT", "/reviews/" + id, "{\"rating\":5,\"comment\":\"great\"}", 200);
+        HttpResponse<String> updated = server.get(path, "If-None-Match", etag);
+        assertEquals(200, updated.statusCode());
+        assertEquals("great", TestServer.json(updated).get(0).get("comment").asText());
+
+        server.send("DELETE", "/coffees/reviewed", null, 204);
+        assertEquals(0, TestServer.json(server.get(path)).size());
+        assertEquals(404, server.get("/reviews/" + id).statusCode());
+    }
+
+    @Test
+    void queryOrderSharesTheCacheEntry() {
+        server.postCoffee("ordered", "Orderland", 4, "Spicy", "Robusta");
+        HttpResponse<String> first = server.get("/coffees?origin=Orderland&aroma=Spicy");
+        double hits = hits("coffees");
+        HttpResponse<String> swapped = server.get("/coffees?aroma=Spicy&origin=Orderland");
+        assertEquals(first.body(), swapped.body());
+        assertEquals(hits + 1, hits("coffees"));
+    }
+
+    @Test
+    void gzippedCopyHoldsTheSameBody() throws IOException {
+        for (int i = 0; i < 50; i++) server.postCoffee("zipped" + i, "Gzipland", 1 + i % 10, "Floral", "Arabica");
+        String path = "/coffees?origin=Gzipland";
+        String plain = server.get(path).body();
+        assertTrue(plain.length() >= 1500, "large enough to be compressed");
+
+        HttpResponse<byte[]> zipped = server.getBytes(path, "Accept-Encoding", "gzip");
+        assertEquals("gzip", zipped.headers().firstValue("Content-Encoding").orElseThrow());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped.body()))) {
+            assertEquals(plain, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static double hits(String cache) {
+        return server.metric("brewing_response_cache_lookups_total", "cache=\"" + cache + "\",result=\"hit\"");
+    }
+}
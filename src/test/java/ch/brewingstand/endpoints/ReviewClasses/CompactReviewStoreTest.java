@@ -0,0 +1,119 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import ch.brewingstand.endpoints.Dictionary;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The compact review store behaves like a map: whatever the order of the writes, and in particular after the backward
+ * shift of the entries following a removed one, every stored review and its version are found and no other.
+ */
+class CompactReviewStoreTest {
+
+    @Test
+    void randomWritesMatchAMap() {
+        Random random = new Random(7);
+        Dictionary names = new Dictionary();
+        CompactReviewStore store = new CompactReviewStore(names);
+        Map<String, Review> expected = new HashMap<>();
+        Map<String, Long> versions = new HashMap<>();
+
+        // Few enough ids for the tables to stay small and crowded: long probe sequences, and removals in their middle.
+        for (int op = 0; op < 200_000; op++) {
+            String id = Long.toString(1 + random.nextInt(5_000));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), store.remove(id), id);
+                versions.remove(id);
+            } else {
+                Review review = new Review(id, "coffee" + random.nextInt(20), 1 + random.nextInt(5), "c" + op);
+                assertEquals(expected.put(id, review), store.put(review), id);
+                store.setVersion(id, op);
+                versions.put(id, (long) op);
+            }
+        }
+
+        assertEquals(expected.size(), store.size());
+        for (int i = 1; i <= 5_000; i++) {
+            String id = Long.toString(i);
+            assertEquals(expected.get(id), store.get(id), id);
+            assertEquals(expected.containsKey(id), store.containsKey(id), id);
+            assertEquals(versions.getOrDefault(id, 0L), store.version(id), id);
+        }
+        List<Review> visited = new ArrayList<>();
+        store.forEach(visited::add);
+        assertEquals(expected.size(), visited.size());
+        for (Review review : visited) assertEquals(expected.get(review.id()), review);
+    }
+
+    @Test
+    void reserveKeepsTheReviews() {
+        CompactReviewStore store = new CompactReviewStore(new Dictionary());
+        for (int i = 1; i <= 1_000; i++) store.put(new Review(Integer.toString(i), "c", 3, ""));
+        store.setVersion("500", 42);
+        store.reserve(100_000);
+        assertEquals(1_000, store.size());
+        for (int i = 1; i <= 1_000; i++) assertEquals(Integer.toString(i), store.get(Integer.toString(i)).id());
+        assertEquals(42, store.version("500"));
+    }
+
+    @Test
+    void versionGoesWithTheReview() {
+        CompactReviewStore store = new CompactReviewStore(new Dictionary());
+        store.setVersion("9", 5);
+        assertEquals(0, store.version("9"));
+
+        store.put(new Review("9", "c", 3, "a"));
+        store.setVersion("9", 5);
+        store.put(new Review("9", "c", 4, "b"));
+        assertEquals(5, store.version("9"), "kept until the next setVersion");
+
+        store.remove("9");
+        store.put(new Review("9", "c", 3, "a"));
+        assertEquals(0, store.version("9"));
+    }
+
+    @Test
+    void onlyGeneratedIdsAreStored() {
+        CompactReviewStore store = new CompactReviewStore(new Dictionary());
+        store.put(new Review("12", "c", 3, ""));
+        for (String id : new String[]{"012", "+12", "12a", "", "1234567890123456789", "-1"}) {
+            assertNull(store.get(id), id);
+            assertFalse(store.containsKey(id), id);
+            assertNull(store.remove(id), id);
+            assertEquals(0, store.version(id), id);
+        }
+        assertThrows(IllegalArgumentException.class, () -> store.put(new Review("0", "c", 3, "")));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void coffeeNamesAreSharedAndReleased() {
+        Dictionary names = new Dictionary();
+        CompactReviewStore store = new CompactReviewStore(names);
+        store.put(new Review("1", new String("Kenya AA"), 3, ""));
+        store.put(new Review("2", new String("Kenya AA"), 4, ""));
+        store.put(new Review("3", "kenya aa", 4, ""));
+        assertSame(store.get("1").coffeeName(), store.get("2").coffeeName());
+        assertEquals(2, names.size());
+
+        // The case variant goes with its only review, the name with the last of its reviews.
+        store.remove("3");
+        assertEquals(1, names.size());
+        store.put(new Review("1", "Kenya AA", 5, "replaced"));
+        store.remove("1");
+        assertEquals(1, names.size());
+        store.remove("2");
+        assertEquals(0, names.size());
+    }
+}
@@ -0,0 +1,181 @@
+package ch.brewingstand.endpoints.ReviewClasses;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BM25 ranking of the review comments: the k best reviews found with MaxScore pruning are the k best of a full
+ * scoring of every review, with the same scores.
+ */
+class ReviewSearchIndexTest {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double EPSILON = 1e-9;
+
+    // A few very common words, more and more rare ones: the common ones are the postings MaxScore skips.
+    private static final String[] WORDS = words();
+
+    @Test
+    void termsAreFoldedAndSplit() {
+        assertEquals(List.of("chocolate", "noisette", "tres", "bon", "42"),
+                List.copyOf(ReviewSearchIndex.tokenize("Chocolaté, NOISETTE -- très bon! 42 chocolate")));
+        assertTrue(ReviewSearchIndex.tokenize(" ,;! ").isEmpty());
+        assertTrue(ReviewSearchIndex.tokenize(null).isEmpty());
+    }
+
+    @Test
+    void foldedQueryFindsTheComment() {
+        ReviewSearchIndex index = new ReviewSearchIndex();
+        index.add(new Review("1", "a", 5, "Notes de Chocolaté et de café"));
+        index.add(new Review("2", "a", 3, "Plutôt amer"));
+
+        List<ReviewSearchIndex.Hit> hits = index.search("CHOCOLATE", 10);
+        assertEquals(1, hits.size());
+        assertEquals("1", hits.get(0).id());
+        assertTrue(index.search("inconnu", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    void shorterCommentRanksFirst() {
+        ReviewSearchIndex index = new ReviewSearchIndex();
+        index.add(new Review("1", "a", 5, "fruity with a long finish of red berries and a hint of citrus"));
+        index.add(new Review("2", "a", 5, "fruity"));
+        index.add(new Review("3", "a", 5, "fruity fruity fruity"));
+        index.add(new Review("4", "a", 5, "bitter"));
+
+        List<String> ids = index.search("fruity", 10).stream().map(ReviewSearchIndex.Hit::id).toList();
+        assertEquals(List.of("3", "2", "1"), ids);
+    }
+
+    @Test
+    void topKMatchesAFullScoring() {
+        Random random = new Random(42);
+        ReviewSearchIndex index = new ReviewSearchIndex();
+        Map<String, Review> reviews = new HashMap<>();
+        for (int i = 1; i <= 2000; i++) {
+            Review review = new Review(Integer.toString(i), "c" + i % 10, 1 + i % 5, comment(random));
+            index.add(review);
+            reviews.put(review.id(), review);
+        }
+        // Updated and removed reviews must be scored as they are now, or not at all.
+        for (int i = 1; i <= 2000; i += 7) {
+            Review previous = reviews.get(Integer.toString(i));
+            Review updated = new Review(previous.id(), previous.coffeeName(), previous.rating(), comment(random));
+            index.update(previous, updated);
+            reviews.put(updated.id(), updated);
+        }
+        for (int i = 3; i <= 2000; i += 11) index.remove(reviews.remove(Integer.toString(i)));
+
+        for (int q = 0; q < 300; q++) {
+            StringBuilder query = new StringBuilder();
+            for (int t = 1 + random.nextInt(4); t > 0; t--) query.append(word(random)).append(' ');
+            int k = 1 + random.nextInt(q % 3 == 0 ? 200 : 10);
+            assertTopK(fullScoring(reviews, query.toString()), index.search(query.toString(), k), k,
+                    query + "k=" + k);
+        }
+    }
+
+    @Test
+    void removedReviewsAreNeverFound() {
+        ReviewSearchIndex index = new ReviewSearchIndex();
+        Review kept = new Review("1", "a", 4, "smooth caramel");
+        Review removed = new Review("2", "a", 4, "caramel caramel");
+        index.add(kept);
+        index.add(removed);
+        index.update(kept, new Review("1", "a", 4, "smooth"));
+        index.remove(removed);
+
+        assertTrue(index.search("caramel", 10).isEmpty());
+        assertEquals(1, index.terms());
+    }
+
+    /**
+     * Checks the hits are the k best of the full scoring: same scores, each hit scored as in the full scoring, most
+     * relevant first. Reviews tied with the k-th one may be swapped for each other.
+     */
+    private static void assertTopK(List<ReviewSearchIndex.Hit> expected, List<ReviewSearchIndex.Hit> hits, int k,
+                                   String message) {
+        assertEquals(Math.min(k, expected.size()), hits.size(), message);
+        Map<String, Double> scores = new HashMap<>();
+        for (ReviewSearchIndex.Hit hit : expected) scores.put(hit.id(), hit.score());
+        for (int i = 0; i < hits.size(); i++) {
+            ReviewSearchIndex.Hit hit = hits.get(i);
+            assertEquals(expected.get(i).score(), hit.score(), EPSILON, message + " rank " + i);
+            assertEquals(scores.get(hit.id()), hit.score(), EPSILON, message + " review " + hit.id());
+            if (i > 0) assertTrue(hits.get(i - 1).score() >= hit.score() - EPSILON, message);
+        }
+        assertEquals(hits.size(), hits.stream().map(ReviewSearchIndex.Hit::id).distinct().count(), message);
+    }
+
+    /**
+     * Scores every review against the query with the BM25 formula, without any pruning.
+     *
+     * @return the matching reviews, most relevant first
+     */
+    private static List<ReviewSearchIndex.Hit> fullScoring(Map<String, Review> reviews, String query) {
+        Map<String, Map<String, Integer>> frequencies = new HashMap<>();
+        long total = 0;
+        for (Review review : reviews.values()) {
+            Map<String, Integer> tf = new HashMap<>();
+            for (String token : review.comment().split(" ")) tf.merge(token, 1, Integer::sum);
+            frequencies.put(review.id(), tf);
+            total += review.comment().split(" ").length;
+        }
+        double averageLength = Math.max(1.0, (double) total / reviews.size());
+
+        Set<String> terms = ReviewSearchIndex.tokenize(query);
+        Map<String, Integer> df = new HashMap<>();
+        for (Map<String, Integer> tf : frequencies.values()) {
+            for (String term : terms) if (tf.containsKey(term)) df.merge(term, 1, Integer::sum);
+        }
+
+        List<ReviewSearchIndex.Hit> hits = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Integer>> review : frequencies.entrySet()) {
+            int length = review.getValue().values().stream().mapToInt(Integer::intValue).sum();
+            double score = 0;
+            boolean matches = false;
+            for (String term : terms) {
+                Integer tf = review.getValue().get(term);
+                if (tf == null) continue;
+                double idf = Math.log(1 + (reviews.size() - df.get(term) + 0.5) / (df.get(term) + 0.5));
+                score += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+                matches = true;
+            }
+            if (matches) hits.add(new ReviewSearchIndex.Hit(review.getKey(), score));
+        }
+        hits.sort(Comparator.comparingDouble(ReviewSearchIndex.Hit::score).reversed());
+        return hits;
+    }
+
+    private static String comment(Random random) {
+        StringBuilder comment = new StringBuilder(word(random));
+        for (int n = random.nextInt(30); n > 0; n--) comment.append(' ').append(word(random));
+        return comment.toString();
+    }
+
+    /**
+     * @return a word, the first ones of the vocabulary being far more frequent than the last ones
+     */
+    private static String word(Random random) {
+        double u = random.nextDouble();
+        return WORDS[(int) (u * u * u * WORDS.length)];
+    }
+
+    private static String[] words() {
+        String[] words = new String[500];
+        for (int i = 0; i < words.length; i++) words[i] = "w" + i;
+        return words;
+    }
+}
@@ -0,0 +1,60 @@
+package ch.brewingstand.endpoints;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Merge of sorted runs: the items of every run in order, whatever the number and the sizes of the runs, and only as
+ * many items read from the runs as are consumed.
+ */
+class SortedMergeTest {
+
+    @Test
+    void mergesInOrder() {
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            List<List<String>> runs = new ArrayList<>();
+            List<String> all = new ArrayList<>();
+            int count = random.nextInt(6);
+            for (int r = 0; r < count; r++) {
+                List<String> run = new ArrayList<>();
+                // Runs may be empty, and may share items, like the ranges of a non-unique field.
+                for (int i = random.nextInt(20); i > 0; i--) run.add("k" + random.nextInt(50));
+                run.sort(null);
+                runs.add(run);
+                all.addAll(run);
+            }
+            for (Comparator<String> order : List.of(Comparator.<String>naturalOrder(),
+                    Comparator.<String>reverseOrder())) {
+                List<Stream<String>> streams = new ArrayList<>();
+                for (List<String> run : runs) streams.add(run.stream().sorted(order));
+                List<String> expected = new ArrayList<>(all);
+                expected.sort(order);
+                assertEquals(expected, SortedMerge.merge(streams, order).toList(), "runs " + runs);
+            }
+        }
+    }
+
+    @Test
+    void readsOnlyWhatIsConsumed() {
+        AtomicInteger read = new AtomicInteger();
+        List<Stream<Integer>> runs = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            int first = r;
+            runs.add(Stream.iterate(first, i -> i + 4).limit(1_000).peek(i -> read.incrementAndGet()));
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                SortedMerge.merge(runs, Comparator.<Integer>naturalOrder()).limit(10).toList());
+        // At most the heads of the runs, plus one item per item consumed.
+        assertTrue(read.get() <= 4 + 10, read.get() + " items read");
+    }
+}
@@ -0,0 +1,331 @@
+package ch.brewingstand.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replication between a leader and a follower, each one a separate JVM (the stores of the application are static)
+ * started on ephemeral ports, the ports being read from their logs:
+ *
+ * - catch-up: a follower started after writes on the leader loads them with its snapshot, then follows the next ones;
+ * - read-your-writes: a write sent to the follower is forwarded to the leader, and answered once the follower applied
+ *   it (see the Replication-Position header), so the follower serves it right away;
+ * - resync: a follower further behind than the replication buffer is disconnected, and converges with a new snapshot,
+ *   deletions included;
+ * - rate limit: the leader charges a forwarded write to the client the follower received it from, and the follower
+ *   does not charge it again.
+ */
+class ReplicationTest {
+
+    private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+    private static final Pattern HTTP_PORT = Pattern.compile("Listening on http://[^:]+:(\\d+)/");
+    private static final Pattern REPLICATION_PORT = Pattern.compile("Replication leader listening on port (\\d+)");
+    private static final Duration CONVERGENCE = Duration.ofSeconds(20);
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final List<Instance> instances = new ArrayList<>();
+
+    @AfterEach
+    void stopInstances() throws InterruptedException {
+        for (Instance instance : instances) instance.stop();
+    }
+
+    @Test
+    void followerCatchesUpAndFollows() throws Exception {
+        Instance leader = leader(65_536);
+        for (int i = 0; i < 20; i++) post(leader, "/coffees", coffee("before" + i), 201);
+        for (int i = 0; i < 50; i++) post(leader, "/reviews", review("before" + (i % 20), "first " + i), 201);
+
+        Instance follower = follower(leader);
+        // Loaded before the follower listens.
+        assertEquals(get(leader, "/coffees").body(), get(follower, "/coffees").body());
+        assertEquals(get(leader, "/reviews").body(), get(follower, "/reviews").body());
+
+        for (int i = 0; i < 20; i++) post(leader, "/coffees", coffee("after" + i), 201);
+        send(leader, "PUT", "/coffees/before0?intensity=9", null, 200);
+        send(leader, "DELETE", "/coffees/before1", null, 204);
+        assertConverges(leader, follower);
+        // Same versions on both nodes, so the same ETags.
+        assertEquals(get(leader, "/coffees/before0").headers().firstValue("ETag"),
+                get(follower, "/coffees/before0").headers().firstValue("ETag"));
+    }
+
+    @Test
+    void followerServesItsForwardedWrites() throws Exception {
+        Instance leader = leader(65_536);
+        Instance follower = follower(leader);
+
+        for (int i = 0; i < 30; i++) {
+            HttpResponse<String> created = post(follower, "/coffees", coffee("forwarded" + i), 201);
+            assertTrue(created.headers().firstValue("Replication-Position").isPresent(), "position of the write");
+            // Read right away from the follower, without waiting for the replication.
+            assertEquals(200, get(follower, "/coffees/forwarded" + i).statusCode(), "forwarded" + i);
+            String id = MAPPER.readTree(post(follower, "/reviews", review("forwarded" + i, "via follower"), 201)
+                    .body()).get("id").asText();
+            assertEquals(200, get(follower, "/reviews/" + id).statusCode(), "review " + id);
+        }
+        assertEquals(200, get(leader, "/coffees/forwarded29").statusCode());
+        assertTrue(metric(follower, "brewing_replication_forwarded_total") >= 60);
+    }
+
+    @Test
+    void followerBehindTheBufferResyncs() throws Exception {
+        Instance leader = leader(16);
+        for (int i = 0; i < 40; i++) post(leader, "/coffees", coffee("kept" + i), 201);
+        Instance follower = follower(leader);
+        assertEquals(1, metric(leader, "brewing_replication_snapshots_total"));
+
+        // A batch is appended to the log at once: 100 mutations overflow the buffer of 16 before the follower reads them.
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) batch.append(i == 0 ? "" : ",").append(MAPPER.writeValueAsString(coffee("bulk" + i)));
+        send(leader, "POST", "/coffees/bulk", batch.append("]").toString(), 200);
+        // Deletions too: the follower must drop the coffees the new snapshot no longer holds.
+        StringBuilder deletions = new StringBuilder("[");
+        for (int i = 0; i < 30; i++) deletions.append(i == 0 ? "" : ",").append("{\"name\":\"kept").append(i).append("\"}");
+        send(leader, "POST", "/coffees/bulk?mode=delete", deletions.append("]").toString(), 200);
+
+        assertConverges(leader, follower);
+        assertTrue(metric(leader, "brewing_replication_snapshots_total") >= 2, "snapshot sent again");
+        assertEquals(404, get(follower, "/coffees/kept0").statusCode());
+        assertEquals(200, get(follower, "/coffees/bulk99").statusCode());
+    }
+
+    @Test
+    void leaderRateLimitsTheClientsOfTheFollower() throws Exception {
+        // Writes cost 2 tokens: a bucket of 20 holds 10 writes, refilled by 1 token per second.
+        List<String> limited = List.of("--admission=true", "--rate-limit=1", "--rate-burst=20");
+        List<String> trusting = new ArrayList<>(limited);
+        trusting.add("--trusted-proxies=127.0.0.1");
+        Instance leader = leader(65_536, trusting);
+        Instance follower = follower(leader, limited);
+
+        // Clients behind the follower, seen from it as 127.0.0.1 and told apart by the address they forward.
+        int admitted = 0;
+        HttpResponse<String> response;
+        do {
+            response = send(follower, "POST", "/coffees", MAPPER.writeValueAsString(coffee("limited" + admitted)),
+                    "X-Forwarded-For", "203.0.113.1");
+            if (response.statusCode() == 201) admitted++;
+        } while (response.statusCode() == 201 && admitted < 30);
+        assertEquals(429, response.statusCode(), response.body());
+        assertTrue(admitted >= 10 && admitted < 15, admitted + " writes admitted");
+        assertTrue(response.headers().firstValue("Retry-After").isPresent());
+
+        // Another client still has its tokens, on the leader and through the follower.
+        send(follower, "POST", "/coffees", MAPPER.writeValueAsString(coffee("other")), 201,
+                "X-Forwarded-For", "203.0.113.2");
+        send(follower, "POST", "/coffees/bulk", "[" + MAPPER.writeValueAsString(coffee("bulked")) + "]", 200,
+                "X-Forwarded-For", "203.0.113.3");
+        assertEquals(200, get(follower, "/coffees/bulked").statusCode());
+        assertEquals(1, metric(leader, "brewing_admission_rejected_total{class=\"write\",reason=\"rate_limit\"}"));
+        assertEquals(0, metric(follower, "brewing_admission_rejected_total{class=\"write\",reason=\"rate_limit\"}"));
+    }
+
+    /**
+     * Waits until the follower serves the same coffees and reviews as the leader.
+     */
+    private void assertConverges(Instance leader, Instance follower) throws Exception {
+        long deadline = System.nanoTime() + CONVERGENCE.toNanos();
+        while (true) {
+            String coffees = get(leader, "/coffees").body();
+            String reviews = get(leader, "/reviews").body();
+            if (coffees.equals(get(follower, "/coffees").body()) && reviews.equals(get(follower, "/reviews").body())) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                assertEquals(coffees, get(follower, "/coffees").body(), "coffees of the follower");
+                assertEquals(reviews, get(follower, "/reviews").body(), "reviews of the follower");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private Instance leader(int buffer) throws Exception {
+        return leader(buffer, List.of());
+    }
+
+    private Instance leader(int buffer, List<String> settings) throws Exception {
+        List<String> all = new ArrayList<>(List.of("--replication=leader", "--replication-port=0",
+                "--replication-buffer=" + buffer, "--node-count=2", "--node-id=0"));
+        all.addAll(settings);
+        Instance leader = Instance.start("leader", all);
+        instances.add(leader);
+        leader.replicationPort = Integer.parseInt(leader.await(REPLICATION_PORT));
+        leader.port = Integer.parseInt(leader.await(HTTP_PORT));
+        return leader;
+    }
+
+    private Instance follower(Instance leader) throws Exception {
+        return follower(leader, List.of());
+    }
+
+    private Instance follower(Instance leader, List<String> settings) throws Exception {
+        List<String> all = new ArrayList<>(List.of("--replication=follower",
+                "--leader=localhost:" + leader.replicationPort, "--leader-url=http://localhost:" + leader.port,
+                "--node-count=2", "--node-id=1"));
+        all.addAll(settings);
+        Instance follower = Instance.start("follower", all);
+        instances.add(follower);
+        follower.port = Integer.parseInt(follower.await(HTTP_PORT));
+        return follower;
+    }
+
+    private HttpResponse<String> get(Instance instance, String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(instance.uri(path)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(Instance instance, String path, Object body, int expected) throws Exception {
+        return send(instance, "POST", path, MAPPER.writeValueAsString(body), expected);
+    }
+
+    private HttpResponse<String> send(Instance instance, String method, String path, String body, int expected,
+                                      String... headers) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(instance, method, path, body, headers);
+        assertEquals(expected, response.statusCode(), method + " " + path + " : " + response.body());
+        return response;
+    }
+
+    /**
+     * @param headers request headers, as name, value pairs
+     */
+    private HttpResponse<String> send(Instance instance, String method, String path, String body, String... headers)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(instance.uri(path))
+                .header("Content-Type", "application/json")
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body));
+        for (int i = 0; i < headers.length; i += 2) request.header(headers[i], headers[i + 1]);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * @param name name of the metric, or name and labels of one of its samples
+     * @return the value of a metric without labels, or of the first sample of a metric with labels
+     */
+    private double metric(Instance instance, String name) throws IOException, InterruptedException {
+        for (String line : get(instance, "/metrics").body().split("\n")) {
+            if (line.startsWith(name + " ") || line.startsWith(name + "{")) {
+                return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        throw new AssertionError("No metric " + name);
+    }
+
+    private static Map<String, Object> coffee(String name) {
+        return Map.of("name", name, "origin", "Kenya", "intensity", 5, "aroma", "Fruity", "type", "Arabica");
+    }
+
+    private static Map<String, Object> review(String coffeeName, String comment) {
+        return Map.of("coffeeName", coffeeName, "rating", 4, "comment", comment);
+    }
+
+    /**
+     * An instance of the application, run in its own JVM with the classpath of the tests.
+     */
+    private static final class Instance {
+        private final String name;
+        private final Process process;
+        // Lines of the log read so far, completed when the process exits.
+        private final List<String> log = new ArrayList<>();
+        private final CompletableFuture<Void> exited = new CompletableFuture<>();
+        int port;
+        int replicationPort;
+
+        private Instance(String name, Process process) {
+            this.name = name;
+            this.process = process;
+        }
+
+        static Instance start(String name, List<String> settings) throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("ch.brewingstand.Main");
+            command.add("--port=0");
+            command.add("--host=127.0.0.1");
+            command.add("--admission=false");
+            command.addAll(settings);
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            Instance instance = new Instance(name, process);
+            Thread.ofVirtual().start(instance::readLog);
+            return instance;
+        }
+
+        private void readLog() {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    synchronized (log) {
+                        log.add(line);
+                        log.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // the process is gone
+            } finally {
+                exited.complete(null);
+                synchronized (log) {
+                    log.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits for a line of the log.
+         *
+         * @return the first group of the pattern in the first matching line
+         */
+        String await(Pattern pattern) throws InterruptedException {
+            long deadline = System.nanoTime() + CONVERGENCE.toNanos();
+            synchronized (log) {
+                for (int read = 0; ; ) {
+                    for (; read < log.size(); read++) {
+                        Matcher matcher = pattern.matcher(log.get(read));
+                        if (matcher.find()) return matcher.group(1);
+                    }
+                    long millis = (deadline - System.nanoTime()) / 1_000_000;
+                    if (exited.isDone() || millis <= 0) {
+                        throw new AssertionError("The " + name + " did not log " + pattern + ":\n"
+                                + String.join("\n", log));
+                    }
+                    log.wait(millis);
+                }
+            }
+        }
+
+        URI uri(String path) {
+            return URI.create("http://127.0.0.1:" + port + path);
+        }
+
+        void stop() throws InterruptedException {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroyForcibly().waitFor();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package ch.brewingstand.storage;
+
+import ch.brewingstand.endpoints.CoffeeClasses.Coffee;
+import ch.brewingstand.endpoints.ReviewClasses.Review;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Durability of the write-ahead log: what was acknowledged is recovered, from the log alone or from a snapshot and the
+ * log tail, and a record torn by a crash while it was written is dropped without failing the recovery. A snapshot
+ * loads the same on one thread or several, and a corrupted one fails the recovery.
+ */
+class LogBackendTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void codecRoundTrips() {
+        List<Mutation> mutations = List.of(
+                Mutation.putCoffee(new Coffee("Café crème", "Brésil", 7, "Noisette", "Arabica")),
+                Mutation.putCoffee(new Coffee("nulls", null, 1, null, null)),
+                Mutation.putReview(new Review("42", "Café crème", 5, "très bon ☕")),
+                Mutation.deleteReview("42"),
+                Mutation.deleteCoffee("nulls"),
+                Mutation.reviewIdWatermark(99));
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long seq = 0;
+        for (Mutation m : mutations) buffer.put(MutationCodec.encode(m.withSeq(++seq)));
+        buffer.flip();
+
+        List<Mutation> decoded = new ArrayList<>();
+        MutationCodec.Decoded result = MutationCodec.decodeAll(buffer, decoded::add);
+        assertTrue(result.complete());
+        assertEquals(mutations.size(), result.records());
+        for (int i = 0; i < mutations.size(); i++) assertEquals(mutations.get(i).withSeq(i + 1), decoded.get(i));
+    }
+
+    @Test
+    void logIsReplayedAfterACrash() throws IOException {
+        LogBackend backend = open(new Store(), Long.MAX_VALUE);
+        append(backend, Mutation.putCoffee(coffee("kept", 3)), Mutation.putCoffee(coffee("gone", 4)));
+        append(backend, Mutation.putReview(new Review("1", "kept", 4, "ok")), Mutation.putReview(new Review("2", "gone", 2, "meh")));
+        append(backend, Mutation.putCoffee(coffee("kept", 8)), Mutation.deleteCoffee("gone"));
+        // No close: the process dies with only the log on disk.
+
+        Store recovered = recover(1);
+        assertEquals(Map.of("kept", coffee("kept", 8)), recovered.coffees);
+        assertEquals(Map.of("1", new Review("1", "kept", 4, "ok")), recovered.reviews);
+    }
+
+    @Test
+    void snapshotAndTailAreRecovered() throws IOException {
+        Store live = new Store();
+        LogBackend backend = open(live, Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) append(backend, live, Mutation.putCoffee(coffee("c" + i, 1 + i % 10)));
+        backend.snapshot();
+        for (int i = 0; i < 100; i += 2) append(backend, live, Mutation.deleteCoffee("c" + i));
+        append(backend, live, Mutation.putCoffee(coffee("c1", 10)));
+
+        // The snapshot covers the first records: only the tail is left in the log.
+        assertEquals(1, segments().size());
+        Store recovered = recover(1);
+        assertEquals(live.coffees, recovered.coffees);
+        assertEquals(50, recovered.coffees.size());
+    }
+
+    @Test
+    void closingWritesASnapshot() throws IOException {
+        Store live = new Store();
+        LogBackend backend = open(live, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) append(backend, live, Mutation.putCoffee(coffee("s" + i, 5)));
+        backend.close();
+
+        assertTrue(Files.exists(dir.resolve("snapshot.bin")));
+        assertEquals(live.coffees, recover(1).coffees);
+    }
+
+    @Test
+    void tornTailIsDropped() throws IOException {
+        LogBackend backend = open(new Store(), Long.MAX_VALUE);
+        append(backend, Mutation.putCoffee(coffee("first", 1)));
+        append(backend, Mutation.putCoffee(coffee("second", 2)));
+        append(backend, Mutation.putCoffee(coffee("torn", 3)));
+
+        // The crash cut the last record short.
+        Path segment = segments().get(segments().size() - 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        Store recovered = recover(1);
+        assertEquals(Map.of("first", coffee("first", 1), "second", coffee("second", 2)), recovered.coffees);
+
+        // The recovered backend appends after the last whole record.
+        LogBackend reopened = new LogBackend(dir, true, Long.MAX_VALUE, 1);
+        Store again = new Store();
+        reopened.recover(again);
+        reopened.start(again);
+        append(reopened, again, Mutation.putCoffee(coffee("third", 4)));
+        assertEquals(again.coffees, recover(1).coffees);
+    }
+
+    @Test
+    void parallelLoadMatchesSequentialLoad() throws IOException {
+        Store live = new Store();
+        LogBackend backend = open(live, Long.MAX_VALUE);
+        List<Mutation> batch = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            batch.add(Mutation.putCoffee(coffee("p" + i, 1 + i % 10)));
+            batch.add(Mutation.putReview(new Review(Integer.toString(i), "p" + i, 1 + i % 5, "review " + i)));
+        }
+        append(backend, live, batch.toArray(Mutation[]::new));
+        backend.close();
+
+        Store sequential = recover(1);
+        Store parallel = recover(4);
+        assertEquals(live.coffees, sequential.coffees);
+        assertEquals(live.reviews, sequential.reviews);
+        assertEquals(sequential.coffees, parallel.coffees);
+        assertEquals(sequential.reviews, parallel.reviews);
+    }
+
+    @Test
+    void corruptedSnapshotFailsTheRecovery() throws IOException {
+        Path snapshot = writeSnapshot();
+        byte[] valid = Files.readAllBytes(snapshot);
+
+        // A flipped byte, in a record length, a checksum or a payload.
+        for (int offset : new int[]{24, 28, valid.length / 2, valid.length - 1}) {
+            byte[] corrupted = valid.clone();
+            corrupted[offset] ^= 0x5A;
+            Files.write(snapshot, corrupted);
+            for (int threads : new int[]{1, 4}) {
+                assertThrows(IOException.class, () -> recover(threads),
+                        "offset " + offset + ", " + threads + " threads");
+            }
+        }
+        // A truncated file, and a file that is not a snapshot.
+        Files.write(snapshot, Arrays.copyOf(valid, valid.length - 5));
+        assertThrows(IOException.class, () -> recover(4));
+        Files.write(snapshot, Arrays.copyOf(valid, 10));
+        assertThrows(IOException.class, () -> recover(4));
+        byte[] magic = valid.clone();
+        magic[0] ^= 0x5A;
+        Files.write(snapshot, magic);
+        assertThrows(IOException.class, () -> recover(4));
+
+        Files.write(snapshot, valid);
+        assertEquals(300, recover(4).coffees.size());
+    }
+
+    /**
+     * @return the snapshot of 300 coffees, written on close
+     */
+    private Path writeSnapshot() throws IOException {
+        Store live = new Store();
+        LogBackend backend = open(live, Long.MAX_VALUE);
+        for (int i = 0; i < 300; i++) append(backend, live, Mutation.putCoffee(coffee("x" + i, 1 + i % 10)));
+        backend.close();
+        return dir.resolve("snapshot.bin");
+    }
+
+    private LogBackend open(Store store, long snapshotEvery) throws IOException {
+        LogBackend backend = new LogBackend(dir, true, snapshotEvery, 1);
+        backend.recover(store);
+        backend.start(store);
+        return backend;
+    }
+
+    private Store recover(int loadThreads) throws IOException {
+        Store store = new Store();
+        new LogBackend(dir, true, Long.MAX_VALUE, loadThreads).recover(store);
+        return store;
+    }
+
+    private static void append(LogBackend backend, Mutation... mutations) {
+        backend.append(List.of(mutations)).join();
+    }
+
+    /**
+     * Applies the mutations to the live store first, as the controllers do, then appends them.
+     */
+    private static void append(LogBackend backend, Store live, Mutation... mutations) {
+        for (Mutation m : mutations) live.apply(m);
+        append(backend, mutations);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted().toList();
+        }
+    }
+
+    static Coffee coffee(String name, int intensity) {
+        return new Coffee(name, "Kenya", intensity, "Fruity", "Arabica");
+    }
+
+    /**
+     * A dataset holding the entities in maps, deleting the reviews of a deleted coffee like the controllers do.
+     */
+    static final class Store implements Dataset {
+        final Map<String, Coffee> coffees = new ConcurrentHashMap<>();
+        final Map<String, Review> reviews = new ConcurrentHashMap<>();
+
+        @Override
+        public void apply(Mutation m) {
+            switch (m.kind()) {
+                case COFFEE_PUT -> coffees.put(m.key(), m.coffee());
+                case COFFEE_DELETE -> {
+                    coffees.remove(m.key());
+                    reviews.values().removeIf(r -> r.coffeeName().equals(m.key()));
+                }
+                case REVIEW_PUT -> reviews.put(m.key(), m.review());
+                case REVIEW_DELETE -> reviews.remove(m.key());
+                case REVIEW_ID_WATERMARK -> { }
+            }
+        }
+
+        @Override
+        public void reserve(long entities) {
+        }
+
+        @Override
+        public void apply(Mutation mutation, long version) {
+            apply(mutation);
+        }
+
+        @Override
+        public long versionOf(Mutation mutation) {
+            return 0;
+        }
+
+        @Override
+        public void export(Consumer<Mutation> sink) {
+            new TreeMap<>(coffees).values().forEach(c -> sink.accept(Mutation.putCoffee(c)));
+            new TreeMap<>(reviews).values().forEach(r -> sink.accept(Mutation.putReview(r)));
+        }
+    }
+}